@@ -0,0 +1,48 @@
+package com.github.coderodde.util.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the JMH command line arguments with the GC
+ * profiler attached, so that the allocation rate and the GC counts are 
+ * reported next to each score. Unless told otherwise, the results are also 
+ * written to {@code jmh-result.json} for comparing runs against each other.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class BenchmarkMain {
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        
+        if (options.shouldList()) {
+            new Runner(options).list();
+            return;
+        }
+        
+        ChainedOptionsBuilder builder = 
+                new OptionsBuilder().parent(options)
+                                    .addProfiler(GCProfiler.class);
+        
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        
+        if (!options.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        
+        new Runner(builder.build()).run();
+    }
+}
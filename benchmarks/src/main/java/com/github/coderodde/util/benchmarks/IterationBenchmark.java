@@ -0,0 +1,66 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full and range scans.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class IterationBenchmark {
+    
+    private static final int RANGE = 1000;
+    
+    @Benchmark
+    public long iterateEntries(MapState state) {
+        long sum = 0L;
+        
+        for (Map.Entry<Integer, Integer> e : state.map.entrySet()) {
+            sum += e.getValue();
+        }
+        
+        return sum;
+    }
+    
+    @Benchmark
+    public long iterateKeys(MapState state) {
+        long sum = 0L;
+        
+        for (Integer key : state.map.keySet()) {
+            sum += key;
+        }
+        
+        return sum;
+    }
+    
+    /**
+     * Scans at most {@code RANGE} entries from the middle of the map.
+     */
+    @Benchmark
+    public long iterateSubMap(MapState state) {
+        int from = state.size / 2;
+        int to = Math.min(state.size, from + RANGE);
+        long sum = 0L;
+        
+        for (Integer value : state.map.subMap(MapState.key(from), 
+                                              MapState.key(to)).values()) {
+            sum += value;
+        }
+        
+        return sum;
+    }
+}
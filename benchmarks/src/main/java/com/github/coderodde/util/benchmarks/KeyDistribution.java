@@ -0,0 +1,93 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * The distributions of the keys looked up and updated by the benchmarks. 
+ * Each of them draws positions from {@code [0, n)}, where {@code n} is the
+ * number of keys in the map.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public enum KeyDistribution {
+    
+    UNIFORM {
+        @Override
+        int[] sample(int n, int count, SplittableRandom random) {
+            int[] positions = new int[count];
+            
+            for (int i = 0; i < count; i++) {
+                positions[i] = random.nextInt(n);
+            }
+            
+            return positions;
+        }
+    },
+    
+    /**
+     * A Zipfian distribution with the exponent 0.99 as in YCSB. The ranks are
+     * scattered over the key space so that the popular keys are not adjacent.
+     */
+    ZIPFIAN {
+        @Override
+        int[] sample(int n, int count, SplittableRandom random) {
+            double theta = 0.99;
+            double zetan = 0.0;
+            
+            for (int i = 1; i <= n; i++) {
+                zetan += 1.0 / Math.pow(i, theta);
+            }
+            
+            double zeta2 = 1.0 + 1.0 / Math.pow(2.0, theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1.0 - Math.pow(2.0 / n, 1.0 - theta)) 
+                       / (1.0 - zeta2 / zetan);
+            
+            int[] positions = new int[count];
+            
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetan;
+                long rank;
+                
+                if (uz < 1.0) {
+                    rank = 0;
+                } else if (uz < zeta2) {
+                    rank = 1;
+                } else {
+                    rank = (long) (n * Math.pow(eta * u - eta + 1.0, alpha));
+                }
+                
+                positions[i] = 
+                        (int) Long.remainderUnsigned(
+                                (rank + 1) * 0x9E3779B97F4A7C15L, n);
+            }
+            
+            return positions;
+        }
+    },
+    
+    /**
+     * Consecutive positions starting from a random one, wrapping around.
+     */
+    SEQUENTIAL {
+        @Override
+        int[] sample(int n, int count, SplittableRandom random) {
+            int[] positions = new int[count];
+            int position = random.nextInt(n);
+            
+            for (int i = 0; i < count; i++) {
+                positions[i] = position;
+                
+                if (++position == n) {
+                    position = 0;
+                }
+            }
+            
+            return positions;
+        }
+    };
+    
+    abstract int[] sample(int n, int count, SplittableRandom random);
+}
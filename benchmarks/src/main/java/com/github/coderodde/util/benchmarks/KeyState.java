@@ -0,0 +1,40 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.SplittableRandom;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Adds to {@link MapState} the keys to operate on, drawn in advance from the
+ * given distribution so that neither the sampling nor the boxing is 
+ * measured. {@code hits} are present in the map, {@code misses} fall between
+ * them.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public class KeyState extends MapState {
+    
+    static final int SAMPLES = 1 << 20;
+    
+    @Param
+    public KeyDistribution distribution;
+    
+    Integer[] hits;
+    Integer[] misses;
+    
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        int[] positions = 
+                distribution.sample(size, SAMPLES, new SplittableRandom(13));
+        
+        hits = new Integer[SAMPLES];
+        misses = new Integer[SAMPLES];
+        
+        for (int i = 0; i < SAMPLES; i++) {
+            hits[i] = key(positions[i]);
+            misses[i] = key(positions[i]) + 1;
+        }
+    }
+}
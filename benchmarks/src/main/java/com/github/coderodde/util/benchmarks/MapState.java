@@ -0,0 +1,45 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.NavigableMap;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A map of the given type holding the keys {@code 0, 2, ..., 2 * (size - 1)},
+ * each mapped to itself. The odd keys are never present.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@State(Scope.Benchmark)
+public class MapState {
+    
+    @Param
+    public MapType mapType;
+    
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+    
+    NavigableMap<Integer, Integer> map;
+    
+    @Setup(Level.Trial)
+    public void setUpMap() {
+        map = mapType.create(threadSafe());
+        
+        for (int i = 0; i < size; i++) {
+            Integer key = key(i);
+            map.put(key, key);
+        }
+    }
+    
+    boolean threadSafe() {
+        return false;
+    }
+    
+    static Integer key(int position) {
+        return 2 * position;
+    }
+}
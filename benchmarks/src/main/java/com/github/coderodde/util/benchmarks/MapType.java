@@ -0,0 +1,61 @@
+package com.github.coderodde.util.benchmarks;
+
+import com.github.coderodde.util.ShardedSkipListMap;
+import com.github.coderodde.util.SkipListMap;
+import com.github.coderodde.util.UnrolledSkipListMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The map implementations being compared.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public enum MapType {
+    
+    SKIP_LIST_MAP,
+    TREE_MAP,
+    CONCURRENT_SKIP_LIST_MAP,
+    UNROLLED_SKIP_LIST_MAP,
+    SEQUENTIAL_SKIP_LIST_MAP,
+    SHARDED_SKIP_LIST_MAP;
+    
+    /**
+     * Creates an empty map. If {@code threadSafe} is set, a {@code TreeMap},
+     * an {@code UnrolledSkipListMap} or a {@code SequentialSkipListMap} is 
+     * wrapped in a synchronized view so that it may take part in the 
+     * multi-threaded benchmarks.
+     * 
+     * @param threadSafe whether the map will be shared between threads.
+     * @return a new map.
+     */
+    NavigableMap<Integer, Integer> create(boolean threadSafe) {
+        switch (this) {
+            case SKIP_LIST_MAP:
+                return new SkipListMap<>();
+                
+            case CONCURRENT_SKIP_LIST_MAP:
+                return new ConcurrentSkipListMap<>();
+                
+            case SHARDED_SKIP_LIST_MAP:
+                // The splitters move to the actual keys as the map fills up.
+                return new ShardedSkipListMap<>(null, List.of(1 << 10, 
+                                                              1 << 14, 
+                                                              1 << 18));
+                
+            default:
+                NavigableMap<Integer, Integer> map = 
+                        (this == UNROLLED_SKIP_LIST_MAP) 
+                                ? new UnrolledSkipListMap<>()
+                        : (this == SEQUENTIAL_SKIP_LIST_MAP) 
+                                ? SkipListMap.sequential(null)
+                                : new TreeMap<>();
+                return threadSafe ? Collections.synchronizedNavigableMap(map)
+                                  : map;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups mixed with updates at a given ratio, on one thread, four threads
+ * and as many threads as there are processors sharing one map. A 
+ * {@code TreeMap} is accessed through a synchronized view. An update removes
+ * a present key and puts it back.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MixedBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class SharedKeyState extends KeyState {
+        
+        @Override
+        boolean threadSafe() {
+            return true;
+        }
+    }
+    
+    @Param({"100", "99", "95", "50"})
+    public int readPercent;
+    
+    @Benchmark
+    @Threads(1)
+    public Integer oneThread(SharedKeyState state, ThreadState thread) {
+        return operate(state, thread);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Integer fourThreads(SharedKeyState state, ThreadState thread) {
+        return operate(state, thread);
+    }
+    
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Integer allThreads(SharedKeyState state, ThreadState thread) {
+        return operate(state, thread);
+    }
+    
+    private Integer operate(SharedKeyState state, ThreadState thread) {
+        Integer key = state.hits[thread.nextSample()];
+        
+        if (thread.random.nextInt(100) < readPercent) {
+            return state.map.get(key);
+        }
+        
+        state.map.remove(key);
+        return state.map.put(key, key);
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded lookups.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ReadBenchmark {
+    
+    @Benchmark
+    public Integer getHit(KeyState state, ThreadState thread) {
+        return state.map.get(state.hits[thread.nextSample()]);
+    }
+    
+    @Benchmark
+    public Integer getMiss(KeyState state, ThreadState thread) {
+        return state.map.get(state.misses[thread.nextSample()]);
+    }
+    
+    @Benchmark
+    public Integer ceilingKey(KeyState state, ThreadState thread) {
+        return state.map.ceilingKey(state.misses[thread.nextSample()]);
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The position of a benchmark thread in the sampled keys of 
+ * {@link KeyState}. Every thread starts at a different position and has its
+ * own random number generator for choosing the operations.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@State(Scope.Thread)
+public class ThreadState {
+    
+    private static final AtomicLong SEEDS = new AtomicLong(17);
+    
+    SplittableRandom random;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        random = new SplittableRandom(SEEDS.getAndIncrement());
+        next = random.nextInt(KeyState.SAMPLES);
+    }
+    
+    int nextSample() {
+        return next++ & (KeyState.SAMPLES - 1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.coderodde.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded updates. Every operation leaves the map as it found it, so
+ * that the size stays fixed over the whole run.
+ * 
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class WriteBenchmark {
+    
+    /**
+     * Overwrites the value of a present key.
+     */
+    @Benchmark
+    public Integer put(KeyState state, ThreadState thread) {
+        Integer key = state.hits[thread.nextSample()];
+        return state.map.put(key, key);
+    }
+    
+    /**
+     * Removes a present key and puts it back.
+     */
+    @Benchmark
+    public Integer removeAndPut(KeyState state, ThreadState thread) {
+        Integer key = state.hits[thread.nextSample()];
+        state.map.remove(key);
+        return state.map.put(key, key);
+    }
+    
+    /**
+     * Inserts an absent key and removes it again.
+     */
+    @Benchmark
+    public Integer insertAndRemove(KeyState state, ThreadState thread) {
+        Integer key = state.misses[thread.nextSample()];
+        state.map.put(key, key);
+        return state.map.remove(key);
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.coderodde.util;
+
+/**
+ * The common part of the built-in {@link LevelPolicy} implementations, which
+ * turn random bits into levels.
+ *
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+abstract class AbstractLevelPolicy implements LevelPolicy {
+    
+    /**
+     * The greatest maximum level of any policy.
+     */
+    static final int MAX_LEVEL = 62;
+    
+    private final int branching;
+    private final int maxLevel;
+    private final int shift;
+    
+    AbstractLevelPolicy(int branching, int maxLevel) {
+        if (branching != 2 && branching != 4 && branching != 8) {
+            throw new IllegalArgumentException(
+                    "branching = " + branching + ", must be 2, 4 or 8");
+        }
+        
+        int shift = Integer.numberOfTrailingZeros(branching);
+        int limit = Math.min(MAX_LEVEL, Long.SIZE / shift);
+        
+        if (maxLevel < 1 || maxLevel > limit) {
+            throw new IllegalArgumentException(
+                    "maxLevel = " + maxLevel + ", must be in [1, " + limit 
+                            + "] for branching " + branching);
+        }
+        
+        this.branching = branching;
+        this.maxLevel = maxLevel;
+        this.shift = shift;
+    }
+    
+    /**
+     * Checks that the maps can use {@code levelPolicy}: the bulk construction
+     * takes its branching factor for a power of two and the towers have at 
+     * most {@link #MAX_LEVEL} levels.
+     * 
+     * @param levelPolicy the policy to check.
+     * @return {@code levelPolicy}.
+     * @throws IllegalArgumentException if the branching factor is not a power
+     *                                  of two of at least 2 or the maximum 
+     *                                  level is not in 
+     *                                  {@code [1, MAX_LEVEL]}.
+     */
+    static LevelPolicy check(LevelPolicy levelPolicy) {
+        int branching = levelPolicy.branching();
+        int maxLevel = levelPolicy.maxLevel();
+        
+        if (branching < 2 || (branching & (branching - 1)) != 0) {
+            throw new IllegalArgumentException(
+                    "branching = " + branching 
+                            + ", must be a power of two of at least 2");
+        }
+        
+        if (maxLevel < 1 || maxLevel > MAX_LEVEL) {
+            throw new IllegalArgumentException(
+                    "maxLevel = " + maxLevel + ", must be in [1, " 
+                            + MAX_LEVEL + "]");
+        }
+        
+        return levelPolicy;
+    }
+    
+    @Override
+    public int branching() {
+        return branching;
+    }
+    
+    @Override
+    public int maxLevel() {
+        return maxLevel;
+    }
+    
+    /**
+     * Returns the level of a new node with the primitive key {@code key}, 
+     * distributed as {@link #level(Object)} is for the boxed key, without 
+     * boxing it. The maps with primitive keys call this for the built-in 
+     * policies.
+     */
+    abstract int level(long key);
+    
+    /**
+     * Returns the level of a new node with the primitive key {@code key} as
+     * chosen by {@code levelPolicy}, boxing the key only for a policy that is
+     * not a built-in one.
+     */
+    static int level(LevelPolicy levelPolicy, long key) {
+        return (levelPolicy instanceof AbstractLevelPolicy) 
+                ? ((AbstractLevelPolicy) levelPolicy).level(key)
+                : levelPolicy.level(key);
+    }
+    
+    /**
+     * Counts the groups of {@code log2(branching)} zero bits at the low
+     * end of {@code rnd}, each of which happens with the promotion
+     * probability. The 64 bits of {@code rnd} hold at most 
+     * {@code 64 / log2(branching)} groups, which bounds the maximum level.
+     */
+    int levelOf(long rnd) {
+        return Math.min(Long.numberOfTrailingZeros(rnd) / shift, maxLevel);
+    }
+}
@@ -0,0 +1,653 @@
+package com.github.coderodde.util;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A skeletal {@link NavigableMap} for the maps of this package that are not
+ * {@link SkipListMap}s. A subclass provides {@link #findNearEntry},
+ * {@link #firstEntry}, {@link #lastEntry} and {@link #entryIterator(Object,
+ * boolean, boolean)}; all the other navigation methods as well as the
+ * collection views, the range views and the descending views are derived
+ * from them.
+ * <p>
+ * The navigation methods and the views so derived behave exactly as those
+ * of {@link SkipListMap}. The iterators are not fail-fast: after a 
+ * modification by other means they resume right after the last key they 
+ * returned.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+abstract class AbstractNavigableMap<K, V> extends AbstractMap<K, V>
+                                         implements NavigableMap<K, V> {
+    
+    /**
+     * Relation bits for {@link #findNearEntry}, the same as in
+     * {@link SkipListMap}.
+     */
+    static final int EQ = 1;
+    static final int LT = 2;
+    static final int GT = 0;
+    
+    private SkipListMap.KeySet<K,V> keySet;
+    private SkipListMap.Values<K,V> values;
+    private SkipListMap.EntrySet<K,V> entrySet;
+    private NavigableMap<K,V> descendingMap;
+    
+    /**
+     * Returns the entry closest to {@code key} in the relation {@code rel},
+     * which is {@code GT} or {@code LT} optionally combined with {@code EQ}.
+     */
+    abstract Map.Entry<K,V> findNearEntry(K key, int rel);
+    
+    /**
+     * Returns an iterator over the entries starting at {@code from}, or at the
+     * first (last if {@code descending}) entry if {@code from} is
+     * {@code null}. The iterator supports {@code remove} and resumes after the
+     * last returned key if the map is modified by other means.
+     */
+    abstract Iterator<Map.Entry<K,V>> entryIterator(K from,
+                                                    boolean inclusive,
+                                                    boolean descending);
+    
+    Iterator<Map.Entry<K,V>> entryIterator() {
+        return entryIterator(null, true, false);
+    }
+    
+    Iterator<K> keyIterator() {
+        Iterator<Map.Entry<K,V>> it = entryIterator();
+        
+        return new Iterator<K>() {
+            
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            @Override
+            public K next() {
+                return it.next().getKey();
+            }
+            
+            @Override
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+    
+    Iterator<V> valueIterator() {
+        Iterator<Map.Entry<K,V>> it = entryIterator();
+        
+        return new Iterator<V>() {
+            
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            @Override
+            public V next() {
+                return it.next().getValue();
+            }
+            
+            @Override
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+    
+    @Override
+    public Map.Entry<K,V> lowerEntry(K key) {
+        return findNearEntry(checkKey(key), LT);
+    }
+    
+    @Override
+    public K lowerKey(K key) {
+        return keyOrNull(findNearEntry(checkKey(key), LT));
+    }
+    
+    @Override
+    public Map.Entry<K,V> floorEntry(K key) {
+        return findNearEntry(checkKey(key), LT | EQ);
+    }
+    
+    @Override
+    public K floorKey(K key) {
+        return keyOrNull(findNearEntry(checkKey(key), LT | EQ));
+    }
+    
+    @Override
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        return findNearEntry(checkKey(key), GT | EQ);
+    }
+    
+    @Override
+    public K ceilingKey(K key) {
+        return keyOrNull(findNearEntry(checkKey(key), GT | EQ));
+    }
+    
+    @Override
+    public Map.Entry<K,V> higherEntry(K key) {
+        return findNearEntry(checkKey(key), GT);
+    }
+    
+    @Override
+    public K higherKey(K key) {
+        return keyOrNull(findNearEntry(checkKey(key), GT));
+    }
+    
+    @Override
+    public K firstKey() {
+        Map.Entry<K,V> e = firstEntry();
+        
+        if (e == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return e.getKey();
+    }
+    
+    @Override
+    public K lastKey() {
+        Map.Entry<K,V> e = lastEntry();
+        
+        if (e == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return e.getKey();
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollFirstEntry() {
+        return pollEntry(firstEntry());
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollLastEntry() {
+        return pollEntry(lastEntry());
+    }
+    
+    @Override
+    public NavigableSet<K> keySet() {
+        SkipListMap.KeySet<K,V> ks;
+        
+        if ((ks = keySet) != null) {
+            return ks;
+        }
+        
+        return keySet = new SkipListMap.KeySet<>(this);
+    }
+    
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return keySet();
+    }
+    
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+    
+    @Override
+    public Collection<V> values() {
+        SkipListMap.Values<K,V> vs;
+        
+        if ((vs = values) != null) {
+            return vs;
+        }
+        
+        return values = new SkipListMap.Values<>(this);
+    }
+    
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        SkipListMap.EntrySet<K,V> es;
+        
+        if ((es = entrySet) != null) {
+            return es;
+        }
+        
+        return entrySet = new SkipListMap.EntrySet<>(this);
+    }
+    
+    @Override
+    public NavigableMap<K,V> descendingMap() {
+        NavigableMap<K,V> dm;
+        
+        if ((dm = descendingMap) != null) {
+            return dm;
+        }
+        
+        return descendingMap =
+                new SubMap<>(this, null, false, null, false, true);
+    }
+    
+    @Override
+    public NavigableMap<K,V> subMap(K fromKey,
+                                    boolean fromInclusive,
+                                    K toKey,
+                                    boolean toInclusive) {
+        if (fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this,
+                            fromKey,
+                            fromInclusive,
+                            toKey,
+                            toInclusive,
+                            false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        if (toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this, null, false, toKey, inclusive, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        if (fromKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this, fromKey, inclusive, null, false, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+    
+    private Map.Entry<K,V> pollEntry(Map.Entry<K,V> e) {
+        if (e == null) {
+            return null;
+        }
+        
+        V v = remove(e.getKey());
+        return (v == null)
+                ? null
+                : new AbstractMap.SimpleImmutableEntry<>(e.getKey(), v);
+    }
+    
+    private static <K> K checkKey(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        return key;
+    }
+    
+    private static <K,V> K keyOrNull(Map.Entry<K,V> e) {
+        return (e == null) ? null : e.getKey();
+    }
+    
+    /**
+     * A live view of a key range of an {@link AbstractNavigableMap}, possibly
+     * in descending order. The range views of a view are created directly
+     * over the backing map with the intersected bounds.
+     */
+    static final class SubMap<K,V> extends AbstractNavigableMap<K,V> {
+        
+        final AbstractNavigableMap<K,V> m;
+        private final K lo;
+        private final K hi;
+        private final boolean loInclusive;
+        private final boolean hiInclusive;
+        final boolean isDescending;
+        
+        SubMap(AbstractNavigableMap<K,V> map,
+               K fromKey,
+               boolean fromInclusive,
+               K toKey,
+               boolean toInclusive,
+               boolean isDescending) {
+            Comparator<? super K> cmp = map.comparator();
+            
+            if (fromKey != null
+                    && toKey != null
+                    && SkipListMap.cpr(cmp, fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("inconsistent range");
+            }
+            
+            this.m = map;
+            this.lo = fromKey;
+            this.hi = toKey;
+            this.loInclusive = fromInclusive;
+            this.hiInclusive = toInclusive;
+            this.isDescending = isDescending;
+        }
+        
+        private boolean tooLow(Object key, Comparator<? super K> cmp) {
+            int c;
+            return lo != null
+                    && ((c = SkipListMap.cpr(cmp, key, lo)) < 0
+                        || (c == 0 && !loInclusive));
+        }
+        
+        private boolean tooHigh(Object key, Comparator<? super K> cmp) {
+            int c;
+            return hi != null
+                    && ((c = SkipListMap.cpr(cmp, key, hi)) > 0
+                        || (c == 0 && !hiInclusive));
+        }
+        
+        private boolean inBounds(Object key, Comparator<? super K> cmp) {
+            return !tooLow(key, cmp) && !tooHigh(key, cmp);
+        }
+        
+        private void checkKeyBounds(K key, Comparator<? super K> cmp) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            if (!inBounds(key, cmp)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+        }
+        
+        private Map.Entry<K,V> lowestEntry() {
+            Map.Entry<K,V> e = (lo == null)
+                    ? m.firstEntry()
+                    : m.findNearEntry(lo, loInclusive ? (GT | EQ) : GT);
+            
+            return (e == null || tooHigh(e.getKey(), m.comparator())) ? null
+                                                                      : e;
+        }
+        
+        private Map.Entry<K,V> highestEntry() {
+            Map.Entry<K,V> e = (hi == null)
+                    ? m.lastEntry()
+                    : m.findNearEntry(hi, hiInclusive ? (LT | EQ) : LT);
+            
+            return (e == null || tooLow(e.getKey(), m.comparator())) ? null
+                                                                     : e;
+        }
+        
+        @Override
+        Map.Entry<K,V> findNearEntry(K key, int rel) {
+            Comparator<? super K> cmp = m.comparator();
+            
+            if (isDescending) { // swap the relation
+                rel ^= LT;
+            }
+            
+            if (tooLow(key, cmp)) {
+                return ((rel & LT) != 0) ? null : lowestEntry();
+            }
+            
+            if (tooHigh(key, cmp)) {
+                return ((rel & LT) != 0) ? highestEntry() : null;
+            }
+            
+            Map.Entry<K,V> e = m.findNearEntry(key, rel);
+            return (e == null || !inBounds(e.getKey(), cmp)) ? null : e;
+        }
+        
+        @Override
+        Iterator<Map.Entry<K,V>> entryIterator(K from,
+                                               boolean inclusive,
+                                               boolean descending) {
+            Comparator<? super K> cmp = m.comparator();
+            boolean down = descending ^ isDescending;
+            
+            if (from == null
+                    || (down ? tooHigh(from, cmp) : tooLow(from, cmp))) {
+                from = down ? hi : lo;
+                inclusive = down ? hiInclusive : loInclusive;
+            }
+            
+            Iterator<Map.Entry<K,V>> it = m.entryIterator(from,
+                                                          inclusive,
+                                                          down);
+            
+            return new Iterator<Map.Entry<K,V>>() {
+                
+                Map.Entry<K,V> next = advance();
+                Map.Entry<K,V> lastReturned;
+                
+                private Map.Entry<K,V> advance() {
+                    if (!it.hasNext()) {
+                        return null;
+                    }
+                    
+                    Map.Entry<K,V> e = it.next();
+                    K k = e.getKey();
+                    return (down ? tooLow(k, cmp) : tooHigh(k, cmp)) ? null
+                                                                     : e;
+                }
+                
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+                
+                @Override
+                public Map.Entry<K,V> next() {
+                    Map.Entry<K,V> e;
+                    
+                    if ((e = next) == null) {
+                        throw new NoSuchElementException();
+                    }
+                    
+                    next = advance();
+                    return lastReturned = e;
+                }
+                
+                @Override
+                public void remove() {
+                    Map.Entry<K,V> e;
+                    
+                    if ((e = lastReturned) == null) {
+                        throw new IllegalStateException();
+                    }
+                    
+                    m.remove(e.getKey());
+                    lastReturned = null;
+                }
+            };
+        }
+        
+        @Override
+        public Comparator<? super K> comparator() {
+            Comparator<? super K> cmp = m.comparator();
+            
+            if (!isDescending) {
+                return cmp;
+            }
+            
+            return (cmp == null)
+                    ? (Comparator<? super K>) Collections.reverseOrder()
+                    : Collections.reverseOrder(cmp);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            return inBounds(key, m.comparator()) && m.containsKey(key);
+        }
+        
+        @Override
+        public V get(Object key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            return !inBounds(key, m.comparator()) ? null : m.get(key);
+        }
+        
+        @Override
+        public V put(K key, V value) {
+            checkKeyBounds(key, m.comparator());
+            return m.put(key, value);
+        }
+        
+        @Override
+        public V remove(Object key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            return !inBounds(key, m.comparator()) ? null : m.remove(key);
+        }
+        
+        @Override
+        public int size() {
+            long count = 0;
+            
+            for (Iterator<?> it = entryIterator(); it.hasNext(); it.next()) {
+                ++count;
+            }
+            
+            return count >= Integer.MAX_VALUE ? Integer.MAX_VALUE
+                                              : (int) count;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return lowestEntry() == null;
+        }
+        
+        @Override
+        public void clear() {
+            Map.Entry<K,V> e;
+            
+            while ((e = lowestEntry()) != null) {
+                m.remove(e.getKey());
+            }
+        }
+        
+        @Override
+        public Map.Entry<K,V> firstEntry() {
+            return isDescending ? highestEntry() : lowestEntry();
+        }
+        
+        @Override
+        public Map.Entry<K,V> lastEntry() {
+            return isDescending ? lowestEntry() : highestEntry();
+        }
+        
+        @Override
+        public NavigableMap<K,V> descendingMap() {
+            return new SubMap<>(m,
+                                lo,
+                                loInclusive,
+                                hi,
+                                hiInclusive,
+                                !isDescending);
+        }
+        
+        @Override
+        public NavigableMap<K,V> subMap(K fromKey,
+                                        boolean fromInclusive,
+                                        K toKey,
+                                        boolean toInclusive) {
+            if (fromKey == null || toKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(fromKey, fromInclusive, toKey, toInclusive);
+        }
+        
+        @Override
+        public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+            if (toKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(null, false, toKey, inclusive);
+        }
+        
+        @Override
+        public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+            if (fromKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(fromKey, inclusive, null, false);
+        }
+        
+        /**
+         * Creates a view of the intersection of this range and the given one,
+         * both expressed in the order of this view.
+         */
+        private SubMap<K,V> newSubMap(K fromKey,
+                                      boolean fromInclusive,
+                                      K toKey,
+                                      boolean toInclusive) {
+            Comparator<? super K> cmp = m.comparator();
+            
+            if (isDescending) { // flip the bounds
+                K tk = fromKey;
+                fromKey = toKey;
+                toKey = tk;
+                boolean ti = fromInclusive;
+                fromInclusive = toInclusive;
+                toInclusive = ti;
+            }
+            
+            if (lo != null) {
+                if (fromKey == null) {
+                    fromKey = lo;
+                    fromInclusive = loInclusive;
+                } else {
+                    int c = SkipListMap.cpr(cmp, fromKey, lo);
+                    
+                    if (c < 0 || (c == 0 && !loInclusive && fromInclusive)) {
+                        throw new IllegalArgumentException("key out of range");
+                    }
+                }
+            }
+            
+            if (hi != null) {
+                if (toKey == null) {
+                    toKey = hi;
+                    toInclusive = hiInclusive;
+                } else {
+                    int c = SkipListMap.cpr(cmp, toKey, hi);
+                    
+                    if (c > 0 || (c == 0 && !hiInclusive && toInclusive)) {
+                        throw new IllegalArgumentException("key out of range");
+                    }
+                }
+            }
+            
+            return new SubMap<>(m,
+                                fromKey,
+                                fromInclusive,
+                                toKey,
+                                toInclusive,
+                                isDescending);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.coderodde.util;
+
+import java.util.Comparator;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A monoid over the values of a {@link SkipListMap}, whose aggregates the map
+ * caches in its index links so that {@link SkipListMap#aggregate} folds a key
+ * range in logarithmic time. The values are folded in ascending key order,
+ * so {@link #combine} must be associative but need not be commutative, and
+ * {@link #identity} must be neutral with respect to it.
+ *
+ * @param <V> the value type.
+ * @param <A> the aggregate type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public interface Aggregator<V, A> {
+    
+    /**
+     * Returns the aggregate of no values.
+     *
+     * @return the identity.
+     */
+    A identity();
+    
+    /**
+     * Returns the aggregate of the single value {@code value}.
+     *
+     * @param value the value.
+     * @return the aggregate.
+     */
+    A lift(V value);
+    
+    /**
+     * Returns the aggregate of the values aggregated by {@code left} followed
+     * by the values aggregated by {@code right}.
+     *
+     * @param left  the aggregate of the lower keys.
+     * @param right the aggregate of the higher keys.
+     * @return the combined aggregate.
+     */
+    A combine(A left, A right);
+    
+    /**
+     * Returns an aggregator made of the given functions.
+     *
+     * @param <V>      the value type.
+     * @param <A>      the aggregate type.
+     * @param identity the aggregate of no values.
+     * @param lift     the aggregate of a single value.
+     * @param combine  the associative combining function.
+     * @return the aggregator.
+     */
+    static <V, A> Aggregator<V, A> of(A identity,
+                                      Function<? super V, ? extends A> lift,
+                                      BinaryOperator<A> combine) {
+        if (lift == null || combine == null) {
+            throw new NullPointerException();
+        }
+        
+        return new Aggregator<>() {
+            
+            @Override
+            public A identity() {
+                return identity;
+            }
+            
+            @Override
+            public A lift(V value) {
+                return lift.apply(value);
+            }
+            
+            @Override
+            public A combine(A left, A right) {
+                return combine.apply(left, right);
+            }
+        };
+    }
+    
+    /**
+     * Returns an aggregator summing the values mapped to {@code long}s.
+     *
+     * @param <V> the value type.
+     * @param f   the function mapping a value to the number to add.
+     * @return the summing aggregator.
+     */
+    static <V> Aggregator<V, Long> summingLong(ToLongFunction<? super V> f) {
+        if (f == null) {
+            throw new NullPointerException();
+        }
+        
+        return of(0L, v -> f.applyAsLong(v), Long::sum);
+    }
+    
+    /**
+     * Returns an aggregator selecting the least value, or {@code null} for no
+     * values.
+     *
+     * @param <V>        the value type.
+     * @param comparator the value comparator.
+     * @return the minimum aggregator.
+     */
+    static <V> Aggregator<V, V> minimum(Comparator<? super V> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException();
+        }
+        
+        return of(null, v -> v, (a, b) ->
+                a == null ? b
+              : b == null ? a
+              : comparator.compare(b, a) < 0 ? b : a);
+    }
+    
+    /**
+     * Returns an aggregator selecting the greatest value, or {@code null} for
+     * no values.
+     *
+     * @param <V>        the value type.
+     * @param comparator the value comparator.
+     * @return the maximum aggregator.
+     */
+    static <V> Aggregator<V, V> maximum(Comparator<? super V> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException();
+        }
+        
+        return of(null, v -> v, (a, b) ->
+                a == null ? b
+              : b == null ? a
+              : comparator.compare(b, a) > 0 ? b : a);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.coderodde.util;
+
+/**
+ * This class implements a map from primitive {@code int} keys to objects
+ * using skip lists. It is a view of a {@link LongSkipListMap} whose keys are
+ * the widened {@code int} keys: widening preserves the order of the keys, so
+ * the two maps share one implementation and the keys are still stored unboxed
+ * and compared with plain relational operators.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class IntSkipListMap<V> {
+    
+    /**
+     * Receives the mappings visited by a scan.
+     *
+     * @param <V> the value type.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        
+        void accept(int key, V value);
+    }
+    
+    private final LongSkipListMap<V> map;
+    
+    public IntSkipListMap() {
+        this(LevelPolicy.defaultPolicy());
+    }
+    
+    public IntSkipListMap(LevelPolicy levelPolicy) {
+        this.map = new LongSkipListMap<>(levelPolicy);
+    }
+    
+    public LevelPolicy levelPolicy() {
+        return map.levelPolicy();
+    }
+    
+    public V get(int key) {
+        return map.get(key);
+    }
+    
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+    
+    public V put(int key, V value) {
+        return map.put(key, value);
+    }
+    
+    public V remove(int key) {
+        return map.remove(key);
+    }
+    
+    public int size() {
+        return map.size();
+    }
+    
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+    
+    public void clear() {
+        map.clear();
+    }
+    
+    public int firstKey() {
+        return (int) map.firstKey();
+    }
+    
+    public int lastKey() {
+        return (int) map.lastKey();
+    }
+    
+    /**
+     * Passes all the mappings to {@code action} in ascending key order.
+     *
+     * @param action the action to perform.
+     */
+    public void forEach(EntryConsumer<? super V> action) {
+        map.forEach((k, v) -> action.accept((int) k, v));
+    }
+    
+    /**
+     * Passes all the mappings with keys in {@code [fromKey, toKey)} to
+     * {@code action} in ascending key order. The first key is located via the
+     * index levels.
+     *
+     * @param fromKey the inclusive lower bound.
+     * @param toKey   the exclusive upper bound.
+     * @param action  the action to perform.
+     */
+    public void forEachInRange(int fromKey,
+                               int toKey,
+                               EntryConsumer<? super V> action) {
+        map.forEachInRange(fromKey, toKey, (k, v) -> action.accept((int) k, v));
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.coderodde.util;
+
+/**
+ * Maps the keys of a {@link SkipListMap} to {@code long} prefixes that the map
+ * caches in its nodes. A search compares the prefix of the searched key with
+ * the cached prefix of each node it visits as unsigned numbers and calls the
+ * comparator only when the two are equal, so that most steps neither call
+ * the comparator nor touch the key object of the node.
+ * <p>
+ * The prefixes must be consistent with the comparator of the map: whenever
+ * {@code compare(a, b) < 0}, {@code Long.compareUnsigned(prefix(a),
+ * prefix(b)) <= 0}. Equal keys thus have equal prefixes, while distinct keys
+ * may share one.
+ *
+ * @param <K> the key type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@FunctionalInterface
+public interface KeyPrefix<K> {
+    
+    /**
+     * Returns the prefix of {@code key}.
+     *
+     * @param key the key.
+     * @return the prefix, ordered as an unsigned number.
+     */
+    long prefix(K key);
+    
+    /**
+     * Returns the prefixes of strings in their natural ordering: the first 
+     * eight bytes of an encoding of the UTF-16 code units that stores a code 
+     * unit below {@code 0xFF} in a single byte and any other one as the byte
+     * {@code 0xFF} followed by the two bytes of the code unit, padded with 
+     * zeros. A prefix thus spans up to eight characters of an ASCII key.
+     *
+     * @return the string prefixes.
+     */
+    static KeyPrefix<String> strings() {
+        return key -> {
+            long prefix = 0L;
+            int shift = 56;
+            
+            for (int i = 0; i < key.length() && shift >= 0; i++) {
+                char c = key.charAt(i);
+                
+                if (c < 0xFF) {
+                    prefix |= (long) c << shift;
+                    shift -= 8;
+                } else {
+                    long escaped = 0xFF0000L | c;
+                    prefix |= (shift >= 16) ? escaped << (shift - 16)
+                                            : escaped >>> (16 - shift);
+                    shift -= 24;
+                }
+            }
+            
+            return prefix;
+        };
+    }
+    
+    /**
+     * Returns the prefixes of byte arrays in the lexicographic ordering of
+     * {@link java.util.Arrays#compareUnsigned(byte[], byte[])}: the first
+     * eight bytes, padded with zeros.
+     *
+     * @return the byte array prefixes.
+     */
+    static KeyPrefix<byte[]> bytes() {
+        return key -> {
+            int length = Math.min(key.length, 8);
+            long prefix = 0L;
+            
+            for (int i = 0; i < length; i++) {
+                prefix |= (key[i] & 0xFFL) << (56 - 8 * i);
+            }
+            
+            return prefix;
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.coderodde.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how many index levels the tower of a newly inserted node gets in a
+ * {@link SkipListMap}. A node is promoted to each next level with the
+ * probability {@code 1 / branching()}, so a larger branching factor trades a
+ * longer search path for fewer indices, and no tower is ever taller than
+ * {@code maxLevel()}.
+ * <p>
+ * The policies are shared by all the threads updating a map, so their
+ * {@link #level} must be safe to call concurrently. The maps reject a policy
+ * whose branching factor is not a power of two of at least 2 or whose 
+ * maximum level is not in {@code [1, 62]}.
+ *
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public interface LevelPolicy {
+    
+    int DEFAULT_BRANCHING = 4;
+    int DEFAULT_MAX_LEVEL = 32;
+    
+    /**
+     * Returns the number of index levels of the tower of a new node.
+     *
+     * @param key the key of the new node.
+     * @return a number in {@code [0, maxLevel()]}.
+     */
+    int level(Object key);
+    
+    /**
+     * Returns the inverse of the promotion probability. The bulk construction
+     * promotes every {@code branching()}th node of a level to the next one.
+     *
+     * @return the branching factor.
+     */
+    default int branching() {
+        return DEFAULT_BRANCHING;
+    }
+    
+    default int maxLevel() {
+        return DEFAULT_MAX_LEVEL;
+    }
+    
+    /**
+     * Returns the default policy: a quarter promotion probability drawn from
+     * {@link ThreadLocalRandom}.
+     *
+     * @return the default policy.
+     */
+    static LevelPolicy defaultPolicy() {
+        return threadLocalRandom(DEFAULT_BRANCHING, DEFAULT_MAX_LEVEL);
+    }
+    
+    /**
+     * Returns a policy drawing the levels from {@link ThreadLocalRandom}, so
+     * that concurrent insertions never contend on a shared seed.
+     *
+     * @param branching the inverse of the promotion probability; one of
+     *                  {@code 2, 4, 8}.
+     * @param maxLevel  the maximum tower height; at most 62, 32 and 21 for 
+     *                  the branching factors 2, 4 and 8.
+     * @return a new policy.
+     */
+    static LevelPolicy threadLocalRandom(int branching, int maxLevel) {
+        return new AbstractLevelPolicy(branching, maxLevel) {
+            
+            @Override
+            public int level(Object key) {
+                return levelOf(ThreadLocalRandom.current().nextLong());
+            }
+            
+            @Override
+            int level(long key) {
+                return levelOf(ThreadLocalRandom.current().nextLong());
+            }
+        };
+    }
+    
+    /**
+     * Returns a policy drawing the levels from its own xorshift generator
+     * seeded with {@code seed}, so that the same sequence of insertions always
+     * builds the same towers. The state of the generator is updated without
+     * any synchronization: concurrent insertions may draw the same numbers,
+     * which affects the balance of the towers but never the correctness of
+     * the map.
+     *
+     * @param branching the inverse of the promotion probability; one of
+     *                  {@code 2, 4, 8}.
+     * @param maxLevel  the maximum tower height; at most 62, 32 and 21 for 
+     *                  the branching factors 2, 4 and 8.
+     * @param seed      the seed.
+     * @return a new policy.
+     */
+    static LevelPolicy xorShift(int branching, int maxLevel, long seed) {
+        return new AbstractLevelPolicy(branching, maxLevel) {
+            
+            private long state = (seed == 0L) ? 0x9E3779B97F4A7C15L : seed;
+            
+            @Override
+            public int level(Object key) {
+                return level(0L);
+            }
+            
+            @Override
+            int level(long key) {
+                long x = state;
+                x ^= x << 13;
+                x ^= x >>> 7;
+                x ^= x << 17;
+                state = x;
+                return levelOf(x * 0x2545F4914F6CDD1DL);
+            }
+        };
+    }
+    
+    /**
+     * Returns a policy deriving the level of a node from the hash code of its
+     * key alone, so that a set of keys gets the same towers regardless of the
+     * order of insertion. Keys chosen to collide can degrade such a map.
+     *
+     * @param branching the inverse of the promotion probability; one of
+     *                  {@code 2, 4, 8}.
+     * @param maxLevel  the maximum tower height; at most 62, 32 and 21 for 
+     *                  the branching factors 2, 4 and 8.
+     * @return a new policy.
+     */
+    static LevelPolicy keyHash(int branching, int maxLevel) {
+        return new AbstractLevelPolicy(branching, maxLevel) {
+            
+            @Override
+            public int level(Object key) {
+                return levelOfHash(key.hashCode());
+            }
+            
+            @Override
+            int level(long key) {
+                return levelOfHash(Long.hashCode(key));
+            }
+            
+            private int levelOfHash(int hash) {
+                long z = hash * 0x9E3779B97F4A7C15L;
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                return levelOf(z ^ (z >>> 31));
+            }
+        };
+    }
+}
@@ -0,0 +1,373 @@
+package com.github.coderodde.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * This class implements a map from primitive {@code long} keys to objects
+ * using skip lists. The index levels are laid out exactly as in
+ * {@link SkipListMap}, but the keys are stored unboxed in the nodes and
+ * compared with plain relational operators, so that lookups and range scans
+ * allocate nothing. The tower heights are chosen by a {@link LevelPolicy};
+ * the built-in policies take the keys unboxed, so that the insertions of new
+ * keys allocate only the nodes and the indices, whereas a custom policy is 
+ * passed each new key boxed.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class LongSkipListMap<V> {
+    
+    /**
+     * Receives the mappings visited by a scan.
+     *
+     * @param <V> the value type.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        
+        void accept(long key, V value);
+    }
+    
+    private static final class Node<V> {
+        final long key;
+        V val;
+        Node<V> next;
+        Node(long key, V value, Node<V> next) {
+            this.key = key;
+            this.val = value;
+            this.next = next;
+        }
+    }
+    
+    private static final class Index<V> {
+        final Node<V> node;
+        final Index<V> down;
+        Index<V> right;
+        Index(Node<V> node, Index<V> down, Index<V> right) {
+            this.node = node;
+            this.down = down;
+            this.right = right;
+        }
+    }
+    
+    private final LevelPolicy levelPolicy;
+    private Index<V> head;
+    private int size;
+    
+    public LongSkipListMap() {
+        this(LevelPolicy.defaultPolicy());
+    }
+    
+    public LongSkipListMap(LevelPolicy levelPolicy) {
+        this.levelPolicy = AbstractLevelPolicy.check(levelPolicy);
+    }
+    
+    public LevelPolicy levelPolicy() {
+        return levelPolicy;
+    }
+    
+    public V get(long key) {
+        Node<V> n = findNode(key);
+        return (n == null) ? null : n.val;
+    }
+    
+    public boolean containsKey(long key) {
+        return findNode(key) != null;
+    }
+    
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        Index<V> h;
+        int levels = 0;
+        
+        if ((h = head) == null) {
+            h = head = new Index<>(new Node<>(0L, null, null), null, null);
+        }
+        
+        Index<V> q = h;
+        
+        for (Index<V> r, d;;) {
+            while ((r = q.right) != null) {
+                Node<V> p = r.node;
+                
+                if (p.val == null) {
+                    q.right = r.right;
+                } else if (key > p.key) {
+                    q = r;
+                } else {
+                    break;
+                }
+            }
+            
+            if ((d = q.down) != null) {
+                ++levels;
+                q = d;
+            } else {
+                break;
+            }
+        }
+        
+        Node<V> b = q.node, n;
+        
+        while ((n = b.next) != null && n.key < key) {
+            b = n;
+        }
+        
+        if (n != null && n.key == key) {
+            V v = n.val;
+            n.val = value;
+            return v;
+        }
+        
+        Node<V> z = b.next = new Node<>(key, value, n);
+        int level = AbstractLevelPolicy.level(levelPolicy, key);
+        
+        if (level > 0) {
+            int skips = levels;
+            Index<V> x = null;
+            
+            for (;;) {
+                x = new Index<>(z, x, null);
+                
+                if (--level == 0 || --skips < 0) {
+                    break;
+                }
+            }
+            
+            if (addIndices(h, skips, x) && skips < 0) {
+                Index<V> hx = new Index<>(z, x, null);
+                Index<V> nh = new Index<>(h.node, h, hx);
+                
+                while (--level > 0) { // add the missing levels
+                    hx = new Index<>(z, hx, null);
+                    nh = new Index<>(h.node, nh, hx);
+                }
+                
+                head = nh;
+            }
+        }
+        
+        size++;
+        return null;
+    }
+    
+    public V remove(long key) {
+        Node<V> b, n;
+        
+        if ((b = findPredecessor(key)) == null) {
+            return null;
+        }
+        
+        while ((n = b.next) != null && n.key < key) {
+            b = n;
+        }
+        
+        if (n == null || n.key != key) {
+            return null;
+        }
+        
+        V v = n.val;
+        n.val = null; // marks the indices of 'n' as stale
+        b.next = n.next;
+        tryReduceLevel();
+        size--;
+        return v;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public void clear() {
+        head = null;
+        size = 0;
+    }
+    
+    public long firstKey() {
+        Index<V> h;
+        Node<V> n;
+        
+        if ((h = head) == null || (n = h.node.next) == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return n.key;
+    }
+    
+    public long lastKey() {
+        Index<V> q;
+        
+        if ((q = head) == null) {
+            throw new NoSuchElementException();
+        }
+        
+        for (Index<V> r, d;;) {
+            while ((r = q.right) != null) {
+                if (r.node.val == null) {
+                    q.right = r.right;
+                } else {
+                    q = r;
+                }
+            }
+            
+            if ((d = q.down) != null) {
+                q = d;
+            } else {
+                break;
+            }
+        }
+        
+        Node<V> b = q.node, n;
+        
+        while ((n = b.next) != null) {
+            b = n;
+        }
+        
+        if (b == q.node && b.val == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return b.key;
+    }
+    
+    /**
+     * Passes all the mappings to {@code action} in ascending key order.
+     *
+     * @param action the action to perform.
+     */
+    public void forEach(EntryConsumer<? super V> action) {
+        Index<V> h;
+        
+        if ((h = head) != null) {
+            for (Node<V> n = h.node.next; n != null; n = n.next) {
+                action.accept(n.key, n.val);
+            }
+        }
+    }
+    
+    /**
+     * Passes all the mappings with keys in {@code [fromKey, toKey)} to
+     * {@code action} in ascending key order. The first key is located via the
+     * index levels.
+     *
+     * @param fromKey the inclusive lower bound.
+     * @param toKey   the exclusive upper bound.
+     * @param action  the action to perform.
+     */
+    public void forEachInRange(long fromKey,
+                               long toKey,
+                               EntryConsumer<? super V> action) {
+        Node<V> b, n;
+        
+        if ((b = findPredecessor(fromKey)) == null) {
+            return;
+        }
+        
+        while ((n = b.next) != null && n.key < fromKey) {
+            b = n;
+        }
+        
+        for (; n != null && n.key < toKey; n = n.next) {
+            action.accept(n.key, n.val);
+        }
+    }
+    
+    private Node<V> findNode(long key) {
+        Node<V> b, n;
+        
+        if ((b = findPredecessor(key)) == null) {
+            return null;
+        }
+        
+        while ((n = b.next) != null && n.key < key) {
+            b = n;
+        }
+        
+        return (n != null && n.key == key) ? n : null;
+    }
+    
+    private Node<V> findPredecessor(long key) {
+        Index<V> q;
+        
+        if ((q = head) == null) {
+            return null;
+        }
+        
+        for (Index<V> r, d;;) {
+            while ((r = q.right) != null) {
+                Node<V> p = r.node;
+                
+                if (p.val == null) {
+                    q.right = r.right;
+                } else if (key > p.key) {
+                    q = r;
+                } else {
+                    break;
+                }
+            }
+            
+            if ((d = q.down) != null) {
+                q = d;
+            } else {
+                return q.node;
+            }
+        }
+    }
+    
+    private static <V> boolean addIndices(Index<V> q, int skips, Index<V> x) {
+        if (x == null || q == null) {
+            return false;
+        }
+        
+        long key = x.node.key;
+        
+        for (;;) {
+            Index<V> r, d;
+            
+            if ((r = q.right) != null) {
+                Node<V> p = r.node;
+                
+                if (p.val == null) {
+                    q.right = r.right;
+                    continue;
+                } else if (key > p.key) {
+                    q = r;
+                    continue;
+                } else if (key == p.key) {
+                    return false;
+                }
+            }
+            
+            if ((d = q.down) != null && skips > 0) {
+                --skips;
+                q = d;
+            } else if (d != null && !addIndices(d, 0, x.down)) {
+                return false;
+            } else {
+                x.right = r;
+                q.right = x;
+                return true;
+            }
+        }
+    }
+    
+    private void tryReduceLevel() {
+        Index<V> h, d, e;
+        
+        if ((h = head) != null && h.right == null &&
+            (d = h.down) != null && d.right == null &&
+            (e = d.down) != null && e.right == null) {
+            head = d;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.github.coderodde.util;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * This class implements a map sorted by keys using a skip list meant for a
+ * single thread. Unlike {@link SkipListMap}, which links its nodes with
+ * compare-and-set operations, deletes them by appending marker nodes and
+ * lets every traversal help unlinking them, this map keeps the whole tower
+ * of a node in one array of forward links. An update descends once, filling
+ * an array of the predecessors on each level, and then links or unlinks the
+ * tower in a single pass over it: a removal allocates nothing and no
+ * operation ever retries. The base level is linked in both directions, so
+ * that {@link #lastEntry} and each step of a descending iteration take
+ * constant time.
+ * <p>
+ * This class is not thread-safe. Instances are obtained through
+ * {@link SkipListMap#sequential}.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class SequentialSkipListMap<K, V>
+        extends AbstractNavigableMap<K, V> {
+    
+    private static final class Node<K,V> {
+        final K key;
+        V val;
+        final Node<K,V>[] next; // the forward link of each level
+        Node<K,V> prev; // the preceding node on the base level
+        
+        @SuppressWarnings("unchecked")
+        Node(K key, V value, int height) {
+            this.key = key;
+            this.val = value;
+            this.next = (Node<K,V>[]) new Node<?,?>[height];
+        }
+    }
+    
+    private final Comparator<? super K> comparator;
+    private final LevelPolicy levelPolicy;
+    
+    /**
+     * The header, whose tower is as tall as the level policy allows. It never
+     * holds any mapping; its back-link points at the last node, or at itself
+     * if the map is empty.
+     */
+    private final Node<K,V> header;
+    
+    /**
+     * The predecessors of the key of the latest update on each level, reused
+     * by all the updates.
+     */
+    private final Node<K,V>[] update;
+    private int levels; // the number of levels in use, at least 1
+    private int size;
+    private int modCount;
+    
+    SequentialSkipListMap(Comparator<? super K> comparator,
+                          LevelPolicy levelPolicy) {
+        AbstractLevelPolicy.check(levelPolicy);
+        this.comparator = comparator;
+        this.levelPolicy = levelPolicy;
+        this.header = new Node<>(null, null, levelPolicy.maxLevel() + 1);
+        this.update = header.next.clone();
+        this.header.prev = header;
+        this.levels = 1;
+    }
+    
+    public LevelPolicy levelPolicy() {
+        return levelPolicy;
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        Node<K,V> n = findPredecessor(key, false).next[0];
+        return (n != null && SkipListMap.cpr(comparator, key, n.key) == 0)
+                ? n.val
+                : null;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        for (Node<K,V> n = header.next[0]; n != null; n = n.next[0]) {
+            if (value.equals(n.val)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        
+        Node<K,V> n = findPredecessor(key, true).next[0];
+        
+        if (n != null && SkipListMap.cpr(comparator, key, n.key) == 0) {
+            V v = n.val;
+            n.val = value;
+            return v;
+        }
+        
+        int height = levelPolicy.level(key) + 1;
+        Node<K,V> z = new Node<>(key, value, height);
+        Node<K,V>[] preds = update;
+        
+        for (; levels < height; ++levels) {
+            preds[levels] = header;
+        }
+        
+        for (int i = 0; i < height; ++i) {
+            Node<K,V>[] p = preds[i].next;
+            z.next[i] = p[i];
+            p[i] = z;
+        }
+        
+        Node<K,V> s = z.next[0];
+        z.prev = preds[0];
+        ((s == null) ? header : s).prev = z;
+        
+        ++size;
+        ++modCount;
+        return null;
+    }
+    
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        Node<K,V> n = findPredecessor(key, true).next[0];
+        
+        if (n == null || SkipListMap.cpr(comparator, key, n.key) != 0) {
+            return null;
+        }
+        
+        unlink(n);
+        return n.val;
+    }
+    
+    @Override
+    public void clear() {
+        Arrays.fill(header.next, null);
+        header.prev = header;
+        levels = 1;
+        size = 0;
+        ++modCount;
+    }
+    
+    @Override
+    public Map.Entry<K,V> firstEntry() {
+        Node<K,V> n = header.next[0];
+        return (n == null) ? null : entryOf(n);
+    }
+    
+    @Override
+    public Map.Entry<K,V> lastEntry() {
+        Node<K,V> n = header.prev;
+        return (n == header) ? null : entryOf(n);
+    }
+    
+    /**
+     * Removes the first mapping. The predecessors of the first node are the
+     * header on every level, so no keys are compared.
+     */
+    @Override
+    public Map.Entry<K,V> pollFirstEntry() {
+        Node<K,V> n = header.next[0];
+        
+        if (n == null) {
+            return null;
+        }
+        
+        for (int i = 0; i < n.next.length; ++i) {
+            update[i] = header;
+        }
+        
+        unlink(n);
+        return entryOf(n);
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollLastEntry() {
+        Node<K,V> n = header.prev;
+        
+        if (n == header) {
+            return null;
+        }
+        
+        findPredecessor(n.key, true);
+        unlink(n);
+        return entryOf(n);
+    }
+    
+    /**
+     * Passes all the mappings to {@code action} in ascending key order
+     * following the base links.
+     *
+     * @param action the action to perform.
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        
+        int mc = modCount;
+        
+        for (Node<K,V> n = header.next[0]; n != null; n = n.next[0]) {
+            action.accept(n.key, n.val);
+            
+            if (mc != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+    
+    @Override
+    Map.Entry<K,V> findNearEntry(K key, int rel) {
+        Node<K,V> n = findNear(key, rel);
+        return (n == null) ? null : entryOf(n);
+    }
+    
+    @Override
+    Iterator<Map.Entry<K,V>> entryIterator(K from,
+                                           boolean inclusive,
+                                           boolean descending) {
+        return new NodeIterator(from, inclusive, descending);
+    }
+    
+    /**
+     * Returns the last node whose key is less than {@code key}, or the
+     * header if there is none. If {@code record} is set, the predecessor on
+     * each level in use is stored in {@link #update}.
+     */
+    private Node<K,V> findPredecessor(Object key, boolean record) {
+        Comparator<? super K> cmp = comparator;
+        Node<K,V> b = header;
+        
+        for (int i = levels - 1; i >= 0; --i) {
+            Node<K,V> n;
+            
+            while ((n = b.next[i]) != null
+                    && SkipListMap.cpr(cmp, n.key, key) < 0) {
+                b = n;
+            }
+            
+            if (record) {
+                update[i] = b;
+            }
+        }
+        
+        return b;
+    }
+    
+    /**
+     * Returns the node closest to {@code key} in the relation {@code rel}, or
+     * {@code null} if there is none.
+     */
+    private Node<K,V> findNear(Object key, int rel) {
+        Node<K,V> b = findPredecessor(key, false), n = b.next[0];
+        
+        if (n != null && (rel & EQ) != 0
+                && SkipListMap.cpr(comparator, key, n.key) == 0) {
+            return n;
+        }
+        
+        if ((rel & LT) != 0) {
+            return (b == header) ? null : b;
+        }
+        
+        if (n != null && SkipListMap.cpr(comparator, key, n.key) == 0) {
+            n = n.next[0];
+        }
+        
+        return n;
+    }
+    
+    /**
+     * Unlinks the tower of {@code n}, whose predecessors are in
+     * {@link #update}, and drops the levels left empty.
+     */
+    private void unlink(Node<K,V> n) {
+        Node<K,V>[] next = n.next;
+        
+        for (int i = 0; i < next.length; ++i) {
+            update[i].next[i] = next[i];
+        }
+        
+        Node<K,V> s = next[0];
+        ((s == null) ? header : s).prev = n.prev;
+        
+        while (levels > 1 && header.next[levels - 1] == null) {
+            --levels;
+        }
+        
+        --size;
+        ++modCount;
+    }
+    
+    private static <K,V> Map.Entry<K,V> entryOf(Node<K,V> n) {
+        return new AbstractMap.SimpleImmutableEntry<>(n.key, n.val);
+    }
+    
+    /**
+     * Iterates over the base list starting from a key, following the forward
+     * or the backward base links. A modification of the map may unlink the
+     * current node, so the iterator then locates the key following the last
+     * one it returned before going on.
+     */
+    private final class NodeIterator implements Iterator<Map.Entry<K,V>> {
+        
+        private final boolean descending;
+        private Node<K,V> next;
+        private int expectedModCount;
+        private K cursorKey;
+        private boolean cursorInclusive;
+        private boolean canRemove;
+        
+        NodeIterator(K from, boolean inclusive, boolean descending) {
+            this.descending = descending;
+            this.cursorKey = from;
+            this.cursorInclusive = inclusive;
+            seek();
+        }
+        
+        private void seek() {
+            expectedModCount = modCount;
+            K key = cursorKey;
+            
+            if (key == null) {
+                next = descending ? header.prev : header.next[0];
+                
+                if (next == header) {
+                    next = null;
+                }
+                
+                return;
+            }
+            
+            int rel = descending ? LT : GT;
+            next = findNear(key, cursorInclusive ? rel | EQ : rel);
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (expectedModCount != modCount) {
+                seek();
+            }
+            
+            return next != null;
+        }
+        
+        @Override
+        public Map.Entry<K,V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            Node<K,V> n = next;
+            next = descending ? n.prev : n.next[0];
+            
+            if (next == header) {
+                next = null;
+            }
+            cursorKey = n.key;
+            cursorInclusive = false;
+            canRemove = true;
+            return entryOf(n);
+        }
+        
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            
+            SequentialSkipListMap.this.remove(cursorKey);
+            canRemove = false;
+        }
+    }
+}
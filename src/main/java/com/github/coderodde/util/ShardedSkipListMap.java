@@ -0,0 +1,817 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * This class implements a concurrent map sorted by keys that splits the key
+ * space into consecutive ranges, the <em>shards</em>, each held by its own
+ * {@link SkipListMap}. The shard {@code i} holds the keys from the splitter
+ * {@code i - 1}, inclusive, to the splitter {@code i}, exclusive, so the
+ * updates of different shards never touch the same head, index or counter.
+ * <p>
+ * A point operation is routed to its shard by a binary search over the
+ * splitters. The navigation methods and the iterators go on to the
+ * neighbouring shards in key order once a shard runs out, and the views are
+ * those of {@link AbstractNavigableMap}.
+ * <p>
+ * The splitters are moved to even out the sizes of the shards by
+ * {@link #rebalance}, which an insertion schedules on the fork-join pool of
+ * the map once the largest shard outgrows twice the average. Moving a
+ * splitter moves the mappings between the splitters from one shard to its
+ * neighbour: the writers of the two shards wait for it on the read-write
+ * lock of their shard, which they otherwise only share, and the readers
+ * retry if a move has overlapped them. The bulk operations {@link #putAll},
+ * {@link #forEachParallel} and {@link #clear} run a task per shard on the
+ * pool while holding off the moves. A move only takes the locks it finds
+ * free and is skipped otherwise, so it never waits itself: neither a
+ * rebalancing running on a worker of the pool nor a writer of a shard ever
+ * waits for a bulk operation, whose tasks may need both.
+ * <p>
+ * Like those of {@link SkipListMap}, the iterators and the views are weakly
+ * consistent.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class ShardedSkipListMap<K, V>
+        extends AbstractNavigableMap<K, V> {
+    
+    /**
+     * One in this many insertions checks whether the shards are skewed.
+     */
+    static final int BALANCE_CHECK_PERIOD = 1024;
+    
+    /**
+     * The shards are not rebalanced automatically while the largest one holds
+     * fewer mappings than this.
+     */
+    static final int MIN_SKEWED_SIZE = 1024;
+    
+    /**
+     * The splitters and the maps of the shards. A layout is never modified:
+     * moving a splitter publishes a new one.
+     */
+    private static final class Layout<K,V> {
+        final K[] splitters;
+        final SkipListMap<K,V>[] maps;
+        
+        Layout(K[] splitters, SkipListMap<K,V>[] maps) {
+            this.splitters = splitters;
+            this.maps = maps;
+        }
+        
+        /**
+         * Returns the index of the shard holding {@code key}: the number of
+         * the splitters not greater than it.
+         */
+        int indexOf(Object key, Comparator<? super K> cmp) {
+            int lo = 0;
+            int hi = splitters.length - 1;
+            
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                
+                if (SkipListMap.cpr(cmp, splitters[mid], key) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            
+            return lo;
+        }
+        
+        K lowerBound(int i) {
+            return (i == 0) ? null : splitters[i - 1];
+        }
+        
+        K upperBound(int i) {
+            return (i == splitters.length) ? null : splitters[i];
+        }
+    }
+    
+    private final Comparator<? super K> comparator;
+    private final ForkJoinPool pool;
+    private final ReentrantReadWriteLock[] locks; // one per shard
+    
+    /**
+     * Write-locked while a splitter is being moved, so that the readers,
+     * which validate against it optimistically, notice the move, and
+     * read-locked by the bulk operations to hold off the moves.
+     */
+    private final StampedLock moves = new StampedLock();
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    private final AtomicBoolean rebalanceScheduled = new AtomicBoolean();
+    private volatile Layout<K,V> layout;
+    
+    public ShardedSkipListMap(Comparator<? super K> comparator,
+                              List<? extends K> splitters) {
+        this(comparator, splitters, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Constructs an empty map with {@code splitters.size() + 1} shards.
+     *
+     * @param comparator the key comparator, or {@code null} for natural
+     *                   ordering.
+     * @param splitters  the strictly ascending initial splitters.
+     * @param pool       the pool running the rebalancing and the bulk
+     *                   operations.
+     * @throws IllegalArgumentException if the splitters are not strictly
+     *                                  ascending.
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedSkipListMap(Comparator<? super K> comparator,
+                              List<? extends K> splitters,
+                              ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException();
+        }
+        
+        K[] s = (K[]) splitters.toArray();
+        
+        for (int i = 0; i < s.length; i++) {
+            if (s[i] == null) {
+                throw new NullPointerException();
+            }
+            
+            if (i > 0 && SkipListMap.cpr(comparator, s[i - 1], s[i]) >= 0) {
+                throw new IllegalArgumentException(
+                        "Splitters are not strictly ascending: "
+                                + s[i - 1] + ", " + s[i]);
+            }
+        }
+        
+        SkipListMap<K,V>[] maps =
+                (SkipListMap<K,V>[]) new SkipListMap<?,?>[s.length + 1];
+        
+        this.locks = new ReentrantReadWriteLock[maps.length];
+        
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = new SkipListMap<>(comparator);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        
+        this.comparator = comparator;
+        this.pool = pool;
+        this.layout = new Layout<>(s, maps);
+    }
+    
+    public int shardCount() {
+        return locks.length;
+    }
+    
+    /**
+     * Returns the current splitters.
+     *
+     * @return the splitters in ascending order.
+     */
+    public List<K> splitters() {
+        return List.of(layout.splitters);
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+    
+    @Override
+    public int size() {
+        long size = stable(l -> {
+            long sum = 0L;
+            
+            for (SkipListMap<K,V> m : l.maps) {
+                sum += m.size();
+            }
+            
+            return sum;
+        });
+        
+        return (size >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return firstEntry() == null;
+    }
+    
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        long stamp = moves.tryOptimisticRead();
+        
+        if (stamp != 0L) {
+            Layout<K,V> l = layout;
+            V v = l.maps[l.indexOf(key, comparator)].get(key);
+            
+            if (moves.validate(stamp)) {
+                return v;
+            }
+        }
+        
+        stamp = moves.readLock();
+        
+        try {
+            Layout<K,V> l = layout;
+            return l.maps[l.indexOf(key, comparator)].get(key);
+        } finally {
+            moves.unlockRead(stamp);
+        }
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        
+        V v;
+        
+        for (;;) {
+            Layout<K,V> l = layout;
+            int i = l.indexOf(key, comparator);
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            
+            try {
+                if (l == layout) {
+                    v = l.maps[i].put(key, value);
+                    break;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        if (v == null
+                && ThreadLocalRandom.current()
+                                    .nextInt(BALANCE_CHECK_PERIOD) == 0) {
+            checkBalance();
+        }
+        
+        return v;
+    }
+    
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        for (;;) {
+            Layout<K,V> l = layout;
+            int i = l.indexOf(key, comparator);
+            Lock lock = locks[i].readLock();
+            lock.lock();
+            
+            try {
+                if (l == layout) {
+                    return l.maps[i].remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Copies all the mappings of {@code m} into this map. The mappings are
+     * first sorted out by shard and then inserted by a task per shard, each
+     * through a {@link SkipListMap.Cursor}, so a sorted {@code m} is linked
+     * in at consecutive positions.
+     *
+     * @param m the mappings to copy.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long stamp = moves.readLock();
+        
+        try {
+            Layout<K,V> l = layout;
+            List<List<Map.Entry<? extends K, ? extends V>>> parts =
+                    new ArrayList<>();
+            
+            for (int i = 0; i < l.maps.length; i++) {
+                parts.add(new ArrayList<>());
+            }
+            
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K k = e.getKey();
+                
+                if (k == null || e.getValue() == null) {
+                    throw new NullPointerException();
+                }
+                
+                parts.get(l.indexOf(k, comparator)).add(e);
+            }
+            
+            runPerShard(l, (i, map) -> {
+                SkipListMap<K,V>.Cursor cursor = map.cursor();
+                
+                for (Map.Entry<? extends K, ? extends V> e : parts.get(i)) {
+                    cursor.put(e.getKey(), e.getValue());
+                }
+            });
+        } finally {
+            moves.unlockRead(stamp);
+        }
+        
+        checkBalance();
+    }
+    
+    /**
+     * Removes all the mappings by clearing the shards in parallel.
+     */
+    @Override
+    public void clear() {
+        long stamp = moves.readLock();
+        
+        try {
+            runPerShard(layout, (i, map) -> map.clear());
+        } finally {
+            moves.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Passes all the mappings to {@code action}, each shard by a task of its
+     * own. The mappings of a shard are passed in ascending key order, but
+     * those of different shards concurrently, so {@code action} must be
+     * thread-safe. No splitter is moved meanwhile, so each mapping present
+     * throughout the traversal is passed exactly once.
+     *
+     * @param action the action to perform.
+     */
+    public void forEachParallel(BiConsumer<? super K, ? super V> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        
+        long stamp = moves.readLock();
+        
+        try {
+            runPerShard(layout, (i, map) -> map.forEach(action));
+        } finally {
+            moves.unlockRead(stamp);
+        }
+    }
+    
+    @Override
+    public Map.Entry<K,V> firstEntry() {
+        return stable(l -> {
+            for (SkipListMap<K,V> m : l.maps) {
+                Map.Entry<K,V> e = m.firstEntry();
+                
+                if (e != null) {
+                    return e;
+                }
+            }
+            
+            return null;
+        });
+    }
+    
+    @Override
+    public Map.Entry<K,V> lastEntry() {
+        return stable(l -> {
+            for (int i = l.maps.length - 1; i >= 0; i--) {
+                Map.Entry<K,V> e = l.maps[i].lastEntry();
+                
+                if (e != null) {
+                    return e;
+                }
+            }
+            
+            return null;
+        });
+    }
+    
+    @Override
+    Map.Entry<K,V> findNearEntry(K key, int rel) {
+        return stable(l -> {
+            int i = l.indexOf(key, comparator);
+            SkipListMap<K,V> m = l.maps[i];
+            Map.Entry<K,V> e;
+            
+            if ((rel & LT) != 0) {
+                e = ((rel & EQ) != 0) ? m.floorEntry(key) : m.lowerEntry(key);
+                
+                while (e == null && --i >= 0) {
+                    e = l.maps[i].lastEntry();
+                }
+            } else {
+                e = ((rel & EQ) != 0) ? m.ceilingEntry(key)
+                                      : m.higherEntry(key);
+                
+                while (e == null && ++i < l.maps.length) {
+                    e = l.maps[i].firstEntry();
+                }
+            }
+            
+            return e;
+        });
+    }
+    
+    @Override
+    Iterator<Map.Entry<K,V>> entryIterator(K from,
+                                           boolean inclusive,
+                                           boolean descending) {
+        return new ShardIterator(from, inclusive, descending);
+    }
+    
+    /**
+     * Evens out the sizes of the shards. The splitters are visited from the
+     * lowest one; each is moved so that the shards below it hold their share
+     * of all the mappings, as far as the neighbouring shard allows, and the
+     * mappings between the old and the new position are moved by
+     * {@link SkipListMap#splitAt} and {@link SkipListMap#append}; the pass is
+     * repeated while it moves anything. Only the
+     * writers and the readers of the two shards involved in a move wait for
+     * it. Each shard keeps at least one of its mappings. A splitter
+     * whose shards are busy, as during a bulk operation, is left where it
+     * is.
+     */
+    public void rebalance() {
+        rebalanceLock.lock();
+        
+        try {
+            Layout<K,V> l = layout;
+            int n = l.maps.length;
+            long[] sizes = new long[n];
+            long total = 0L;
+            
+            for (int i = 0; i < n; i++) {
+                total += sizes[i] = l.maps[i].size();
+            }
+            
+            // A pass moves the mappings by at most one shard, so a shard 
+            // far from its share may take up to n - 1 passes.
+            for (int pass = 1; pass < n; pass++) {
+                long prefix = 0L;
+                boolean moved = false;
+                
+                for (int i = 0; i < n - 1; i++) {
+                    prefix += sizes[i];
+                    long excess = prefix - total * (i + 1) / n;
+                    long count = (excess == 0L) ? 0L : moveSplitter(i, excess);
+                    
+                    if (count != 0L) {
+                        sizes[i] -= count;
+                        sizes[i + 1] += count;
+                        prefix -= count;
+                        moved = true;
+                    }
+                }
+                
+                if (!moved) {
+                    break;
+                }
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+    
+    /**
+     * Schedules {@link #rebalance} on the pool, unless it has been already,
+     * if the largest shard holds more than twice the average.
+     */
+    private void checkBalance() {
+        SkipListMap<K,V>[] maps = layout.maps;
+        long total = 0L;
+        long max = 0L;
+        
+        for (SkipListMap<K,V> m : maps) {
+            long size = m.size();
+            total += size;
+            max = Math.max(max, size);
+        }
+        
+        if (max >= MIN_SKEWED_SIZE
+                && max > 2 * total / maps.length
+                && rebalanceScheduled.compareAndSet(false, true)) {
+            pool.execute(() -> {
+                try {
+                    rebalance();
+                } finally {
+                    rebalanceScheduled.set(false);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Moves the splitter {@code i} so that {@code count} mappings pass from
+     * the shard {@code i} to the shard {@code i + 1}, or the other way round
+     * if {@code count} is negative, or fewer if the giving shard would be
+     * left empty. The locks are only tried: a writer waiting for a shard
+     * lock would make the later readers of the lock, such as the writers
+     * called back by a bulk operation, wait behind it, so the move gives up
+     * instead.
+     *
+     * @return the number of mappings moved up, negative if moved down.
+     */
+    @SuppressWarnings("unchecked")
+    private long moveSplitter(int i, long count) {
+        Lock lo = locks[i].writeLock();
+        Lock hi = locks[i + 1].writeLock();
+        
+        if (!lo.tryLock()) {
+            return 0L;
+        }
+        
+        try {
+            if (!hi.tryLock()) {
+                return 0L;
+            }
+            
+            long stamp = moves.tryWriteLock();
+            
+            if (stamp == 0L) {
+                hi.unlock();
+                return 0L;
+            }
+            
+            try {
+                Layout<K,V> l = layout;
+                SkipListMap<K,V> a = l.maps[i];
+                SkipListMap<K,V> b = l.maps[i + 1];
+                SkipListMap<K,V> upper;
+                K splitter;
+                long moved;
+                
+                if (count > 0) { // move the greatest keys of 'a' up
+                    moved = Math.min(count, a.size() - 1);
+                    
+                    if (moved <= 0) {
+                        return 0L;
+                    }
+                    
+                    splitter = nthKey(a.descendingKeySet(), moved - 1);
+                    upper = a.splitAt(splitter);
+                    upper.append(b);
+                } else {         // move the least keys of 'b' down
+                    moved = -Math.min(-count, b.size() - 1);
+                    
+                    if (moved >= 0) {
+                        return 0L;
+                    }
+                    
+                    splitter = nthKey(b.navigableKeySet(), -moved);
+                    upper = b.splitAt(splitter);
+                    a.append(b);
+                }
+                
+                K[] splitters = l.splitters.clone();
+                SkipListMap<K,V>[] maps = l.maps.clone();
+                splitters[i] = splitter;
+                maps[i + 1] = upper;
+                layout = new Layout<>(splitters, maps);
+                return moved;
+            } finally {
+                moves.unlockWrite(stamp);
+                hi.unlock();
+            }
+        } finally {
+            lo.unlock();
+        }
+    }
+    
+    private static <K> K nthKey(Iterable<K> keys, long n) {
+        Iterator<K> it = keys.iterator();
+        
+        for (; n > 0; n--) {
+            it.next();
+        }
+        
+        return it.next();
+    }
+    
+    /**
+     * An action on the map of a shard, given the index of the shard.
+     */
+    private interface ShardAction<K,V> {
+        void run(int i, SkipListMap<K,V> map);
+    }
+    
+    /**
+     * Runs {@code action} on each shard of {@code l} in a task of its own
+     * and waits for all of them.
+     */
+    private void runPerShard(Layout<K,V> l, ShardAction<K,V> action) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(l.maps.length);
+        
+        for (int i = 0; i < l.maps.length; i++) {
+            int shard = i;
+            tasks.add(ForkJoinTask.adapt(() -> action.run(shard,
+                                                          l.maps[shard])));
+        }
+        
+        if (ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (ForkJoinTask<?> task : tasks) {
+                pool.execute(task);
+            }
+            
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+    
+    /**
+     * Runs {@code query} on the current layout and returns its result,
+     * running it again under the read lock of {@link #moves} if a splitter
+     * has been moved meanwhile.
+     */
+    private <R> R stable(Function<Layout<K,V>, R> query) {
+        long stamp = moves.tryOptimisticRead();
+        
+        if (stamp != 0L) {
+            R r = query.apply(layout);
+            
+            if (moves.validate(stamp)) {
+                return r;
+            }
+        }
+        
+        stamp = moves.readLock();
+        
+        try {
+            return query.apply(layout);
+        } finally {
+            moves.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Iterates over the shards in key order. The part of a shard within its
+     * bounds is iterated through a range view of its map. Once that runs
+     * out, the next shard is taken from the layout the part was taken from
+     * if no splitter has started moving since, as validated against a stamp
+     * of {@link #moves} taken with the layout; a move drains the maps before
+     * it publishes the new layout, so comparing the layouts alone does not 
+     * do. Each mapping is validated the same way before it is returned. 
+     * Otherwise the shard holding the last returned key in the current 
+     * layout is iterated again from that key on, so that the keys are 
+     * returned in order even across a moved splitter.
+     */
+    private final class ShardIterator implements Iterator<Map.Entry<K,V>> {
+        
+        private final boolean descending;
+        private Iterator<Map.Entry<K,V>> it;
+        private Layout<K,V> itLayout;
+        private long itStamp;
+        private int shard;
+        private K cursorKey;
+        private boolean cursorInclusive;
+        private Map.Entry<K,V> next;
+        private Map.Entry<K,V> lastReturned;
+        
+        ShardIterator(K from, boolean inclusive, boolean descending) {
+            this.descending = descending;
+            this.cursorKey = from;
+            this.cursorInclusive = inclusive;
+            this.next = advance();
+        }
+        
+        private Map.Entry<K,V> advance() {
+            for (;;) {
+                if (it != null && it.hasNext()) {
+                    Map.Entry<K,V> e = it.next();
+                    
+                    // A move may have drained the map under the iterator:
+                    if (moves.validate(itStamp)) {
+                        cursorKey = e.getKey();
+                        cursorInclusive = false;
+                        return e;
+                    }
+                    
+                    it = null;
+                }
+                
+                if (it != null && moves.validate(itStamp)) {
+                    int i = descending ? shard - 1 : shard + 1;
+                    
+                    if (i < 0 || i == itLayout.maps.length) {
+                        return null;
+                    }
+                    
+                    shard = i;
+                    it = part(itLayout, i);
+                    continue;
+                }
+                
+                long stamp;
+                
+                while ((stamp = moves.tryOptimisticRead()) == 0L) {
+                    moves.unlockRead(moves.readLock()); // wait for the move
+                }
+                
+                Layout<K,V> l = layout;
+                
+                if (cursorKey == null) {
+                    shard = descending ? l.maps.length - 1 : 0;
+                } else {
+                    shard = l.indexOf(cursorKey, comparator);
+                }
+                
+                itLayout = l;
+                itStamp = stamp;
+                it = part(l, shard);
+            }
+        }
+        
+        /**
+         * Returns an iterator over the mappings of the shard {@code i}
+         * within its bounds and beyond the cursor.
+         */
+        private Iterator<Map.Entry<K,V>> part(Layout<K,V> l, int i) {
+            NavigableMap<K,V> m = l.maps[i];
+            K lo = l.lowerBound(i);
+            K hi = l.upperBound(i);
+            K c = cursorKey;
+            
+            if (!descending) {
+                if (c != null && (lo == null
+                        || SkipListMap.cpr(comparator, c, lo) >= 0)) {
+                    m = m.tailMap(c, cursorInclusive);
+                } else if (lo != null) {
+                    m = m.tailMap(lo, true);
+                }
+                
+                return ((hi == null) ? m : m.headMap(hi, false))
+                        .entrySet()
+                        .iterator();
+            }
+            
+            if (c != null && (hi == null
+                    || SkipListMap.cpr(comparator, c, hi) < 0)) {
+                m = m.headMap(c, cursorInclusive);
+            } else if (hi != null) {
+                m = m.headMap(hi, false);
+            }
+            
+            return ((lo == null) ? m : m.tailMap(lo, true))
+                    .descendingMap()
+                    .entrySet()
+                    .iterator();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @Override
+        public Map.Entry<K,V> next() {
+            Map.Entry<K,V> e;
+            
+            if ((e = next) == null) {
+                throw new NoSuchElementException();
+            }
+            
+            next = advance();
+            return lastReturned = e;
+        }
+        
+        @Override
+        public void remove() {
+            Map.Entry<K,V> e;
+            
+            if ((e = lastReturned) == null) {
+                throw new IllegalStateException();
+            }
+            
+            ShardedSkipListMap.this.remove(e.getKey());
+            lastReturned = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.coderodde.util;
+
+/**
+ * Estimates the heap footprint of the keys or the values of a
+ * {@link SkipListMap}, which sums the estimates of its mappings together with
+ * the overhead of its nodes and indices into {@link SkipListMap#byteSize}.
+ * The estimate of an object must not change while it is in the map.
+ *
+ * @param <T> the type of the measured objects.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+@FunctionalInterface
+public interface Sizer<T> {
+    
+    /**
+     * Returns the estimated number of heap bytes taken by {@code object}.
+     *
+     * @param object the measured object.
+     * @return the estimated size in bytes.
+     */
+    long sizeOf(T object);
+    
+    /**
+     * Returns a sizer estimating every object to take {@code bytes} bytes,
+     * such as the size of a boxed number or zero for shared objects.
+     *
+     * @param <T>   the type of the measured objects.
+     * @param bytes the size of each object.
+     * @return the constant sizer.
+     */
+    static <T> Sizer<T> constant(long bytes) {
+        if (bytes < 0L) {
+            throw new IllegalArgumentException("Negative size: " + bytes);
+        }
+        
+        return object -> bytes;
+    }
+    
+    /**
+     * Returns the sizer of strings assuming compressed references: the
+     * string object and its byte array, which holds a byte per character if
+     * all the characters are Latin-1 and two otherwise.
+     *
+     * @return the string sizer.
+     */
+    static Sizer<String> strings() {
+        return s -> {
+            int length = s.length();
+            
+            for (int i = 0; i < length; i++) {
+                if (s.charAt(i) > 0xFF) {
+                    return 24L + array(2L * length);
+                }
+            }
+            
+            return 24L + array(length);
+        };
+    }
+    
+    /**
+     * Returns the sizer of byte arrays assuming compressed references.
+     *
+     * @return the byte array sizer.
+     */
+    static Sizer<byte[]> bytes() {
+        return b -> array(b.length);
+    }
+    
+    private static long array(long length) {
+        return (16L + length + 7L) & ~7L;
+    }
+}
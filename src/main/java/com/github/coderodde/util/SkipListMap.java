@@ -1,26 +1,78 @@
 package com.github.coderodde.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Cleaner;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.nio.file.Path;
 import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
- * This class implements a map sorted by keys using skip lists.
+ * This class implements a map sorted by keys using skip lists. All the 
+ * navigation methods and the range views returned by {@link #subMap}, 
+ * {@link #headMap}, {@link #tailMap} and {@link #descendingMap} locate their
+ * bounds via the index levels in expected logarithmic time.
+ * <p>
+ * An <em>indexed</em> map additionally stores in each index link the number
+ * of base nodes it skips over, which allows {@link #getByRank}, 
+ * {@link #rankOf} and {@link #countInRange} to run in expected logarithmic 
+ * time as well.
+ * <p>
+ * The map is safe for concurrent use. Like 
+ * {@link java.util.concurrent.ConcurrentSkipListMap}, it links and unlinks 
+ * nodes and indices with compare-and-set operations only, deletes a node by
+ * nulling its value and appending a marker node, and lets the traversals 
+ * unlink the deleted nodes and indices they run into. Each base node also 
+ * keeps a back-link to its predecessor, updated after the forward links; the
+ * descending iterators, {@link Cursor#prev} and {@link #lastEntry} follow it
+ * in constant time whenever it is not stale. The iterators and the 
+ * views are weakly consistent. In an indexed map the spans of the index links
+ * must be updated together with the links themselves, so all the modifying 
+ * operations of an indexed map are serialized by a lock, including those 
+ * replacing the value of a present key such as {@link #replace} and 
+ * {@link Cursor#setValue}. The queries reading the spans or the cached 
+ * aggregates take the lock as well: {@link #getByRank}, {@link #rankOf}, 
+ * {@link #countInRange}, {@link #aggregate} and the {@code size()} of the 
+ * range views. The lookups, the navigation methods, the iterators and the 
+ * other read operations remain lock-free.
  * 
  * @version 1.0.0 (May 27, 2024)
  * @since 1.0.0 (May 27, 2024)
  */
 public final class SkipListMap<K, V> extends AbstractMap<K, V>
-                                     implements Map<K, V> {
+                                     implements NavigableMap<K, V> {
     
-    private static final class Node<K,V> {
+    private static class Node<K,V> {
         final K key;
         V val;
         Node<K,V> next;
+        Node<K,V> prev; // a hint, see predecessorOf()
         Node(K key, V value, Node<K,V> next) {
             this.key = key;
             this.val = value;
@@ -28,10 +80,25 @@ public final class SkipListMap<K, V> extends AbstractMap<K, V>
         }
     }
     
+    /**
+     * A node caching the {@link KeyPrefix} of its key. All the nodes holding 
+     * mappings are prefixed in a map with a key prefix; the markers and the 
+     * base headers never are.
+     */
+    private static final class PrefixedNode<K,V> extends Node<K,V> {
+        final long prefix;
+        PrefixedNode(K key, V value, Node<K,V> next, long prefix) {
+            super(key, value, next);
+            this.prefix = prefix;
+        }
+    }
+    
     private static final class Index<K,V> {
         final Node<K,V> node;
         final Index<K,V> down;
         Index<K,V> right;
+        int span; // base nodes skipped by 'right', maintained when indexed
+        Object agg; // aggregate of the values skipped by 'right', if any
         Index(Node<K,V> node, Index<K,V> down, Index<K,V> right) {
             this.node = node;
             this.down = down;
@@ -39,525 +106,6433 @@ public final class SkipListMap<K, V> extends AbstractMap<K, V>
         }
     }
     
-    private final class SkipListIterator implements Iterator<K> {
-
-        private Node<K, V> node = head != null ? head.node.next : null;
-        private int iterated;
+    /**
+     * Builds the index levels over an ascending run of base nodes appended 
+     * one at a time. With the branching factor {@code b} of the level policy,
+     * every {@code b}th node is given a first level index, every 
+     * {@code b * b}th a second level index and so on; {@code preds} keeps the
+     * rightmost index of each level so that each new index is linked in 
+     * constant time. The spans of the links are set along the way from the 
+     * positions kept in {@code ranks}.
+     */
+    private static final class Towers<K,V> {
+        private final Index<K,V>[] preds;
+        private final int[] ranks;
+        private final int mask;
+        private final int shift;
+        private Index<K,V> head;
+        private Node<K,V> last;
+        private int count;
         
-        @Override
-        public boolean hasNext() {
-            return iterated < size;
+        @SuppressWarnings("unchecked")
+        Towers(Node<K,V> base, LevelPolicy levelPolicy) {
+            this.preds = (Index<K,V>[]) new Index<?,?>[levelPolicy.maxLevel()];
+            this.ranks = new int[preds.length];
+            this.mask = levelPolicy.branching() - 1;
+            this.shift = Integer.numberOfTrailingZeros(mask + 1);
+            this.head = preds[0] = new Index<>(base, null, null);
         }
-
-        @Override
-        public K next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException();
+        
+        void add(Node<K,V> z) {
+            last = z;
+            
+            if ((++count & mask) != 0) {
+                return;
             }
             
-            K ret = node.key;
-            node = node.next;
-            iterated++;
-            return ret;
+            int i = 0;
+            Index<K,V> idx = null, q;
+            
+            // Index on the level i + 1 iff branching^(i + 1) | count:
+            for (int m = count >>> shift;; m >>>= shift) {
+                idx = new Index<>(z, idx, null);
+                
+                if ((q = preds[i]) == null) {
+                    head = new Index<>(head.node, head, idx);
+                    head.span = count;
+                } else {
+                    q.right = idx;
+                    q.span = count - ranks[i];
+                }
+                
+                preds[i] = idx;
+                ranks[i] = count;
+                
+                if (++i == preds.length || (m & mask) != 0) {
+                    break;
+                }
+            }
         }
     }
-
-    private Index<K,V> head;
-    private int size;
-    private final Random random = new Random(13);
-    private final Comparator<K> comparator;
-    
-    public SkipListMap(Comparator<K> comparator) {
-        this.comparator = comparator;
-    }
-    
-    public SkipListMap() {
-        this.comparator = null;
-    }
-    
-    @Override
-    public V get(Object key) {
-        return doGet(key);
-    }
-    
-    @Override
-    public boolean containsKey(Object key) {
-        return doGet(key) != null;
-    }
     
-    @Override
-    public V put(K key, V value) {
-        if (value == null) {
-            throw new NullPointerException();
-        }
+    /**
+     * The hash side-index of a hashed map: an open-addressing table of its 
+     * nodes, probed linearly. Only the writers, which hold the lock, store 
+     * into it. A used slot is never emptied again, only overwritten with 
+     * {@link #TOMBSTONE} or, on an insertion, with another node, so a reader 
+     * probing concurrently never stops short of the node it looks for. When 
+     * the used slots would exceed half of the table, a writer replaces it 
+     * with a rebuilt one; the readers still probing the old one finish there.
+     */
+    private static final class NodeTable<K,V> {
+        @SuppressWarnings("rawtypes")
+        static final Node TOMBSTONE = new Node<>(null, null, null);
+        static final int MIN_CAPACITY = 16;
+        final Node<K,V>[] slots;
+        int live; // slots holding nodes
+        int used; // slots holding nodes or tombstones
         
-        if (key == null) {
-            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        NodeTable(int count) {
+            int capacity = Integer.highestOneBit(
+                    Math.max(MIN_CAPACITY, 4 * count) - 1) << 1;
+            this.slots = (Node<K,V>[]) new Node<?,?>[capacity];
         }
         
-        Comparator<? super K> cmp = comparator;
+        static int hash(Object key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
         
-        for (;;) {
-            Index<K,V> h; Node<K,V> b;
-            int levels = 0;               
+        @SuppressWarnings("unchecked")
+        V get(Object key) {
+            Node<K,V>[] s = slots;
+            int mask = s.length - 1;
             
-            if ((h = head) == null) {     
-                Node<K,V> base = new Node<>(null, null, null);
-                h = new Index<>(base, null, null);
+            for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+                Node<K,V> n = (Node<K,V>) SLOT.getAcquire(s, i);
+                K k;
+                V v;
                 
-                if (head == null) {
-                    head = h;
-                    b = base;
-                } else {
-                    b = null;
+                if (n == null) {
+                    return null;
                 }
-            } else {
-                for (Index<K,V> q = h, r, d;;) { 
-                    while ((r = q.right) != null) {
-                        Node<K,V> p;
-                        K k = null;
-                        
-                        if ((p = r.node) == null 
-                                || (k = p.key) == null 
-                                || p.val == null) {
-                        
-                            if (q.right == r) {
-                                q.right = r.right;
-                            }
-                        } else if (cpr(cmp, key, k) > 0) {
-                            q = r;
-                        } else {
-                            break;
-                        }
-                    }
-                    
-                    if ((d = q.down) != null) {
-                        ++levels;
-                        q = d;
-                    } else {
-                        b = q.node;
-                        break;
-                    }
+                
+                // Skip the tombstones, which have no key, and the deleted 
+                // nodes, which are about to become tombstones:
+                if ((k = n.key) != null 
+                        && (v = n.val) != null 
+                        && key.equals(k)) {
+                    return v;
                 }
             }
+        }
+        
+        /**
+         * Stores {@code z}, whose key is not in the table, into the first 
+         * empty slot or tombstone it probes.
+         */
+        void add(Node<K,V> z) {
+            Node<K,V>[] s = slots;
+            int mask = s.length - 1;
             
-            if (b != null) {
-                Node<K,V> z = null;
+            for (int i = hash(z.key) & mask;; i = (i + 1) & mask) {
+                Node<K,V> n = s[i];
                 
-                for (;;) {                       
-                    Node<K,V> n, p; 
-                    K k; 
-                    V v; 
-                    int c;
-                    
-                    if ((n = b.next) == null) {
-                        c = -1;
-                    } else if ((k = n.key) == null) {
-                        break;
-                    } else if ((v = n.val) == null) {
-                        unlinkNode(b, n);
-                        c = 1;
-                    } else if ((c = cpr(cmp, key, k)) > 0) {
-                        b = n;
-                    } else if (c == 0) {
-                        if (n.val == v) {
-                            n.val = value;
-                            return v;
-                        }
+                if (n == null || n == TOMBSTONE) {
+                    if (n == null) {
+                        ++used;
                     }
                     
-                    if (c < 0) {
-                        if (b.next == n) {
-                            b.next = p = new Node<>(key, value, n);
-                            z = p;
-                            break;
-                        }
-                    }
+                    ++live;
+                    SLOT.setRelease(s, i, z);
+                    return;
                 }
-
-                if (z != null) {
-                    long rnd = random.nextLong();
-                    
-                    if ((rnd & 0x3) == 0) {       // add indices with 1/4 prob
-                        int skips = levels;    
-                        Index<K,V> x = null;
-                    
-                        for (;;) {               
-                            x = new Index<>(z, x, null);
-                            
-                            if (rnd >= 0L || --skips < 0) {
-                                break;
-                            } else {
-                                rnd <<= 1;
-                            }
-                        }
-                        
-                        if (addIndices(h, skips, x, cmp) 
-                                && skips < 0 
-                                && head == h) {   
-                            
-                            Index<K,V> hx = new Index<>(z, x, null);
-                            Index<K,V> nh = new Index<>(h.node, h, hx);
-                            
-                            if (head == h) {
-                                head = nh;
-                            }
-                        }
-                        
-                        if (z.val == null) {
-                            findPredecessor(key, cmp);
-                        }
-                    }
-                    
-                    size++;
-                    return null;
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        void remove(Node<K,V> z) {
+            Node<K,V>[] s = slots;
+            int mask = s.length - 1;
+            
+            for (int i = hash(z.key) & mask; s[i] != null; i = (i + 1) & mask) {
+                if (s[i] == z) {
+                    --live;
+                    SLOT.setRelease(s, i, TOMBSTONE);
+                    return;
+                }
+            }
+        }
+        
+        boolean isCrowded() {
+            return 2 * (used + 1) > slots.length;
+        }
+        
+        NodeTable<K,V> rebuilt() {
+            NodeTable<K,V> t = new NodeTable<>(live + 1);
+            
+            for (Node<K,V> n : slots) {
+                if (n != null && n != TOMBSTONE) {
+                    t.add(n);
                 }
             }
+            
+            return t;
         }
     }
     
-    @Override
-    public V remove(Object key) {
-        return doRemove(key, null);
+    /**
+     * The memory budget of a sized map.
+     */
+    private static final class HighWaterMark<K,V> {
+        final long bytes;
+        final Consumer<? super SkipListMap<K,V>> listener;
+        final AtomicBoolean fired = new AtomicBoolean();
+        
+        HighWaterMark(long bytes, 
+                      Consumer<? super SkipListMap<K,V>> listener) {
+            this.bytes = bytes;
+            this.listener = listener;
+        }
     }
     
-    @Override
-    public int size() {
-        return size;
+    /**
+     * A value that a key had before it was first written at 
+     * {@code version}: the key was mapped to {@code value}, or absent if it
+     * is {@code null}, in the snapshots older than {@code version} and newer
+     * than the {@code older} revision. The revisions of a key are kept 
+     * newest first.
+     */
+    private static final class Revision<V> {
+        final long version;
+        final V value;
+        final Revision<V> older;
+        
+        Revision(long version, V value, Revision<V> older) {
+            this.version = version;
+            this.value = value;
+            this.older = older;
+        }
+        
+        /**
+         * Returns this chain without the revisions not newer than 
+         * {@code oldest}, copying only the revisions before the cut.
+         */
+        Revision<V> truncate(long oldest) {
+            if (version <= oldest) {
+                return null;
+            }
+            
+            Revision<V> o = (older == null) ? null : older.truncate(oldest);
+            return (o == older) ? this : new Revision<>(version, value, o);
+        }
     }
     
-    @Override
-    public boolean isEmpty() {
-        return size == 0;
+    private static final class Counters {
+        final LongAdder comparisons = new LongAdder();
+        final LongAdder markers = new LongAdder();
+        final LongAdder staleIndices = new LongAdder();
+        final LongAdder levelReductions = new LongAdder();
+        final LongAdder gets = new LongAdder();
+        final LongAdder puts = new LongAdder();
+        final LongAdder removes = new LongAdder();
     }
     
-    @Override
-    public boolean equals(Object o) {
-        if (o == null) {
-            return false;
+    private static final class CountingComparator<K> implements Comparator<K> {
+        
+        private final Comparator<? super K> cmp;
+        private final Counters counters;
+        
+        CountingComparator(Comparator<? super K> cmp, Counters counters) {
+            this.cmp = cmp;
+            this.counters = counters;
         }
         
-        if (o == this) {
-            return true;
+        @Override
+        public int compare(K o1, K o2) {
+            counters.comparisons.increment();
+            return cpr(cmp, o1, o2);
         }
+    }
+    
+    /**
+     * A snapshot of the shape of a map and, if the system property 
+     * {@code com.github.coderodde.util.SkipListMap.counters} is set to 
+     * {@code true}, of the events counted since the map was created. The 
+     * shape is measured by a single walk over the base list and the index 
+     * levels, so it is exact only for a map not being modified meanwhile.
+     */
+    public static final class Stats {
         
-        if (!(o instanceof Map)) {
-            return false;
+        private final long[] nodesPerLevel;
+        private final long staleIndices;
+        private final double averageSearchPath;
+        private final long maxSearchPath;
+        private final Counters counters;
+        
+        Stats(long[] nodesPerLevel, 
+              long staleIndices, 
+              double averageSearchPath, 
+              long maxSearchPath,
+              Counters counters) {
+            this.nodesPerLevel = nodesPerLevel;
+            this.staleIndices = staleIndices;
+            this.averageSearchPath = averageSearchPath;
+            this.maxSearchPath = maxSearchPath;
+            this.counters = counters;
         }
         
-        Map<K, V> otherMap = (Map<K, V>) o;
+        /**
+         * Returns the number of index levels.
+         * 
+         * @return the height.
+         */
+        public int height() {
+            return nodesPerLevel.length - 1;
+        }
         
-        if (size != otherMap.size()) {
-            return false;
+        /**
+         * Returns the number of live nodes on each level: the element at 
+         * {@code 0} is the number of entries, the element at {@code i > 0} 
+         * the number of indices on the {@code i}th index level.
+         * 
+         * @return the level histogram.
+         */
+        public long[] nodesPerLevel() {
+            return nodesPerLevel.clone();
         }
         
-        Iterator<K> iter1 = otherMap.keySet().iterator();
-        Iterator<K> iter2 = new SkipListIterator();
+        /**
+         * Returns the number of indices of deleted nodes still linked into 
+         * the index levels.
+         * 
+         * @return the number of stale indices.
+         */
+        public long staleIndices() {
+            return staleIndices;
+        }
         
-        for (;;) {
-            boolean b1 = iter1.hasNext();
-            boolean b2 = iter2.hasNext();
+        /**
+         * Returns the average number of links followed by a lookup of a 
+         * present key, counting both the right and the down moves.
+         * 
+         * @return the average search path length.
+         */
+        public double averageSearchPath() {
+            return averageSearchPath;
+        }
+        
+        public long maxSearchPath() {
+            return maxSearchPath;
+        }
+        
+        public boolean countersEnabled() {
+            return counters != null;
+        }
+        
+        public long comparisons() {
+            return count(counters == null ? null : counters.comparisons);
+        }
+        
+        /**
+         * Returns the number of marker nodes appended to deleted nodes.
+         * 
+         * @return the number of markers.
+         */
+        public long markersCreated() {
+            return count(counters == null ? null : counters.markers);
+        }
+        
+        /**
+         * Returns the number of indices of deleted nodes unlinked by the 
+         * traversals passing them.
+         * 
+         * @return the number of unlinked stale indices.
+         */
+        public long staleIndicesUnlinked() {
+            return count(counters == null ? null : counters.staleIndices);
+        }
+        
+        public long levelReductions() {
+            return count(counters == null ? null : counters.levelReductions);
+        }
+        
+        public long gets() {
+            return count(counters == null ? null : counters.gets);
+        }
+        
+        public long puts() {
+            return count(counters == null ? null : counters.puts);
+        }
+        
+        public long removes() {
+            return count(counters == null ? null : counters.removes);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[height = ")
+                    .append(height())
+                    .append(", nodesPerLevel = ")
+                    .append(Arrays.toString(nodesPerLevel))
+                    .append(", staleIndices = ")
+                    .append(staleIndices)
+                    .append(", averageSearchPath = ")
+                    .append(averageSearchPath)
+                    .append(", maxSearchPath = ")
+                    .append(maxSearchPath);
             
-            if (b1 && !b2) {
-                return false;
+            if (counters != null) {
+                sb.append(", comparisons = ").append(comparisons())
+                  .append(", markersCreated = ").append(markersCreated())
+                  .append(", staleIndicesUnlinked = ")
+                  .append(staleIndicesUnlinked())
+                  .append(", levelReductions = ").append(levelReductions())
+                  .append(", gets = ").append(gets())
+                  .append(", puts = ").append(puts())
+                  .append(", removes = ").append(removes());
             }
             
-            if (!b1 && b2) {
-                return false;
-            }
+            return sb.append(']').toString();
+        }
+        
+        private static long count(LongAdder adder) {
+            return adder == null ? 0L : adder.sum();
+        }
+    }
+    
+    abstract class Iter<T> implements Iterator<T> {
+
+        Node<K,V> lastReturned;
+        Node<K,V> lastBase; // the node 'lastReturned' was reached from
+        Node<K,V> next;
+        Node<K,V> nextBase; // the node 'next' was reached from
+        V nextValue;
+        
+        Iter() {
+            advance(baseHead());
+        }
+
+        @Override
+        public final boolean hasNext() {
+            return next != null;
+        }
+        
+        final void advance(Node<K,V> b) {
+            Node<K,V> n = null;
+            V v = null;
+            lastBase = nextBase;
             
-            if (!b1 && !b2) {
-                return true;
+            if ((lastReturned = b) != null) {
+                while ((n = b.next) != null && (v = n.val) == null) {
+                    b = n;
+                }
             }
             
-            K key1 = iter1.next();
-            K key2 = iter2.next();
+            nextBase = b;
+            nextValue = v;
+            next = n;
+        }
+        
+        /**
+         * Removes the last returned mapping unless it has been removed 
+         * already. In a map that is not indexed the node is deleted and 
+         * unlinked from the node it was reached from without a search; its
+         * indices, if any, are unlinked by the next traversal passing them.
+         */
+        @Override
+        public final void remove() {
+            Node<K,V> n; 
+            K k;
             
-            if (!key1.equals(key2)) {
-                return false;
+            if ((n = lastReturned) == null || (k = n.key) == null) {
+                throw new IllegalStateException();
             }
+            
+            if (indexed) {
+                SkipListMap.this.remove(k);
+            } else {
+                removeNode(lastBase, n);
+                
+                if (nextBase == n) {
+                    nextBase = lastBase;
+                }
+            }
+            
+            lastReturned = null;
         }
     }
     
-    @Override
-    public Set<Entry<K, V>> entrySet() {
-        throw new UnsupportedOperationException("Not supported yet.");
+    final class KeyIterator extends Iter<K> {
+        
+        @Override
+        public K next() {
+            Node<K,V> n;
+            
+            if ((n = next) == null) {
+                throw new NoSuchElementException();
+            }
+            
+            K k = n.key;
+            advance(n);
+            return k;
+        }
     }
     
-    private V doGet(Object key) {
-        Index<K,V> q;
+    final class ValueIterator extends Iter<V> {
         
-        if (key == null) {
-            throw new NullPointerException();
+        @Override
+        public V next() {
+            V v;
+            
+            if ((v = nextValue) == null) {
+                throw new NoSuchElementException();
+            }
+            
+            advance(next);
+            return v;
         }
+    }
+    
+    final class EntryIterator extends Iter<Map.Entry<K,V>> {
         
-        V result = null;
-        
-        if ((q = head) != null) {
-            outer: 
-            for (Index<K,V> r, d;;) {
-                while ((r = q.right) != null) {
-                    Node<K,V> p; 
-                    K k; 
-                    V v; 
-                    int c;
-                    
-                    if ((p = r.node) == null 
-                            || (k = p.key) == null 
-                            || (v = p.val) == null) {
-                        
-                        if (q.right == r) {
-                            q.right = r.right;
-                        }
-                    } else if ((c = cpr(comparator, key, k)) > 0) {
-                        q = r;
-                    } else if (c == 0) {
-                        result = v;
-                        break outer;
-                    } else {
-                        break;
-                    }
-                }
-                
-                if ((d = q.down) != null) {
-                    q = d;
-                } else {
-                    Node<K,V> b, n;
-                    
-                    if ((b = q.node) != null) {
-                        while ((n = b.next) != null) {
-                            V v; 
-                            int c;
-                            K k = n.key;
-                            
-                            if ((v = n.val) == null 
-                                    || k == null 
-                                    || (c = cpr(comparator, key, k)) > 0) {
-                                b = n;
-                            } else {
-                                if (c == 0) {
-                                    result = v;
-                                }
-                                    
-                                break;
-                            }
-                        }
-                    }
-                    
-                    break;
-                }
+        @Override
+        public Map.Entry<K,V> next() {
+            Node<K,V> n;
+            
+            if ((n = next) == null) {
+                throw new NoSuchElementException();
             }
+            
+            K k = n.key;
+            V v = nextValue;
+            advance(n);
+            return new AbstractMap.SimpleImmutableEntry<>(k, v);
         }
-        return result;
     }
     
-    private Node<K,V> findPredecessor(Object key, Comparator<? super K> cmp) {
-        Index<K,V> q;
+    /**
+     * The spliterators of the views of the whole map. A spliterator covers the
+     * live nodes from {@code current} on up to the key {@code fence}, 
+     * exclusive, or to the end if {@code fence} is {@code null}. It splits at
+     * the median of the indices lying strictly within its range on the 
+     * highest level having at least {@code SPLIT_CANDIDATES} of them (or on 
+     * the lowest level), searched for from {@code row} downwards, so that 
+     * both halves span about as many base nodes; each half keeps a part of 
+     * the size estimate proportional to the indices it got.
+     */
+    abstract class Spliter<T> implements Spliterator<T> {
         
-        if ((q = head) == null || key == null) {
-            return null;
-        } else {
-            for (Index<K,V> r, d;;) {
-                while ((r = q.right) != null) {
-                    Node<K,V> p; 
-                    K k = null;
-                    
-                    if ((p = r.node) == null 
-                            || (k = p.key) == null 
-                            || p.val == null) {
-                        
-                        if (q.right == r) {
-                            q.right = r.right;
-                        }
-                    } else if (cpr(cmp, key, k) > 0) {
-                        q = r;
-                    } else {
-                        break;
-                    }
-                }
-                
-                if ((d = q.down) != null) {
-                    q = d;
-                } else {
-                    return q.node;
-                }
-            }
+        private static final int SPLIT_CANDIDATES = 64;
+        
+        Index<K,V> row;
+        Node<K,V> current;
+        final K fence;
+        long est;
+        
+        Spliter(Index<K,V> row, Node<K,V> origin, K fence, long est) {
+            this.row = row;
+            this.current = origin;
+            this.fence = fence;
+            this.est = est;
         }
-    }
-
-    static <K,V> boolean addIndices(Index<K,V> q, int skips, Index<K,V> x,
-                                    Comparator<? super K> cmp) {
-        Node<K,V> z; 
-        K key;
         
-        if (x != null
-                && (z = x.node) != null 
-                && (key = z.key) != null 
-                &&q != null) {                     
+        abstract Spliter<T> newSpliter(Index<K,V> row, 
+                                       Node<K,V> origin, 
+                                       K fence, 
+                                       long est);
+        
+        abstract T element(Node<K,V> n, V v);
+        
+        @Override
+        public final Spliter<T> trySplit() {
+            Comparator<? super K> cmp = comparator;
+            Node<K,V> e;
+            K ek;
             
-            boolean retrying = false;
+            if ((e = current) == null || (ek = e.key) == null) {
+                return null;
+            }
             
-            for (;;) {
-                Index<K,V> r, d; 
-                int c;
+            for (Index<K,V> q = row; q != null; q = row = q.down) {
+                int count = 0;
                 
-                if ((r = q.right) != null) {
-                    Node<K,V> p; 
-                    K k;
+                for (Index<K,V> r = q.right; r != null; r = r.right) {
+                    int c = locate(r, ek, cmp);
                     
-                    if ((p = r.node) == null 
-                            || (k = p.key) == null 
-                            || p.val == null) {
-                        
-                        if (q.right == r) {
-                            q.right = r.right;
-                        }
-                        
-                        c = 0;
-                    } else if ((c = cpr(cmp, key, k)) > 0) {
-                        q = r;
+                    if (c > 0) {
+                        break;
                     } else if (c == 0) {
-                        break;          
+                        ++count;
                     }
-                } else {
-                    c = -1;
                 }
-
-                if (c < 0) {
-                    if ((d = q.down) != null && skips > 0) {
-                        --skips;
-                        q = d;
-                    } else if (d != null 
-                                && !retrying 
-                                && !addIndices(d, 0, x.down, cmp)) {
+                
+                if (count == 0 
+                        || (count < SPLIT_CANDIDATES && q.down != null)) {
+                    continue;
+                }
+                
+                Index<K,V> m = null;
+                int i = count >>> 1;
+                
+                for (Index<K,V> r = q.right; r != null; r = r.right) {
+                    int c = locate(r, ek, cmp);
+                    
+                    if (c > 0) {
                         break;
-                    } else {
-                        x.right = r;
+                    } else if (c == 0) {
+                        m = r;
                         
-                        if (q.right == r) {
-                            q.right = x;
-                            return true;
-                        } else {
-                            retrying = true;
+                        if (--i < 0) {
+                            break;
                         }
                     }
                 }
+                
+                if (m == null) { // the candidates were deleted meanwhile
+                    continue;
+                }
+                
+                long prefixEst = est * ((count >>> 1) + 1) / (count + 1);
+                Spliter<T> prefix = newSpliter(q, e, m.node.key, prefixEst);
+                current = m.node;
+                row = m;
+                est -= prefixEst;
+                return prefix;
             }
+            
+            return null;
         }
         
-        return false;
-    }
-    
-    private static <K,V> void unlinkNode(Node<K,V> b, Node<K,V> n) {
-        if (b != null && n != null) {
-            Node<K,V> f, p;
+        /**
+         * Returns a negative number if the node of {@code r} is at or before
+         * {@code ek}, zero if it is live and lies before the fence, and a 
+         * positive number if it lies at or after the fence. A deleted node 
+         * before the fence counts as being before {@code ek}.
+         */
+        private int locate(Index<K,V> r, K ek, Comparator<? super K> cmp) {
+            Node<K,V> n = r.node;
+            K f = fence;
             
-            for (;;) {
-                if ((f = n.next) != null && f.key == null) {
-                    p = f.next;
-                    break;
-                } else if (n.next == f) {
-                    n.next = new Node<>(null, null, f);
-                    p = f;
+            if (f != null && cpr(cmp, n.key, f) >= 0) {
+                return 1;
+            }
+            
+            return (n.val != null && cpr(cmp, n.key, ek) > 0) ? 0 : -1;
+        }
+        
+        @Override
+        public final boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            
+            Comparator<? super K> cmp = comparator;
+            K f = fence;
+            Node<K,V> e = current;
+            
+            for (; e != null; e = e.next) {
+                K k; 
+                V v;
+                
+                if ((k = e.key) != null && f != null && cpr(cmp, f, k) <= 0) {
+                    e = null;
                     break;
                 }
+                
+                if ((v = e.val) != null) {
+                    current = e.next;
+                    action.accept(element(e, v));
+                    return true;
+                }
+            }
+            
+            current = e;
+            return false;
+        }
+        
+        @Override
+        public final void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
             }
             
-            if (b.next == n) {
-                b.next = p;
+            Comparator<? super K> cmp = comparator;
+            K f = fence;
+            Node<K,V> e = current;
+            current = null;
+            
+            for (; e != null; e = e.next) {
+                K k; 
+                V v;
+                
+                if ((k = e.key) != null && f != null && cpr(cmp, f, k) <= 0) {
+                    break;
+                }
+                
+                if ((v = e.val) != null) {
+                    action.accept(element(e, v));
+                }
             }
         }
+        
+        @Override
+        public final long estimateSize() {
+            return est;
+        }
     }
     
-    private final V doRemove(Object key, Object value) {
-        if (key == null) {
-            throw new NullPointerException();
+    final class KeySpliterator extends Spliter<K> {
+        
+        KeySpliterator(Index<K,V> row, Node<K,V> origin, K fence, long est) {
+            super(row, origin, fence, est);
         }
         
-        Comparator<? super K> cmp = comparator;
-        V result = null;
-        Node<K,V> b;
+        @Override
+        Spliter<K> newSpliter(Index<K,V> row, 
+                              Node<K,V> origin, 
+                              K fence, 
+                              long est) {
+            return new KeySpliterator(row, origin, fence, est);
+        }
         
-        outer: 
-        while ((b = findPredecessor(key, cmp)) != null && result == null) {
-            for (;;) {
-                Node<K,V> n; 
-                K k;
-                V v; 
-                int c;
-                
-                if ((n = b.next) == null) {
-                    break outer;
-                } else if ((k = n.key) == null) {
-                    break;
-                } else if ((v = n.val) == null) {
-                    unlinkNode(b, n);
-                } else if ((c = cpr(cmp, key, k)) > 0) {
-                    b = n;
-                } else if (c < 0) {
-                    break outer;
-                } else if (value != null && !value.equals(v)) {
-                    break outer;
-                } else if (n.val == v) {
-                    n.val = null;
-                    result = v;
-                    unlinkNode(b, n);
-                    break;
-                }
-            }
+        @Override
+        K element(Node<K,V> n, V v) {
+            return n.key;
         }
         
-        if (result != null) {
-            tryReduceLevel();
-            size--;
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.SORTED 
+                    | Spliterator.ORDERED | Spliterator.CONCURRENT 
+                    | Spliterator.NONNULL;
         }
         
-        return result;
-    }
- 
-    private void tryReduceLevel() {
-        Index<K,V> h, d, e;
-        if ((h = head) != null && h.right == null &&
-            (d = h.down) != null && d.right == null &&
-            (e = d.down) != null && e.right == null) {
-            
-            if (head == h) {
-                head = d;
-            } else {
-                return;
-            }
-            
-            if (h.right != null) {
-                if (head == d) {
-                    head = h;
-                }
-            }
+        @Override
+        public Comparator<? super K> getComparator() {
+            return userComparator;
         }
     }
- 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    static int cpr(Comparator c, Object x, Object y) {
-        return (c != null) ? c.compare(x, y) : ((Comparable)x).compareTo(y);
+    
+    final class ValueSpliterator extends Spliter<V> {
+        
+        ValueSpliterator(Index<K,V> row, Node<K,V> origin, K fence, long est) {
+            super(row, origin, fence, est);
+        }
+        
+        @Override
+        Spliter<V> newSpliter(Index<K,V> row, 
+                              Node<K,V> origin, 
+                              K fence, 
+                              long est) {
+            return new ValueSpliterator(row, origin, fence, est);
+        }
+        
+        @Override
+        V element(Node<K,V> n, V v) {
+            return v;
+        }
+        
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.CONCURRENT 
+                    | Spliterator.NONNULL;
+        }
     }
     
-    public static void main(String[] args) {
-        SkipListMap<Integer, String> l =
-                new SkipListMap<>(new Comparator<Integer>(){
-                    
-            @Override
-            public int compare(Integer o1, Integer o2) {
-                return o1.compareTo(o2);
-            }
-        });
+    final class EntrySpliterator extends Spliter<Map.Entry<K,V>> {
+        
+        EntrySpliterator(Index<K,V> row, Node<K,V> origin, K fence, long est) {
+            super(row, origin, fence, est);
+        }
+        
+        @Override
+        Spliter<Map.Entry<K,V>> newSpliter(Index<K,V> row, 
+                                           Node<K,V> origin, 
+                                           K fence, 
+                                           long est) {
+            return new EntrySpliterator(row, origin, fence, est);
+        }
         
-        System.out.println("a");
-        l.put(1, "one");
-        System.out.println("b");
-        l.put(2, "two");
-        System.out.println("c");
+        @Override
+        Map.Entry<K,V> element(Node<K,V> n, V v) {
+            return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+        }
         
-        System.out.println(l.containsKey(1));
-        System.out.println(l.containsKey(2));
-        System.out.println(l.containsKey(3));
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.SORTED 
+                    | Spliterator.ORDERED | Spliterator.CONCURRENT 
+                    | Spliterator.NONNULL;
+        }
+        
+        @Override
+        public Comparator<Map.Entry<K,V>> getComparator() {
+            Comparator<? super K> cmp = userComparator;
+            return (e1, e2) -> cpr(cmp, e1.getKey(), e2.getKey());
+        }
+    }
+    
+    /**
+     * A movable position in the map. A cursor remembers its search path, that
+     * is, the rightmost index preceding the current key on every index level.
+     * A {@link #seek} first climbs the path only as high as needed to pass the
+     * target and then descends from there, so seeking a key {@code d} entries 
+     * away from the current one takes {@code O(log d)} expected time instead 
+     * of a full descent from the head. The path is rebuilt from the head 
+     * whenever the map gains or loses an index level.
+     * <p>
+     * A cursor must not be shared between threads, but the map may be 
+     * modified concurrently. A cursor update that loses a race falls back to 
+     * the corresponding map operation.
+     */
+    public final class Cursor {
+        
+        private Index<K,V> pathHead;
+        private Index<K,V>[] path; // path[0] is on the lowest index level
+        private Node<K,V> base;    // a base node preceding 'node'
+        private Node<K,V> node;
+        
+        Cursor() {
+            first();
+        }
+        
+        /**
+         * Positions this cursor at the first entry of the map.
+         * 
+         * @return {@code true} if the map is not empty.
+         */
+        public boolean first() {
+            rebuild();
+            
+            if (path == null) {
+                node = base = null;
+                return false;
+            }
+            
+            base = path[0].node;
+            node = findFirst();
+            return node != null;
+        }
+        
+        /**
+         * Positions this cursor at the entry with the least key greater than
+         * or equal to {@code key}.
+         * 
+         * @param key the target key.
+         * @return {@code true} if such an entry exists.
+         */
+        public boolean seek(K key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            Comparator<? super K> cmp = comparator;
+            
+            for (;;) {
+                if (path == null || pathHead != head) {
+                    rebuild();
+                    
+                    if (path == null) {
+                        node = base = null;
+                        return false;
+                    }
+                }
+                
+                int top = path.length - 1;
+                int i = 0;
+                Index<K,V> r;
+                
+                // Climb while the target lies beyond the next index:
+                while (i < top 
+                        && (r = path[i].right) != null
+                        && (r.node.val == null 
+                            || cpr(cmp, key, r.node.key) > 0)) {
+                    ++i;
+                }
+                
+                // Climb while the path entry does not precede the target:
+                while (i <= top && !precedes(path[i], key, cmp)) {
+                    ++i;
+                }
+                
+                if (i > top) {
+                    pathHead = null;
+                    continue;
+                }
+                
+                descend(i, key, cmp);
+                
+                if (land(key, cmp)) {
+                    return node != null;
+                }
+                
+                pathHead = null;
+            }
+        }
+        
+        /**
+         * Moves this cursor to the next entry.
+         * 
+         * @return {@code true} if the cursor is positioned at an entry.
+         */
+        public boolean next() {
+            Node<K,V> n, s;
+            
+            if ((n = node) == null) {
+                return false;
+            }
+            
+            if (n.val == null) { // removed behind our back
+                K k = n.key;
+                
+                if (seek(k) && cpr(comparator, k, node.key) == 0) {
+                    return next();
+                }
+                
+                return node != null;
+            }
+            
+            s = n.next;
+            
+            while (s != null && (s.key == null || s.val == null)) {
+                s = s.next;
+            }
+            
+            if (path != null && pathHead == head) {
+                for (int i = 0; i < path.length; i++) {
+                    Index<K,V> r = path[i].right;
+                    
+                    if (r != null && r.node == n) {
+                        path[i] = r;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            
+            base = n;
+            node = s;
+            return s != null;
+        }
+        
+        /**
+         * Moves this cursor to the previous entry, which is usually reached 
+         * through the back-link of the current node in constant time. The 
+         * path is left on the towers it is on; the next {@link #seek} climbs
+         * off those no longer preceding its target.
+         * 
+         * @return {@code true} if the cursor is positioned at an entry.
+         */
+        @SuppressWarnings("unchecked")
+        public boolean prev() {
+            Node<K,V> n, p;
+            
+            if ((n = node) == null) {
+                return false;
+            }
+            
+            if ((p = predecessorOf(n, comparator)) == null) {
+                node = base = null;
+                return false;
+            }
+            
+            base = (Node<K,V>) PREV.getAcquire(p);
+            node = p;
+            return true;
+        }
+        
+        public boolean isValid() {
+            Node<K,V> n = node;
+            return n != null && n.val != null;
+        }
+        
+        /**
+         * Returns the key of the current entry. The key remains available 
+         * after the entry has been removed by another thread.
+         * 
+         * @return the current key.
+         */
+        public K key() {
+            Node<K,V> n;
+            
+            if ((n = node) == null) {
+                throw new NoSuchElementException();
+            }
+            
+            return n.key;
+        }
+        
+        public V value() {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = node) == null || (v = n.val) == null) {
+                throw new NoSuchElementException();
+            }
+            
+            return v;
+        }
+        
+        /**
+         * Replaces the value of the current entry.
+         * 
+         * @param value the new value.
+         * @return the old value.
+         */
+        public V setValue(V value) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            
+            Node<K,V> n = node;
+            V v;
+            
+            for (;;) {
+                if (n == null || (v = n.val) == null) {
+                    throw new NoSuchElementException();
+                }
+                
+                if (casValue(n, v, value)) {
+                    return v;
+                }
+            }
+        }
+        
+        /**
+         * Maps {@code key} to {@code value} and positions this cursor at the 
+         * entry. The search starts from the current position and a new node 
+         * is linked into the index levels using the remembered path.
+         * 
+         * @param key   the key.
+         * @param value the value.
+         * @return the previous value or {@code null}.
+         */
+        public V put(K key, V value) {
+            return put(key, value, false);
+        }
+        
+        private V put(K key, V value, boolean onlyIfAbsent) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            
+            Comparator<? super K> cmp = comparator;
+            
+            if (indexed || (!seek(key) && path == null)) { // or no head yet
+                return putAndSeek(key, value, onlyIfAbsent);
+            }
+            
+            Node<K,V> n = node;
+            V v;
+            
+            if (n != null && cpr(cmp, key, n.key) == 0) {
+                if ((v = n.val) != null 
+                        && (onlyIfAbsent || casValue(n, v, value))) {
+                    return v;
+                }
+                
+                return putAndSeek(key, value, onlyIfAbsent);
+            }
+            
+            Node<K,V> z = newNode(key, value, n);
+            z.prev = base;
+            
+            if (!NEXT.compareAndSet(base, n, z)) {
+                return putAndSeek(key, value, onlyIfAbsent);
+            }
+            
+            linkBack(z, n);
+            account(key, null, value);
+            int level = levelPolicy.level(key);
+            
+            if (level > 0) {
+                Index<K,V> x = null;
+                int i = 0;
+                
+                for (;;) {
+                    Index<K,V> q = path[i], r = q.right, y;
+                    
+                    // Stop at the first level the path is no longer valid on:
+                    if ((r != null && cpr(cmp, key, r.node.key) >= 0)
+                            || !RIGHT.compareAndSet(q, r, 
+                                                    y = new Index<>(z, x, r))) {
+                        break;
+                    }
+                    
+                    x = y;
+                    
+                    if (--level == 0 || ++i == path.length) {
+                        break;
+                    }
+                }
+                
+                if (i == path.length) {       // add the missing levels
+                    Index<K,V> h = pathHead, nh = h;
+                    
+                    for (; level > 0; --level) {
+                        x = new Index<>(z, x, null);
+                        nh = new Index<>(h.node, nh, x);
+                    }
+                    
+                    HEAD.compareAndSet(SkipListMap.this, h, nh);
+                }
+                
+                if (z.val == null) {
+                    findPredecessor(key, cmp); // clean the index
+                }
+            }
+            
+            adder.increment();
+            node = z;
+            return null;
+        }
+        
+        /**
+         * Removes the current entry and moves this cursor to the next one.
+         * 
+         * @return the removed value.
+         */
+        public V remove() {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = node) == null || (v = n.val) == null) {
+                throw new IllegalStateException();
+            }
+            
+            K k = n.key;
+            
+            if (indexed) {
+                v = doRemove(k, null);
+                seek(k);
+                
+                if (v == null) {
+                    throw new IllegalStateException();
+                }
+                
+                return v;
+            }
+            
+            if (!seek(k) || node != n) {
+                throw new IllegalStateException();
+            }
+            
+            while (!VAL.compareAndSet(n, v, null)) {
+                if ((v = n.val) == null) { // removed by another thread
+                    throw new IllegalStateException();
+                }
+            }
+            
+            account(k, v, null);
+            unlinkNode(base, n);
+            
+            for (int i = 0; i < path.length; i++) {
+                Index<K,V> r = path[i].right;
+                
+                if (r != null && r.node == n) {
+                    RIGHT.compareAndSet(path[i], r, r.right);
+                } else {
+                    break;
+                }
+            }
+            
+            adder.decrement();
+            tryReduceLevel();
+            
+            Node<K,V> s = base.next;
+            
+            while (s != null && (s.key == null || s.val == null)) {
+                s = s.next;
+            }
+            
+            node = s;
+            return v;
+        }
+        
+        private V putAndSeek(K key, V value, boolean onlyIfAbsent) {
+            V v = onlyIfAbsent ? SkipListMap.this.putIfAbsent(key, value)
+                               : SkipListMap.this.put(key, value);
+            seek(key);
+            return v;
+        }
+        
+        private void rebuild() {
+            Index<K,V> h = head;
+            pathHead = h;
+            
+            if (h == null) {
+                path = null;
+                return;
+            }
+            
+            int height = 0;
+            
+            for (Index<K,V> q = h; q != null; q = q.down) {
+                ++height;
+            }
+            
+            @SuppressWarnings("unchecked")
+            Index<K,V>[] p = (Index<K,V>[]) new Index<?,?>[height];
+            
+            for (Index<K,V> q = h; q != null; q = q.down) {
+                p[--height] = q;
+            }
+            
+            path = p;
+        }
+        
+        private boolean precedes(Index<K,V> q, 
+                                 Object key, 
+                                 Comparator<? super K> cmp) {
+            Node<K,V> p = q.node;
+            
+            if (p.key == null) {
+                return true;
+            }
+            
+            return p.val != null && cpr(cmp, key, p.key) > 0;
+        }
+        
+        /**
+         * Descends from {@code path[level]}, which must precede {@code key}, 
+         * and records the rightmost index preceding {@code key} on each of the
+         * levels below.
+         */
+        private void descend(int level, 
+                             Object key, 
+                             Comparator<? super K> cmp) {
+            Index<K,V> q = path[level];
+            
+            for (;;) {
+                Index<K,V> r;
+                
+                while ((r = q.right) != null) {
+                    Node<K,V> p; 
+                    K k;
+                    
+                    if ((p = r.node) == null 
+                            || (k = p.key) == null 
+                            || p.val == null) {
+                        
+                        if (!unlinkIndex(q, r)) {
+                            break;
+                        }
+                    } else if (cpr(cmp, key, k) > 0) {
+                        q = r;
+                    } else {
+                        break;
+                    }
+                }
+                
+                path[level] = q;
+                
+                if (--level < 0) {
+                    return;
+                }
+                
+                q = q.down;
+            }
+        }
+        
+        /**
+         * Walks the base list from the lowest path entry to the first node 
+         * whose key is not less than {@code key}.
+         * 
+         * @return {@code false} if the walk ran into a deleted node and the
+         *         search must be restarted.
+         */
+        private boolean land(Object key, Comparator<? super K> cmp) {
+            Node<K,V> b = path[0].node, n;
+            
+            for (;;) {
+                if ((n = b.next) == null) {
+                    break;
+                } else if (n.key == null) {
+                    return false;
+                } else if (n.val == null) {
+                    unlinkNode(b, n);
+                } else if (cpr(cmp, key, n.key) > 0) {
+                    b = n;
+                } else {
+                    break;
+                }
+            }
+            
+            base = b;
+            node = n;
+            return true;
+        }
+    }
+
+    /**
+     * A read-only view of the mappings that a map held when 
+     * {@link SkipListMap#snapshot} was called. Taking a snapshot copies 
+     * nothing: while snapshots are open, the writers of the map record the 
+     * value a key had before they first change it after the latest snapshot
+     * in an undo log, and a snapshot reads the live map and then corrects 
+     * each key it meets with the oldest revision of the key newer than the 
+     * snapshot. The revisions that no open snapshot needs are dropped as the
+     * snapshots are closed, explicitly or once they become unreachable.
+     * <p>
+     * The views, the range views and the iterators of a snapshot are
+     * read-only and never change. {@link #size} counts the mappings. A
+     * snapshot must not be used after it has been closed.
+     *
+     * @param <K> the key type.
+     * @param <V> the value type.
+     */
+    public static final class Snapshot<K,V> extends AbstractNavigableMap<K,V>
+                                            implements AutoCloseable {
+        
+        private static final Cleaner CLEANER = Cleaner.create();
+        
+        private final SkipListMap<K,V> map;
+        private final SkipListMap<K, Revision<V>> log;
+        private final long version;
+        private final Cleaner.Cleanable cleanable;
+        private volatile boolean closed;
+        
+        Snapshot(SkipListMap<K,V> map, 
+                 SkipListMap<K, Revision<V>> log, 
+                 long version) {
+            this.map = map;
+            this.log = log;
+            this.version = version;
+            this.cleanable = CLEANER.register(this, () -> map.release(version));
+        }
+        
+        /**
+         * Releases the revisions kept for this snapshot. Does nothing if 
+         * this snapshot is already closed.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            cleanable.clean();
+        }
+        
+        @Override
+        public Comparator<? super K> comparator() {
+            return map.userComparator;
+        }
+        
+        @Override
+        public V get(Object key) {
+            checkOpen();
+            Node<K,V> n = map.findNode(key);
+            V v = (n == null) ? null : value(n);
+            VarHandle.acquireFence(); // read the log after the live map
+            Node<K, Revision<V>> r = log.findNode(key);
+            return (r == null) ? v : resolve(r, v);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+        
+        @Override
+        public int size() {
+            int size = 0;
+            
+            for (Iterator<Map.Entry<K,V>> it = entryIterator(); 
+                    it.hasNext(); 
+                    it.next()) {
+                size++;
+            }
+            
+            return size;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return firstEntry() == null;
+        }
+        
+        @Override
+        public Map.Entry<K,V> firstEntry() {
+            return near(null, GT);
+        }
+        
+        @Override
+        public Map.Entry<K,V> lastEntry() {
+            return near(null, LT);
+        }
+        
+        @Override
+        Map.Entry<K,V> findNearEntry(K key, int rel) {
+            return near(key, rel);
+        }
+        
+        @Override
+        Iterator<Map.Entry<K,V>> entryIterator(K from, 
+                                               boolean inclusive,
+                                               boolean descending) {
+            checkOpen();
+            return new Iterator<Map.Entry<K,V>>() {
+                
+                private final Comparator<? super K> cmp = map.comparator;
+                private Node<K,V> n = (descending)  ? null 
+                                    : (from == null) ? map.findFirst() 
+                                    : map.findNear(from, GT | EQ, cmp);
+                private Map.Entry<K,V> next = (descending) 
+                        ? near(from, (from != null && inclusive) ? LT | EQ 
+                                                                 : LT)
+                        : higher(from, inclusive);
+                
+                /**
+                 * Returns the first entry after {@code key}, or the first 
+                 * one if {@code key} is {@code null}. Unlike {@link #near},
+                 * this follows the live base list from the node found last
+                 * instead of descending the index for every entry. A node 
+                 * deleted after it was found still leads to all the nodes 
+                 * that have been live ever since, and the keys added, 
+                 * changed or deleted in the meantime all have revisions.
+                 */
+                @SuppressWarnings("unchecked")
+                private Map.Entry<K,V> higher(K key, boolean inclusive) {
+                    for (;;) {
+                        V nv = null;
+                        
+                        for (; n != null; n = (Node<K,V>) NEXT.getAcquire(n)) {
+                            if (n.key != null
+                                    && (key == null 
+                                     || !tooLow(n.key, key, inclusive, cmp))
+                                    && (nv = value(n)) != null) {
+                                break;
+                            }
+                        }
+                        
+                        Node<K, Revision<V>> r = (key == null) 
+                                ? log.findFirst() 
+                                : log.findNear(key, 
+                                               inclusive ? GT | EQ : GT, 
+                                               log.comparator);
+                        
+                        if (n == null && r == null) {
+                            return null;
+                        }
+                        
+                        int c = (n == null) ? 1
+                              : (r == null) ? -1 
+                              : cpr(cmp, n.key, r.key);
+                        K k;
+                        V v;
+                        
+                        if (c > 0) {
+                            k = r.key;
+                            v = resolve(r, null);
+                        } else {
+                            k = n.key;
+                            v = (c == 0) ? resolve(r, nv) : nv;
+                        }
+                        
+                        if (v != null) {
+                            return new AbstractMap.SimpleImmutableEntry<>(k,
+                                                                          v);
+                        }
+                        
+                        key = k;
+                        inclusive = false;
+                    }
+                }
+                
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+                
+                @Override
+                public Map.Entry<K,V> next() {
+                    Map.Entry<K,V> e = next;
+                    
+                    if (e == null) {
+                        throw new NoSuchElementException();
+                    }
+                    
+                    checkOpen();
+                    next = (descending) ? near(e.getKey(), LT)
+                                        : higher(e.getKey(), false);
+                    return e;
+                }
+            };
+        }
+        
+        /**
+         * Returns the entry of this snapshot closest to {@code key} in the 
+         * relation {@code rel}, or the first (last if {@code rel} has 
+         * {@code LT}) entry if {@code key} is {@code null}. The closest key 
+         * of the live map and the closest key of the undo log are looked up 
+         * in this order; the closer one is resolved and, if it was absent 
+         * from this snapshot, the search goes on from it.
+         */
+        private Map.Entry<K,V> near(K key, int rel) {
+            checkOpen();
+            Comparator<? super K> cmp = map.comparator;
+            boolean lt = (rel & LT) != 0;
+            
+            for (;;) {
+                Node<K,V> n = (key != null) ? map.findNear(key, rel, cmp)
+                            : lt ? map.findLast() 
+                                 : map.findFirst();
+                V nv = (n == null) ? null : value(n);
+                VarHandle.acquireFence(); // read the log after the live map
+                Node<K, Revision<V>> r = 
+                        (key != null) ? log.findNear(key, rel, log.comparator)
+                      : lt ? log.findLast() 
+                           : log.findFirst();
+                
+                if (n == null && r == null) {
+                    return null;
+                }
+                
+                int c = (n == null) ? 1 
+                      : (r == null) ? -1 
+                      : lt ? cpr(cmp, r.key, n.key)
+                           : cpr(cmp, n.key, r.key);
+                
+                K k;
+                V v;
+                
+                if (c > 0) {
+                    k = r.key;
+                    v = resolve(r, null);
+                } else {
+                    k = n.key;
+                    v = (c == 0) ? resolve(r, nv) : nv;
+                }
+                
+                if (v != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(k, v);
+                }
+                
+                key = k;
+                rel &= ~EQ;
+            }
+        }
+        
+        /**
+         * Returns the value in this snapshot of the key of the log node 
+         * {@code r}, given its value {@code live} read from the map before 
+         * the log.
+         */
+        @SuppressWarnings("unchecked")
+        private V resolve(Node<K, Revision<V>> r, V live) {
+            Revision<V> seen = null;
+            
+            for (Revision<V> p = (Revision<V>) VAL.getAcquire(r); 
+                    p != null && p.version > version; 
+                    p = p.older) {
+                seen = p;
+            }
+            
+            return (seen == null) ? live : seen.value;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private static <K,V> V value(Node<K,V> n) {
+            return (V) VAL.getAcquire(n);
+        }
+        
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("Closed snapshot.");
+            }
+        }
+    }
+    
+    /**
+     * Collects the features of a new map. Each feature is off unless its
+     * method is called, and any of them can be combined with the others, 
+     * except that the aggregates and the hash side-index are maintained by 
+     * the writers, which only an indexed map serializes.
+     * 
+     * @param <K> the key type.
+     * @param <V> the value type.
+     * @see SkipListMap#builder()
+     */
+    public static final class Builder<K, V> {
+        
+        private Comparator<? super K> comparator;
+        private boolean indexed;
+        private LevelPolicy levelPolicy = LevelPolicy.defaultPolicy();
+        private KeyPrefix<? super K> keyPrefix;
+        private Aggregator<? super V, ?> aggregator;
+        private boolean hashed;
+        private Sizer<? super K> keySizer;
+        private Sizer<? super V> valueSizer;
+        
+        private Builder() {
+        }
+        
+        /**
+         * Sets the key comparator.
+         * 
+         * @param comparator the key comparator, or {@code null} for natural 
+         *                   ordering.
+         * @return this builder.
+         */
+        public Builder<K, V> comparator(Comparator<? super K> comparator) {
+            this.comparator = comparator;
+            return this;
+        }
+        
+        /**
+         * Sets whether to maintain the spans of the index links needed by the
+         * rank queries and {@link SkipListMap#freezeAndSwap}.
+         * 
+         * @param indexed whether the map is indexed.
+         * @return this builder.
+         */
+        public Builder<K, V> indexed(boolean indexed) {
+            this.indexed = indexed;
+            return this;
+        }
+        
+        /**
+         * Sets the policy choosing the tower heights, 
+         * {@link LevelPolicy#defaultPolicy()} by default.
+         * 
+         * @param levelPolicy the level policy.
+         * @return this builder.
+         */
+        public Builder<K, V> levelPolicy(LevelPolicy levelPolicy) {
+            this.levelPolicy = levelPolicy;
+            return this;
+        }
+        
+        /**
+         * Caches the prefixes of the keys computed by {@code keyPrefix} in 
+         * the nodes. The searches then compare the prefixes first and call 
+         * the comparator only when they are equal, which mostly spares them 
+         * loading the key objects of the nodes they pass, at the cost of a 
+         * {@code long} per node.
+         * 
+         * @param keyPrefix the key prefixes consistent with the comparator, 
+         *                  or {@code null} not to cache any.
+         * @return this builder.
+         */
+        public Builder<K, V> keyPrefix(KeyPrefix<? super K> keyPrefix) {
+            this.keyPrefix = keyPrefix;
+            return this;
+        }
+        
+        /**
+         * Caches the aggregates of the values computed by {@code aggregator} 
+         * in the index links, which {@link SkipListMap#aggregate} combines 
+         * over a key range in logarithmic time. Requires an indexed map.
+         * 
+         * @param aggregator the aggregator of the values, or {@code null} not
+         *                   to cache any aggregates.
+         * @return this builder.
+         */
+        public Builder<K, V> aggregator(Aggregator<? super V, ?> aggregator) {
+            this.aggregator = aggregator;
+            return this;
+        }
+        
+        /**
+         * Sets whether to keep the nodes in a hash side-index as well, so 
+         * that {@link SkipListMap#get} and {@link SkipListMap#containsKey} 
+         * take a single probe sequence instead of a descent of the index 
+         * levels, at the cost of a few references per mapping; the ordering
+         * must then be consistent with {@link Object#equals}. Requires an 
+         * indexed map.
+         * 
+         * @param hashed whether to maintain the hash side-index.
+         * @return this builder.
+         */
+        public Builder<K, V> hashed(boolean hashed) {
+            this.hashed = hashed;
+            return this;
+        }
+        
+        /**
+         * Keeps a running estimate of the heap bytes taken by the mappings: 
+         * the sizes of the keys and the values reported by the sizers plus 
+         * the expected overhead of a node and its share of the indices per 
+         * mapping. A sized map can call a listener once the estimate exceeds
+         * a budget, and an indexed one can hand all its mappings over to a 
+         * frozen map at once, as needed by the write buffer of a 
+         * log-structured store. Passing two {@code null}s turns the estimate
+         * off again.
+         * 
+         * @param keySizer   the sizer of the keys.
+         * @param valueSizer the sizer of the values.
+         * @return this builder.
+         * @throws NullPointerException if only one of the sizers is 
+         *                              {@code null}.
+         * @see SkipListMap#byteSize()
+         * @see SkipListMap#setHighWaterMark(long, Consumer)
+         */
+        public Builder<K, V> sized(Sizer<? super K> keySizer, 
+                                   Sizer<? super V> valueSizer) {
+            if ((keySizer == null) != (valueSizer == null)) {
+                throw new NullPointerException();
+            }
+            
+            this.keySizer = keySizer;
+            this.valueSizer = valueSizer;
+            return this;
+        }
+        
+        /**
+         * Constructs an empty map with the features set so far.
+         * 
+         * @return a new map.
+         * @throws IllegalArgumentException if the branching factor or the 
+         *                                  maximum level of the level policy
+         *                                  is out of range, or if an 
+         *                                  aggregator is given or 
+         *                                  {@code hashed} is set for a map 
+         *                                  that is not indexed.
+         */
+        public SkipListMap<K, V> build() {
+            return new SkipListMap<>(this);
+        }
+    }
+    
+    /**
+     * Whether the maps count their operations and events for {@link #stats}.
+     * Read once from the system property 
+     * {@code com.github.coderodde.util.SkipListMap.counters}; when it is not
+     * set, the JIT compiler removes the counting code altogether.
+     */
+    static final boolean COUNTERS = Boolean.getBoolean(
+            "com.github.coderodde.util.SkipListMap.counters");
+    
+    private Index<K,V> head;
+    private Node<K,V> last; // a hint, see findLast()
+    private final LongAdder adder = new LongAdder();
+    private final Counters counters = COUNTERS ? new Counters() : null;
+    private final Comparator<? super K> userComparator;
+    private final Comparator<? super K> comparator; // counts if COUNTERS
+    private final boolean indexed;
+    private final ReentrantLock indexLock; // serializes indexed writers
+    private final LevelPolicy levelPolicy;
+    private final KeyPrefix<? super K> keyPrefix; // null if not cached
+    private final Aggregator<? super V, Object> aggregator; // null if none
+    private NodeTable<K,V> table; // null if not hashed
+    private final Sizer<? super K> keySizer;     // null if not sized
+    private final Sizer<? super V> valueSizer;   // null if not sized
+    private final long entryBytes; // the overhead of a mapping, if sized
+    private final LongAdder bytes = new LongAdder();
+    private volatile HighWaterMark<K,V> highWaterMark; // null if none
+    private long version; // the version of the writes, under the lock
+    private SkipListMap<K, Revision<V>> undoLog; // null if no snapshots
+    private TreeSet<Long> snapshots; // the versions of the open snapshots
+    private KeySet<K,V> keySet;
+    private Values<K,V> values;
+    private EntrySet<K,V> entrySet;
+    private SubMap<K,V> descendingMap;
+    
+    /**
+     * Relation bits for {@link #findNear}: {@code GT} alone asks for the 
+     * closest greater key, {@code LT} for the closest lower key, {@code EQ} 
+     * additionally accepts an exact match.
+     */
+    private static final int EQ = 1;
+    private static final int LT = 2;
+    private static final int GT = 0;
+    
+    /**
+     * Modes of {@link #doPut}. Each of them descends the index levels once 
+     * and then either updates the node holding the key or links a new node 
+     * at the insertion point found by the very same descent.
+     */
+    private static final int PUT                = 0;
+    private static final int PUT_IF_ABSENT      = 1;
+    private static final int COMPUTE_IF_ABSENT  = 2;
+    private static final int COMPUTE_IF_PRESENT = 3;
+    private static final int COMPUTE            = 4;
+    private static final int MERGE              = 5;
+    
+    /**
+     * Operations of {@link #combine}, which merges the base lists of two maps
+     * in a single pass.
+     */
+    private static final int UNION        = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE   = 2;
+    
+    /**
+     * Estimated sizes in bytes of the parts of a sized map, assuming 
+     * compressed references.
+     */
+    private static final long NODE_BYTES          = 32L;
+    private static final long PREFIXED_NODE_BYTES = 40L;
+    private static final long INDEX_BYTES         = 32L;
+    private static final long SLOT_BYTES          = 12L; // ~3 table slots
+    
+    public SkipListMap(Comparator<? super K> comparator) {
+        this(comparator, false);
+    }
+    
+    /**
+     * Constructs an empty map.
+     * 
+     * @param comparator the key comparator, or {@code null} for natural 
+     *                   ordering.
+     * @param indexed    whether to maintain the spans of the index links 
+     *                   needed by the rank queries.
+     */
+    public SkipListMap(Comparator<? super K> comparator, boolean indexed) {
+        this(comparator, indexed, LevelPolicy.defaultPolicy());
+    }
+    
+    /**
+     * Constructs an empty map whose tower heights are chosen by 
+     * {@code levelPolicy}.
+     * 
+     * @param comparator  the key comparator, or {@code null} for natural 
+     *                    ordering.
+     * @param indexed     whether to maintain the spans of the index links 
+     *                    needed by the rank queries.
+     * @param levelPolicy the level policy.
+     * @throws IllegalArgumentException if the branching factor or the maximum
+     *                                  level of {@code levelPolicy} is out of
+     *                                  range; see {@link LevelPolicy}.
+     */
+    public SkipListMap(Comparator<? super K> comparator, 
+                       boolean indexed, 
+                       LevelPolicy levelPolicy) {
+        this(new Builder<K, V>().comparator(comparator)
+                                .indexed(indexed)
+                                .levelPolicy(levelPolicy));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private SkipListMap(Builder<K, V> builder) {
+        LevelPolicy levelPolicy = builder.levelPolicy;
+        AbstractLevelPolicy.check(levelPolicy);
+        KeyPrefix<? super K> keyPrefix = builder.keyPrefix;
+        boolean indexed = builder.indexed;
+        boolean hashed = builder.hashed;
+        
+        if ((builder.aggregator != null || hashed) && !indexed) {
+            throw new IllegalArgumentException(
+                    "An aggregated or hashed map must be indexed.");
+        }
+        
+        this.userComparator = builder.comparator;
+        this.comparator = COUNTERS ? new CountingComparator<>(userComparator, 
+                                                              counters)
+                                   : userComparator;
+        this.indexed = indexed;
+        this.indexLock = indexed ? new ReentrantLock() : null;
+        this.levelPolicy = levelPolicy;
+        this.keyPrefix = keyPrefix;
+        this.aggregator = (Aggregator<? super V, Object>) builder.aggregator;
+        this.table = hashed ? new NodeTable<>(0) : null;
+        this.keySizer = builder.keySizer;
+        this.valueSizer = builder.valueSizer;
+        this.entryBytes = 
+                (keyPrefix == null ? NODE_BYTES : PREFIXED_NODE_BYTES) 
+                + INDEX_BYTES / (levelPolicy.branching() - 1)
+                + (hashed ? SLOT_BYTES : 0L);
+    }
+    
+    public SkipListMap() {
+        this(null, false);
+    }
+    
+    public SkipListMap(Map<? extends K, ? extends V> m) {
+        this(null, false);
+        putAll(m);
+    }
+    
+    /**
+     * Constructs a new map containing the same mappings and using the same 
+     * ordering as the sorted map {@code m}. The entries are linked in a single
+     * pass without any searching.
+     * 
+     * @param m the sorted map whose mappings to copy.
+     */
+    public SkipListMap(SortedMap<K, ? extends V> m) {
+        this(m.comparator(), false);
+        buildFromSorted(m.entrySet().iterator(), false);
+    }
+    
+    /**
+     * Returns a builder of a map combining any of the optional features: key
+     * prefixes, value aggregates, a hash side-index and size estimates.
+     * 
+     * @param <K> the key type.
+     * @param <V> the value type.
+     * @return a new builder.
+     */
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+    
+    /**
+     * Builds a new map out of the entries returned by {@code entries}, which 
+     * must be strictly ascending with respect to {@code comparator}. The base
+     * list and the index levels are built in a single pass in linear time.
+     * 
+     * @param <K>        the key type.
+     * @param <V>        the value type.
+     * @param entries    the ascending entries.
+     * @param comparator the key comparator, or {@code null} for natural 
+     *                   ordering.
+     * @return a new map.
+     * @throws IllegalArgumentException if the keys are not strictly ascending.
+     */
+    public static <K, V> SkipListMap<K, V> 
+        fromSorted(Iterator<? extends Map.Entry<? extends K, ? extends V>> 
+                           entries,
+                   Comparator<? super K> comparator) {
+        SkipListMap<K, V> map = new SkipListMap<>(comparator);
+        map.buildFromSorted(entries, true);
+        return map;
+    }
+    
+    public static <K, V> SkipListMap<K, V> 
+        fromSorted(Iterator<? extends Map.Entry<? extends K, ? extends V>> 
+                           entries) {
+        return fromSorted(entries, null);
+    }
+    
+    /**
+     * Returns a new empty map for a single thread. It behaves as a map of
+     * this class but keeps the tower of each node in an array, so that its
+     * updates run without compare-and-set operations, marker nodes or retry
+     * loops; it is not safe for concurrent use.
+     *
+     * @param <K>         the key type.
+     * @param <V>         the value type.
+     * @param comparator  the key comparator, or {@code null} for natural
+     *                    ordering.
+     * @param levelPolicy the policy choosing the tower heights.
+     * @return a new sequential map.
+     */
+    public static <K, V> SequentialSkipListMap<K, V>
+        sequential(Comparator<? super K> comparator, LevelPolicy levelPolicy) {
+        return new SequentialSkipListMap<>(comparator, levelPolicy);
+    }
+    
+    public static <K, V> SequentialSkipListMap<K, V>
+        sequential(Comparator<? super K> comparator) {
+        return sequential(comparator, LevelPolicy.defaultPolicy());
+    }
+    
+    /**
+     * Writes all the mappings of this map to a snapshot file at {@code path},
+     * replacing any existing file. The base list is streamed in key order 
+     * through a large direct buffer, each key and value prefixed by its 
+     * encoded length, and followed by a checksum; the index levels are not 
+     * stored since {@link #readSnapshot} rebuilds them. Like the iterators, 
+     * the traversal is weakly consistent: while the map is being modified, 
+     * the snapshot may or may not reflect each concurrent modification.
+     * 
+     * @param path       the file to write.
+     * @param keyCodec   the codec of the keys.
+     * @param valueCodec the codec of the values.
+     * @return the number of mappings written.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long writeSnapshot(Path path, 
+                              SnapshotCodec<? super K> keyCodec,
+                              SnapshotCodec<? super V> valueCodec) 
+            throws IOException {
+        try (Snapshots.Writer<K,V> w = 
+                new Snapshots.Writer<>(path, keyCodec, valueCodec)) {
+            Node<K,V> b, n;
+            V v;
+            
+            if ((b = baseHead()) != null) {
+                for (; (n = b.next) != null; b = n) {
+                    if ((v = n.val) != null) {
+                        w.write(n.key, v);
+                    }
+                }
+            }
+            
+            return w.finish();
+        }
+    }
+    
+    /**
+     * Reads a map written by {@link #writeSnapshot}. The file is memory-mapped
+     * and the base list and the index levels are rebuilt in a single linear
+     * pass, as by {@link #fromSorted}, without any searching.
+     * 
+     * @param <K>        the key type.
+     * @param <V>        the value type.
+     * @param path       the snapshot file.
+     * @param keyCodec   the codec of the keys.
+     * @param valueCodec the codec of the values.
+     * @param comparator the key comparator, or {@code null} for natural 
+     *                   ordering; must order the keys as the map that wrote 
+     *                   the snapshot did.
+     * @return a new map.
+     * @throws IOException if an I/O error occurs, the file is not a snapshot
+     *                     of a supported format version or its checksum does
+     *                     not match.
+     */
+    public static <K, V> SkipListMap<K, V> 
+        readSnapshot(Path path,
+                     SnapshotCodec<? extends K> keyCodec,
+                     SnapshotCodec<? extends V> valueCodec,
+                     Comparator<? super K> comparator) throws IOException {
+        SkipListMap<K, V> map = new SkipListMap<>(comparator);
+        
+        try (Snapshots.Reader<K,V> r = 
+                new Snapshots.Reader<>(path, keyCodec, valueCodec)) {
+            map.buildFromSorted(r, true);
+            r.verify();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot or wrong comparator", e);
+        }
+        
+        return map;
+    }
+    
+    public static <K, V> SkipListMap<K, V> 
+        readSnapshot(Path path,
+                     SnapshotCodec<? extends K> keyCodec,
+                     SnapshotCodec<? extends V> valueCodec) 
+            throws IOException {
+        return readSnapshot(path, keyCodec, valueCodec, null);
+    }
+    
+    @Override
+    public V get(Object key) {
+        return doGet(key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return doGet(key) != null;
+    }
+    
+    @Override
+    public V put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, value, null, PUT);
+    }
+    
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, value, null, PUT_IF_ABSENT);
+    }
+    
+    @Override
+    public V computeIfAbsent(K key, 
+                             Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, null, mappingFunction, COMPUTE_IF_ABSENT);
+    }
+    
+    @Override
+    public V computeIfPresent(
+            K key, 
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, null, remappingFunction, COMPUTE_IF_PRESENT);
+    }
+    
+    @Override
+    public V compute(
+            K key, 
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, null, remappingFunction, COMPUTE);
+    }
+    
+    @Override
+    public V merge(
+            K key, 
+            V value,
+            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        
+        return doPut(key, value, remappingFunction, MERGE);
+    }
+    
+    @Override
+    public V replace(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        for (;;) {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = findNode(key)) == null) {
+                return null;
+            }
+            
+            if ((v = n.val) != null && casValue(n, v, value)) {
+                return v;
+            }
+        }
+    }
+    
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null) {
+            throw new NullPointerException();
+        }
+        
+        for (;;) {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = findNode(key)) == null) {
+                return false;
+            }
+            
+            if ((v = n.val) != null) {
+                if (!oldValue.equals(v)) {
+                    return false;
+                }
+                
+                if (casValue(n, v, newValue)) {
+                    return true;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        return value != null && doRemove(key, value) != null;
+    }
+    
+    /**
+     * Implements all the insertion methods. The value to store is 
+     * {@code value} in the modes {@code PUT} and {@code PUT_IF_ABSENT}; in the
+     * other modes it is obtained from {@code function} via {@link #remap} 
+     * once the node of {@code key} or its insertion point is found, so that 
+     * the index levels are descended only once. A {@code null} result of a 
+     * remapping function removes the mapping.
+     * 
+     * @return the previous value in the modes {@code PUT} and 
+     *         {@code PUT_IF_ABSENT}, the current value otherwise.
+     */
+    private V doPut(K key, V value, Object function, int mode) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        if (COUNTERS) {
+            counters.puts.increment();
+        }
+        
+        V result;
+        
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                result = indexedPut(key, value, function, mode);
+            } finally {
+                indexLock.unlock();
+            }
+        } else {
+            result = lockFreePut(key, value, function, mode);
+        }
+        
+        if (highWaterMark != null) {
+            checkHighWaterMark();
+        }
+        
+        return result;
+    }
+    
+    /**
+     * The part of {@link #doPut} for a map that is not indexed.
+     */
+    private V lockFreePut(K key, V value, Object function, int mode) {
+        Comparator<? super K> cmp = comparator;
+        long kp = prefix(key);
+        
+        for (;;) {
+            Index<K,V> h; Node<K,V> b;
+            VarHandle.acquireFence();
+            int levels = 0;               
+            
+            if ((h = head) == null) {     
+                Node<K,V> base = new Node<>(null, null, null);
+                h = new Index<>(base, null, null);
+                b = HEAD.compareAndSet(this, null, h) ? base : null;
+            } else {
+                for (Index<K,V> q = h, r, d;;) { 
+                    while ((r = q.right) != null) {
+                        Node<K,V> p;
+                        K k = null;
+                        
+                        if ((p = r.node) == null 
+                                || (k = p.key) == null 
+                                || p.val == null) {
+                        
+                            unlinkIndex(q, r);
+                        } else if (cpr(cmp, key, kp, p) > 0) {
+                            q = r;
+                        } else {
+                            break;
+                        }
+                    }
+                    
+                    if ((d = q.down) != null) {
+                        ++levels;
+                        q = d;
+                    } else {
+                        b = q.node;
+                        break;
+                    }
+                }
+            }
+            
+            if (b != null) {
+                Node<K,V> z = null;
+                V nv = null;
+                
+                for (;;) {                       
+                    Node<K,V> n, p; 
+                    K k; 
+                    V v; 
+                    int c;
+                    
+                    if ((n = b.next) == null) {
+                        c = -1;
+                    } else if ((k = n.key) == null) {
+                        break;
+                    } else if ((v = n.val) == null) {
+                        unlinkNode(b, n);
+                        c = 1;
+                    } else if ((c = cpr(cmp, key, kp, n)) > 0) {
+                        b = n;
+                    } else if (c == 0) {
+                        if (mode == PUT_IF_ABSENT 
+                                || mode == COMPUTE_IF_ABSENT) {
+                            return v;
+                        }
+                        
+                        nv = (mode == PUT) 
+                                ? value 
+                                : remap(mode, key, v, value, function);
+                        
+                        if (nv == null) {
+                            if (VAL.compareAndSet(n, v, null)) {
+                                account(key, v, null);
+                                unlinkNode(b, n);
+                                tryReduceLevel();
+                                findPredecessor(key, cmp); // clean the index
+                                adder.decrement();
+                                return null;
+                            }
+                        } else if (casValue(n, v, nv)) {
+                            return (mode == PUT) ? v : nv;
+                        }
+                    }
+                    
+                    if (c < 0) {
+                        if (mode == PUT 
+                                || mode == PUT_IF_ABSENT 
+                                || mode == MERGE) {
+                            nv = value;
+                        } else {
+                            nv = remap(mode, key, null, value, function);
+                            
+                            if (nv == null) {
+                                return null;
+                            }
+                        }
+                        
+                        p = newNode(key, nv, n);
+                        p.prev = b;
+                        
+                        if (NEXT.compareAndSet(b, n, p)) {
+                            linkBack(p, n);
+                            account(key, null, nv);
+                            z = p;
+                            break;
+                        }
+                    }
+                }
+
+                if (z != null) {
+                    int level = levelPolicy.level(key);
+                    
+                    if (level > 0) {
+                        int skips = levels;    
+                        Index<K,V> x = null;
+                    
+                        for (;;) {               
+                            x = new Index<>(z, x, null);
+                            
+                            if (--level == 0 || --skips < 0) {
+                                break;
+                            }
+                        }
+                        
+                        if (addIndices(h, skips, x, cmp) 
+                                && skips < 0 
+                                && head == h) {   
+                            
+                            Index<K,V> hx = new Index<>(z, x, null);
+                            Index<K,V> nh = new Index<>(h.node, h, hx);
+                            
+                            while (--level > 0) { // add the missing levels
+                                hx = new Index<>(z, hx, null);
+                                nh = new Index<>(h.node, nh, hx);
+                            }
+                            
+                            HEAD.compareAndSet(this, h, nh);
+                        }
+                        
+                        if (z.val == null) {
+                            findPredecessor(key, cmp);
+                        }
+                    }
+                    
+                    adder.increment();
+                    return (mode == PUT || mode == PUT_IF_ABSENT) ? null : nv;
+                }
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private V remap(int mode, K key, V oldValue, V value, Object function) {
+        switch (mode) {
+            case COMPUTE_IF_ABSENT:
+                return ((Function<? super K, ? extends V>) function)
+                        .apply(key);
+            
+            case COMPUTE_IF_PRESENT:
+                return oldValue == null 
+                        ? null 
+                        : ((BiFunction<? super K, ? super V, ? extends V>) 
+                                function).apply(key, oldValue);
+            
+            case COMPUTE:
+                return ((BiFunction<? super K, ? super V, ? extends V>) 
+                        function).apply(key, oldValue);
+            
+            case MERGE:
+                return oldValue == null 
+                        ? value 
+                        : ((BiFunction<? super V, ? super V, ? extends V>) 
+                                function).apply(oldValue, value);
+            
+            default:
+                return value;
+        }
+    }
+    
+    @Override
+    public V remove(Object key) {
+        return doRemove(key, null);
+    }
+    
+    @Override
+    public int size() {
+        long c = adder.sum();
+        return (c >= Integer.MAX_VALUE) ? Integer.MAX_VALUE 
+                                        : (c <= 0L) ? 0 : (int) c;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return findFirst() == null;
+    }
+    
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        Node<K,V> b, n; 
+        V v;
+        
+        if ((b = baseHead()) != null) {
+            while ((n = b.next) != null) {
+                if ((v = n.val) != null && value.equals(v)) {
+                    return true;
+                } else {
+                    b = n;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Passes all the mappings to {@code action} in ascending key order. The 
+     * base list is walked directly, so no entry is allocated; like the 
+     * iterators, the traversal is weakly consistent.
+     * 
+     * @param action the action to perform.
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        
+        forEachIn(null, false, null, false, action);
+    }
+    
+    /**
+     * Passes the mappings with keys from {@code fromKey} to {@code toKey} to 
+     * {@code action} in ascending key order. The first mapping is located via
+     * the index levels and the rest are read off the base list without 
+     * allocating any entry, as by {@link #forEach}.
+     * 
+     * @param fromKey       the lower bound.
+     * @param fromInclusive whether the lower bound is included.
+     * @param toKey         the upper bound.
+     * @param toInclusive   whether the upper bound is included.
+     * @param action        the action to perform.
+     * @throws IllegalArgumentException if {@code fromKey} is greater than 
+     *                                  {@code toKey}.
+     */
+    public void forEachInRange(K fromKey, 
+                               boolean fromInclusive, 
+                               K toKey, 
+                               boolean toInclusive,
+                               BiConsumer<? super K, ? super V> action) {
+        if (fromKey == null || toKey == null || action == null) {
+            throw new NullPointerException();
+        }
+        
+        if (cpr(comparator, fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("inconsistent range");
+        }
+        
+        forEachIn(fromKey, fromInclusive, toKey, toInclusive, action);
+    }
+    
+    @Override
+    public void clear() {
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                if (undoLog != null) { // each removal is recorded
+                    indexedRemoveRange(null, false, null, false, null);
+                } else {
+                    HEAD.setRelease(this, null);
+                    LAST.setRelease(this, null);
+                    
+                    if (table != null) {
+                        TABLE.setRelease(this, new NodeTable<K,V>(0));
+                    }
+                    
+                    adder.reset();
+                    bytes.reset();
+                }
+                
+                rearmHighWaterMark();
+            } finally {
+                indexLock.unlock();
+            }
+            
+            return;
+        }
+        
+        Index<K,V> h, r, d; 
+        Node<K,V> b;
+        VarHandle.acquireFence();
+        
+        while ((h = head) != null) {
+            if ((r = h.right) != null) {        // remove indices
+                RIGHT.compareAndSet(h, r, null);
+            } else if ((d = h.down) != null) {  // remove levels
+                HEAD.compareAndSet(this, h, d);
+            } else {
+                long count = 0L;
+                
+                if ((b = h.node) != null) {     // remove nodes
+                    Node<K,V> n; 
+                    V v;
+                    
+                    while ((n = b.next) != null) {
+                        if ((v = n.val) != null 
+                                && VAL.compareAndSet(n, v, null)) {
+                            account(n.key, v, null);
+                            --count;
+                            v = null;
+                        }
+                        
+                        if (v == null) {
+                            unlinkNode(b, n);
+                        }
+                    }
+                }
+                
+                if (count != 0L) {
+                    adder.add(count);
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+        return userComparator;
+    }
+    
+    @Override
+    public K firstKey() {
+        Node<K,V> n = findFirst();
+        
+        if (n == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return n.key;
+    }
+    
+    @Override
+    public K lastKey() {
+        Node<K,V> n = findLast();
+        
+        if (n == null) {
+            throw new NoSuchElementException();
+        }
+        
+        return n.key;
+    }
+    
+    @Override
+    public Map.Entry<K,V> lowerEntry(K key) {
+        return findNearEntry(key, LT, comparator);
+    }
+    
+    @Override
+    public K lowerKey(K key) {
+        Node<K,V> n = findNear(key, LT, comparator);
+        return (n == null) ? null : n.key;
+    }
+    
+    @Override
+    public Map.Entry<K,V> floorEntry(K key) {
+        return findNearEntry(key, LT | EQ, comparator);
+    }
+    
+    @Override
+    public K floorKey(K key) {
+        Node<K,V> n = findNear(key, LT | EQ, comparator);
+        return (n == null) ? null : n.key;
+    }
+    
+    @Override
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        return findNearEntry(key, GT | EQ, comparator);
+    }
+    
+    @Override
+    public K ceilingKey(K key) {
+        Node<K,V> n = findNear(key, GT | EQ, comparator);
+        return (n == null) ? null : n.key;
+    }
+    
+    @Override
+    public Map.Entry<K,V> higherEntry(K key) {
+        return findNearEntry(key, GT, comparator);
+    }
+    
+    @Override
+    public K higherKey(K key) {
+        Node<K,V> n = findNear(key, GT, comparator);
+        return (n == null) ? null : n.key;
+    }
+    
+    @Override
+    public Map.Entry<K,V> firstEntry() {
+        return findFirstEntry();
+    }
+    
+    @Override
+    public Map.Entry<K,V> lastEntry() {
+        return findLastEntry();
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollFirstEntry() {
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                return indexedRemoveFirstEntry();
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        
+        return doRemoveFirstEntry();
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollLastEntry() {
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                return indexedRemoveLastEntry();
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        
+        return doRemoveLastEntry();
+    }
+    
+    @Override
+    public NavigableSet<K> keySet() {
+        KeySet<K,V> ks;
+        
+        if ((ks = keySet) != null) {
+            return ks;
+        }
+        
+        return keySet = new KeySet<>(this);
+    }
+    
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return keySet();
+    }
+    
+    @Override
+    public Collection<V> values() {
+        Values<K,V> vs;
+        
+        if ((vs = values) != null) {
+            return vs;
+        }
+        
+        return values = new Values<>(this);
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        EntrySet<K,V> es;
+        
+        if ((es = entrySet) != null) {
+            return es;
+        }
+        
+        return entrySet = new EntrySet<>(this);
+    }
+    
+    @Override
+    public NavigableMap<K,V> descendingMap() {
+        SubMap<K,V> dm;
+        
+        if ((dm = descendingMap) != null) {
+            return dm;
+        }
+        
+        return descendingMap = 
+                new SubMap<>(this, null, false, null, false, true);
+    }
+    
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+    
+    @Override
+    public NavigableMap<K,V> subMap(K fromKey, 
+                                    boolean fromInclusive, 
+                                    K toKey, 
+                                    boolean toInclusive) {
+        if (fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this, 
+                            fromKey, 
+                            fromInclusive, 
+                            toKey, 
+                            toInclusive, 
+                            false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> headMap(K toKey, boolean inclusive) {
+        if (toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this, null, false, toKey, inclusive, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> tailMap(K fromKey, boolean inclusive) {
+        if (fromKey == null) {
+            throw new NullPointerException();
+        }
+        
+        return new SubMap<>(this, fromKey, inclusive, null, false, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+    
+    @Override
+    public NavigableMap<K,V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+    
+    /**
+     * Returns the entry at position {@code rank} in the key order. Requires 
+     * an indexed map.
+     * 
+     * @param rank the zero-based position of the entry.
+     * @return the entry at the given position.
+     * @throws IndexOutOfBoundsException if {@code rank} is out of range.
+     */
+    public Map.Entry<K,V> getByRank(int rank) {
+        checkIndexed();
+        indexLock.lock();
+        
+        try {
+            return entryAt(rank);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    private Map.Entry<K,V> entryAt(int rank) {
+        int size = size();
+        
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException(
+                    "rank = " + rank + ", size = " + size);
+        }
+        
+        int target = rank + 1; // the header node is at position 0
+        int r = 0;
+        Index<K,V> q = head;
+        
+        for (;;) {
+            Index<K,V> x;
+            
+            while ((x = q.right) != null && r + q.span <= target) {
+                r += q.span;
+                q = x;
+            }
+            
+            if (q.down == null) {
+                break;
+            }
+            
+            q = q.down;
+        }
+        
+        Node<K,V> n = q.node;
+        
+        for (; r < target; r++) {
+            n = n.next;
+        }
+        
+        return new AbstractMap.SimpleImmutableEntry<>(n.key, n.val);
+    }
+    
+    /**
+     * Returns the number of keys strictly less than {@code key}, which is the
+     * rank of {@code key} if it is present. Requires an indexed map.
+     * 
+     * @param key the key.
+     * @return the number of smaller keys.
+     */
+    public int rankOf(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        checkIndexed();
+        indexLock.lock();
+        
+        try {
+            return countLess(key, false);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of keys in {@code [fromKey, toKey)}. Requires an 
+     * indexed map.
+     * 
+     * @param fromKey the inclusive lower bound.
+     * @param toKey   the exclusive upper bound.
+     * @return the number of keys in the range.
+     */
+    public int countInRange(K fromKey, K toKey) {
+        if (fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        checkIndexed();
+        
+        if (cpr(comparator, fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("inconsistent range");
+        }
+        
+        indexLock.lock();
+        
+        try {
+            return countLess(toKey, false) - countLess(fromKey, false);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the aggregate of the values of the mappings with keys in 
+     * {@code [fromKey, toKey)}, combined in ascending key order. The search 
+     * descends towards {@code fromKey}, climbs the first towers within the 
+     * range and descends again towards {@code toKey}, combining the 
+     * aggregates cached in the index links it passes, which takes 
+     * logarithmic time. Requires a map constructed with {@code aggregator}.
+     * 
+     * @param <A>        the aggregate type.
+     * @param aggregator the aggregator of this map.
+     * @param fromKey    the inclusive lower bound.
+     * @param toKey      the exclusive upper bound.
+     * @return the aggregate of the values in the range.
+     * @throws IllegalArgumentException if {@code aggregator} is not the 
+     *                                  aggregator of this map.
+     */
+    public <A> A aggregate(Aggregator<? super V, A> aggregator, 
+                           K fromKey, 
+                           K toKey) {
+        if (aggregator == null || fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        if (aggregator != (Object) this.aggregator) {
+            throw new IllegalArgumentException(
+                    "Not the aggregator of this map.");
+        }
+        
+        if (cpr(comparator, fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("inconsistent range");
+        }
+        
+        indexLock.lock();
+        
+        try {
+            @SuppressWarnings("unchecked")
+            A result = (A) aggregateRange(fromKey, toKey);
+            return result;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Removes all the mappings with keys in {@code [fromKey, toKey)}. The 
+     * first key of the range is located by a single descent, after which the
+     * nodes of the range are deleted one after another while walking the base
+     * list, and the stale indices are swept by a second descent; the size is
+     * adjusted once. In an indexed map the whole range is unlinked from the 
+     * base list and from each index level with a single store per level.
+     * 
+     * @param fromKey the inclusive lower bound.
+     * @param toKey   the exclusive upper bound.
+     * @return the number of removed mappings.
+     */
+    public long removeRange(K fromKey, K toKey) {
+        if (fromKey == null || toKey == null) {
+            throw new NullPointerException();
+        }
+        
+        if (cpr(comparator, fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("inconsistent range");
+        }
+        
+        return doRemoveRange(fromKey, true, toKey, false, null);
+    }
+    
+    /**
+     * Moves all the mappings with keys greater than or equal to {@code key} 
+     * into a new map with the same options, and returns it. An indexed map
+     * without aggregates, hash side-index, size estimate or open snapshots 
+     * cuts its base list and index levels before {@code key} under the lock
+     * and hands the parts after the cut over to the new map, which takes 
+     * logarithmic time; the readers traversing this map meanwhile may still
+     * see the moved mappings. Any other map removes the moved mappings as by
+     * {@link #removeRange} and links them into the new map as they come, in
+     * one linear pass. Either way each mapping ends up in exactly one of the
+     * maps even if the range is being modified concurrently.
+     * 
+     * @param key the least key to move.
+     * @return the new map holding the mappings from {@code key} on.
+     */
+    public SkipListMap<K, V> splitAt(K key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        SkipListMap<K, V> tail = emptyCopy();
+        
+        if (indexed 
+                && aggregator == null 
+                && table == null 
+                && valueSizer == null) {
+            indexLock.lock();
+            
+            try {
+                if (undoLog == null) {
+                    spliceTail(key, tail);
+                    return tail;
+                }
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        
+        Towers<K,V> towers = new Towers<>(new Node<>(null, null, null), 
+                                          levelPolicy);
+        
+        doRemoveRange(key, true, null, false, (k, v) -> {
+            linkLast(towers, tail.newNode(k, v, null));
+        });
+        
+        tail.publish(towers);
+        return tail;
+    }
+    
+    /**
+     * Cuts the base list and every index level right before {@code key} and
+     * gives the parts after the cut to the empty map {@code tail}, under a 
+     * new head column whose spans are taken from the predecessors of 
+     * {@code key}. The caller must hold the lock.
+     */
+    private void spliceTail(K key, SkipListMap<K,V> tail) {
+        if (head == null) {
+            return;
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        long kp = prefix(key);
+        Index<K,V>[] preds = newPredecessorArray();
+        int[] ranks = new int[preds.length];
+        findIndexedPredecessors(key, preds, ranks);
+        
+        Node<K,V> b = preds[0].node, n;
+        int rank = ranks[0];
+        
+        while ((n = b.next) != null && cpr(cmp, key, kp, n) > 0) {
+            b = n;
+            ++rank;
+        }
+        
+        if (n == null) {
+            return;
+        }
+        
+        Node<K,V> base = new Node<>(null, null, n);
+        Index<K,V> h = null;
+        
+        for (int i = 0; i < preds.length; i++) {
+            Index<K,V> p = preds[i], r = p.right;
+            h = new Index<>(base, h, r);
+            
+            if (r != null) {
+                h.span = ranks[i] + p.span - rank;
+            }
+        }
+        
+        long moved = adder.sum() - rank;
+        PREV.setRelease(n, base);
+        tail.adder.add(moved);
+        HEAD.setRelease(tail, h);
+        
+        for (Index<K,V> p : preds) {
+            p.span = 0;
+            RIGHT.setRelease(p, null);
+        }
+        
+        NEXT.setRelease(b, null);
+        LAST.setRelease(this, null);
+        adder.add(-moved);
+        tryReduceLevel();
+        tail.tryReduceLevel();
+    }
+    
+    /**
+     * Moves all the mappings of {@code other} into this map, leaving 
+     * {@code other} empty. The mappings are removed from {@code other} as by
+     * {@link #removeRange} and inserted through a single {@link Cursor}, 
+     * which finds each insertion point starting from the previous one; when 
+     * all the keys of {@code other} are greater than those of this map, as 
+     * after a {@link #splitAt}, only the first insertion has to climb and 
+     * descend the whole index. Both maps must order the keys the same way.
+     * 
+     * @param other the map whose mappings to move.
+     * @return the number of moved mappings.
+     * @throws IllegalArgumentException if {@code other} is this map or the 
+     *                                  maps have different comparators.
+     */
+    public long append(SkipListMap<K, V> other) {
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot append a map to itself");
+        }
+        
+        checkComparator(other);
+        Cursor cursor = cursor();
+        return other.doRemoveRange(null, false, null, false, cursor::put);
+    }
+    
+    /**
+     * Returns a new map holding the mappings of both this map and 
+     * {@code other}. A key present in both maps is mapped to the result of 
+     * {@code remapping} applied to its value in this map and its value in 
+     * {@code other}, or left out if that result is {@code null}. The two base
+     * lists are merged in a single pass and the index of the new map is built
+     * along the way, which takes {@code O(n + m)} time. The new map has the 
+     * comparator, the indexing and the level policy of this map.
+     * 
+     * @param other     the other map.
+     * @param remapping the function combining the values of a common key.
+     * @return the union of the two maps.
+     * @throws IllegalArgumentException if the maps have different 
+     *                                  comparators.
+     */
+    public SkipListMap<K, V> 
+        union(SkipListMap<K, V> other,
+              BiFunction<? super V, ? super V, ? extends V> remapping) {
+        if (remapping == null) {
+            throw new NullPointerException();
+        }
+        
+        return combine(other, UNION, remapping);
+    }
+    
+    /**
+     * Returns a new map holding the keys present in both this map and 
+     * {@code other}, each mapped to the result of {@code remapping} applied 
+     * to its two values; the keys for which it returns {@code null} are left
+     * out. Runs in {@code O(n + m)} time like {@link #union}.
+     * 
+     * @param other     the other map.
+     * @param remapping the function combining the values of a common key.
+     * @return the intersection of the two maps.
+     * @throws IllegalArgumentException if the maps have different 
+     *                                  comparators.
+     */
+    public SkipListMap<K, V> 
+        intersection(SkipListMap<K, V> other,
+                     BiFunction<? super V, ? super V, ? extends V> remapping) {
+        if (remapping == null) {
+            throw new NullPointerException();
+        }
+        
+        return combine(other, INTERSECTION, remapping);
+    }
+    
+    /**
+     * Returns a new map holding the mappings of this map whose keys are not 
+     * present in {@code other}. Runs in {@code O(n + m)} time like 
+     * {@link #union}.
+     * 
+     * @param other the other map.
+     * @return the difference of the two maps.
+     * @throws IllegalArgumentException if the maps have different 
+     *                                  comparators.
+     */
+    public SkipListMap<K, V> difference(SkipListMap<? super K, ?> other) {
+        return combine(other, DIFFERENCE, null);
+    }
+    
+    /**
+     * Merges all the mappings of {@code other} into this map as if by calling
+     * {@link #merge} for each of them in ascending key order. In an indexed 
+     * map, the base list is merged in place in a single pass under the lock 
+     * and the index is then rebuilt in another, in {@code O(n + m)} time. 
+     * Otherwise the mappings are merged through a single {@link Cursor}, 
+     * which reaches each key from the previous one in time logarithmic in 
+     * the distance between them, and which falls back to {@link #merge} 
+     * whenever it loses a race with a concurrent update or a mapping is to be
+     * removed.
+     * 
+     * @param other     the map whose mappings to merge.
+     * @param remapping the function combining the value in this map with the
+     *                  value in {@code other}.
+     * @throws IllegalArgumentException if {@code other} is this map or the 
+     *                                  maps have different comparators.
+     */
+    public void mergeFrom(SkipListMap<? extends K, ? extends V> other,
+                          BiFunction<? super V, ? super V, ? extends V> 
+                                  remapping) {
+        if (remapping == null) {
+            throw new NullPointerException();
+        }
+        
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot merge a map into itself");
+        }
+        
+        checkComparator(other);
+        Node<? extends K, ? extends V> o = other.baseHead();
+        
+        if (o == null) {
+            return;
+        }
+        
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                indexedMergeFrom(o, remapping);
+            } finally {
+                indexLock.unlock();
+            }
+            
+            return;
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        Cursor cursor = cursor();
+        
+        while ((o = o.next) != null) {
+            K k = o.key;
+            V ov = o.val;
+            
+            if (k == null || ov == null) {
+                continue;
+            }
+            
+            if (cursor.seek(k) && cpr(cmp, k, cursor.node.key) == 0) {
+                Node<K,V> n = cursor.node;
+                V v, w;
+                
+                if ((v = n.val) != null 
+                        && (w = remapping.apply(v, ov)) != null
+                        && casValue(n, v, w)) {
+                    continue;
+                }
+            } else if (cursor.put(k, ov, true) == null) {
+                continue;
+            }
+            
+            merge(k, ov, remapping);
+        }
+    }
+    
+    /**
+     * Removes all the mappings with keys less than or equal to {@code key}, 
+     * passing each of them to {@code action} in ascending key order. Like 
+     * {@link #pollFirstEntry}, this starts at the base header without a 
+     * descent; the removed nodes are then deleted in a single pass over the 
+     * base list and the heads of the index levels are swept once, which 
+     * takes {@code O(k)} time for {@code k} removed mappings plus the height.
+     * If {@code action} throws, the mappings passed to it so far stay 
+     * removed.
+     * 
+     * @param key    the greatest key to remove.
+     * @param action the action to perform on each removed mapping, or 
+     *               {@code null}.
+     * @return the number of removed mappings.
+     */
+    public long drainUpTo(K key, BiConsumer<? super K, ? super V> action) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        return doRemoveRange(null, false, key, true, action);
+    }
+    
+    public boolean isIndexed() {
+        return indexed;
+    }
+    
+    public boolean isHashed() {
+        return table != null;
+    }
+    
+    /**
+     * Returns the estimated number of heap bytes taken by the mappings of 
+     * this map. Requires a sized map.
+     * 
+     * @return the estimated size in bytes.
+     */
+    public long byteSize() {
+        checkSized();
+        return bytes.sum();
+    }
+    
+    /**
+     * Sets the memory budget of this map: {@code listener} is called by the
+     * first put after which the estimated size exceeds {@code bytes}, and 
+     * then not again until this map is emptied by {@link #clear} or 
+     * {@link #freezeAndSwap}. Requires a sized map.
+     * 
+     * @param bytes    the budget in bytes.
+     * @param listener the listener, typically scheduling a flush, or 
+     *                 {@code null} to remove the budget.
+     */
+    public void setHighWaterMark(long bytes, 
+                                 Consumer<? super SkipListMap<K,V>> listener) {
+        checkSized();
+        highWaterMark = (listener == null) 
+                ? null 
+                : new HighWaterMark<>(bytes, listener);
+    }
+    
+    /**
+     * Moves all the mappings of this map into a new map in constant time and
+     * returns an unmodifiable view of the latter, for instance to be flushed,
+     * while this map goes on taking writes from empty. The new map has the 
+     * same options; it takes over the estimated size of a sized map. The 
+     * readers traversing this map while it is swapped may still see the 
+     * moved mappings. Requires an indexed map.
+     * 
+     * @return an unmodifiable view of the moved mappings.
+     * @throws IllegalStateException if a {@link #snapshot} of this map is 
+     *                               open.
+     */
+    public NavigableMap<K,V> freezeAndSwap() {
+        checkIndexed();
+        SkipListMap<K,V> frozen = emptyCopy();
+        indexLock.lock();
+        
+        try {
+            if (undoLog != null) {
+                throw new IllegalStateException("Open snapshots.");
+            }
+            
+            frozen.head = head;
+            frozen.last = last;
+            frozen.table = table;
+            frozen.adder.add(adder.sumThenReset());
+            frozen.bytes.add(bytes.sumThenReset());
+            HEAD.setRelease(this, null);
+            LAST.setRelease(this, null);
+            
+            if (table != null) {
+                TABLE.setRelease(this, new NodeTable<K,V>(0));
+            }
+            
+            rearmHighWaterMark();
+        } finally {
+            indexLock.unlock();
+        }
+        
+        return Collections.unmodifiableNavigableMap(frozen);
+    }
+    
+    /**
+     * Returns a read-only view of the mappings of this map at this moment. 
+     * The snapshot is taken in constant time under the lock and copies 
+     * nothing; instead, until it is closed, each write records the value it
+     * overwrites if that value is the first one of its key since the latest
+     * snapshot. A snapshot thus costs its readers a lookup in the undo log 
+     * per key they meet and the writers a lookup per write, and it keeps the
+     * overwritten values until all the snapshots that may see them are 
+     * closed. While a snapshot is open, {@link #clear} removes the mappings 
+     * one by one and {@link #freezeAndSwap} fails. Requires an indexed map.
+     * 
+     * @return the snapshot, to be closed once no longer needed.
+     */
+    public Snapshot<K,V> snapshot() {
+        checkIndexed();
+        indexLock.lock();
+        
+        try {
+            if (undoLog == null) {
+                undoLog = new SkipListMap<>(userComparator);
+                snapshots = new TreeSet<>();
+            }
+            
+            snapshots.add(version);
+            return new Snapshot<>(this, undoLog, version++);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    public LevelPolicy levelPolicy() {
+        return levelPolicy;
+    }
+    
+    public KeyPrefix<? super K> keyPrefix() {
+        return keyPrefix;
+    }
+    
+    public Aggregator<? super V, ?> aggregator() {
+        return aggregator;
+    }
+    
+    /**
+     * Measures the shape of this map. Takes time linear in the number of 
+     * entries times the height.
+     * 
+     * @return a snapshot of the statistics of this map.
+     */
+    public Stats stats() {
+        VarHandle.acquireFence();
+        Index<K,V> h = head;
+        int height = 0;
+        
+        for (Index<K,V> q = h; q != null; q = q.down) {
+            ++height;
+        }
+        
+        // next[i] is the next index to pass on the level i, and passed[i] 
+        // counts the nodes passed on the level i since the last node with an 
+        // index on the level i + 1, that is, the right moves a lookup makes
+        // on the level i after descending to it.
+        @SuppressWarnings("unchecked")
+        Index<K,V>[] next = (Index<K,V>[]) new Index<?,?>[height + 1];
+        long[] perLevel = new long[height + 1];
+        long[] passed = new long[height + 1];
+        long stale = 0L, pathSum = 0L, maxPath = 0L;
+        int i = height;
+        
+        for (Index<K,V> q = h; q != null; q = q.down) {
+            next[i--] = q.right;
+        }
+        
+        for (Node<K,V> n = (h == null) ? null : h.node.next; 
+                n != null; 
+                n = n.next) {
+            if (n.key == null || n.val == null) {
+                continue;
+            }
+            
+            int t = 0; // the height of the tower of 'n'
+            
+            while (t < height) {
+                Index<K,V> r = next[t + 1];
+                
+                while (r != null && r.node != n 
+                        && (r.node.val == null 
+                            || cpr(userComparator, r.node.key, n.key) < 0)) {
+                    if (r.node.val == null) {
+                        ++stale;
+                    }
+                    
+                    r = r.right;
+                }
+                
+                if (r == null || r.node != n) {
+                    next[t + 1] = r;
+                    break;
+                }
+                
+                next[++t] = r.right;
+            }
+            
+            long path = passed[t] + 1;
+            
+            for (int l = t + 1; l <= height; l++) {
+                path += passed[l] + 1;
+            }
+            
+            pathSum += path;
+            maxPath = Math.max(maxPath, path);
+            
+            for (int l = 0; l < t; l++) {
+                perLevel[l]++;
+                passed[l] = 0;
+            }
+            
+            perLevel[t]++;
+            passed[t]++;
+        }
+        
+        for (int l = 1; l <= height; l++) {
+            for (Index<K,V> r = next[l]; r != null; r = r.right) {
+                if (r.node.val == null) {
+                    ++stale;
+                }
+            }
+        }
+        
+        long count = perLevel[0];
+        
+        return new Stats(perLevel, 
+                         stale, 
+                         count == 0L ? 0.0 : (double) pathSum / count, 
+                         maxPath, 
+                         counters);
+    }
+    
+    /**
+     * Returns a new cursor positioned at the first entry of this map.
+     * 
+     * @return a new cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    KeySpliterator keySpliterator() {
+        Index<K,V> h = headIndex();
+        return new KeySpliterator(h, origin(h), null, size());
+    }
+    
+    ValueSpliterator valueSpliterator() {
+        Index<K,V> h = headIndex();
+        return new ValueSpliterator(h, origin(h), null, size());
+    }
+    
+    EntrySpliterator entrySpliterator() {
+        Index<K,V> h = headIndex();
+        return new EntrySpliterator(h, origin(h), null, size());
+    }
+    
+    private Index<K,V> headIndex() {
+        VarHandle.acquireFence();
+        return head;
+    }
+    
+    private static <K,V> Node<K,V> origin(Index<K,V> h) {
+        return (h == null) ? null : h.node.next;
+    }
+    
+    /**
+     * Appends the entries of {@code it} to an empty map, indexing the new 
+     * nodes as they are linked.
+     */
+    private void buildFromSorted(
+            Iterator<? extends Map.Entry<? extends K, ? extends V>> it,
+            boolean checkOrder) {
+        if (it == null) {
+            throw new NullPointerException();
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        Node<K,V> bp = new Node<>(null, null, null);
+        Towers<K,V> towers = new Towers<>(bp, levelPolicy);
+        
+        while (it.hasNext()) {
+            Map.Entry<? extends K, ? extends V> e = it.next();
+            K k = e.getKey();
+            V v = e.getValue();
+            
+            if (k == null || v == null) {
+                throw new NullPointerException();
+            }
+            
+            if (checkOrder && bp.key != null && cpr(cmp, bp.key, k) >= 0) {
+                throw new IllegalArgumentException(
+                        "Keys are not strictly ascending: " 
+                                + bp.key + ", " + k);
+            }
+            
+            linkLast(towers, bp = newNode(k, v, null));
+        }
+        
+        publish(towers);
+    }
+    
+    /**
+     * Links the new node {@code z}, whose key is greater than those of the 
+     * nodes linked so far, at the end of the base list being built by 
+     * {@code towers}.
+     */
+    private static <K,V> void linkLast(Towers<K,V> towers, Node<K,V> z) {
+        Node<K,V> b = (towers.last == null) ? towers.head.node : towers.last;
+        z.prev = b;
+        b.next = z;
+        towers.add(z);
+    }
+    
+    /**
+     * Makes the nodes and the indices built by {@code towers} visible as the
+     * contents of this empty map.
+     */
+    private void publish(Towers<K,V> towers) {
+        if (towers.count != 0) {
+            if (aggregator != null) {
+                aggregateAll(towers.head);
+            }
+            
+            if (table != null) {
+                NodeTable<K,V> t = new NodeTable<>(towers.count);
+                
+                for (Node<K,V> n = towers.head.node.next; 
+                        n != null; 
+                        n = n.next) {
+                    t.add(n);
+                }
+                
+                table = t;
+            }
+            
+            if (valueSizer != null) {
+                for (Node<K,V> n = towers.head.node.next; 
+                        n != null; 
+                        n = n.next) {
+                    account(n.key, null, n.val);
+                }
+            }
+            
+            VarHandle.releaseFence(); // publish the nodes and indices
+            adder.add(towers.count);
+            LAST.setRelease(this, towers.last);
+            head = towers.head;
+            VarHandle.fullFence();
+        }
+    }
+    
+    private void checkIndexed() {
+        if (!indexed) {
+            throw new UnsupportedOperationException("Not an indexed map.");
+        }
+    }
+    
+    private void checkSized() {
+        if (valueSizer == null) {
+            throw new UnsupportedOperationException("Not a sized map.");
+        }
+    }
+    
+    /**
+     * Adjusts the estimated size of a sized map after the value of 
+     * {@code key} has changed from {@code oldValue} to {@code newValue}, 
+     * either of which is {@code null} if the mapping has been inserted or 
+     * deleted.
+     */
+    private void account(K key, V oldValue, V newValue) {
+        Sizer<? super V> vs;
+        
+        if ((vs = valueSizer) != null) {
+            long delta = 0L;
+            
+            if (oldValue == null) {
+                delta += entryBytes + keySizer.sizeOf(key);
+            } else {
+                delta -= vs.sizeOf(oldValue);
+            }
+            
+            if (newValue == null) {
+                delta -= entryBytes + keySizer.sizeOf(key);
+            } else {
+                delta += vs.sizeOf(newValue);
+            }
+            
+            bytes.add(delta);
+        }
+    }
+    
+    private void checkHighWaterMark() {
+        HighWaterMark<K,V> m = highWaterMark;
+        
+        if (m != null 
+                && bytes.sum() > m.bytes 
+                && m.fired.compareAndSet(false, true)) {
+            m.listener.accept(this);
+        }
+    }
+    
+    private void rearmHighWaterMark() {
+        HighWaterMark<K,V> m = highWaterMark;
+        
+        if (m != null) {
+            m.fired.set(false);
+        }
+    }
+    
+    /**
+     * Records that {@code key} is mapped to {@code value}, or absent if it is
+     * {@code null}, before the first write to it since the latest snapshot, 
+     * if any snapshot is open. Called right before each write to an indexed 
+     * map; the caller must hold the lock.
+     */
+    private void preserve(K key, V value) {
+        SkipListMap<K, Revision<V>> log;
+        
+        if ((log = undoLog) != null) {
+            Revision<V> r = log.get(key);
+            
+            if (r == null || r.version < version) {
+                log.put(key, new Revision<>(version, value, r));
+            }
+        }
+    }
+    
+    /**
+     * Closes the snapshot of version {@code v}: drops the undo log with the 
+     * last snapshot, or else, if the oldest snapshot is closed, the 
+     * revisions that only it could see.
+     */
+    private void release(long v) {
+        indexLock.lock();
+        
+        try {
+            if (snapshots == null || !snapshots.remove(v)) {
+                return;
+            }
+            
+            if (snapshots.isEmpty()) {
+                undoLog = null;
+                snapshots = null;
+                return;
+            }
+            
+            long oldest = snapshots.first();
+            
+            if (v > oldest) {
+                return;
+            }
+            
+            SkipListMap<K, Revision<V>> log = undoLog;
+            
+            for (Map.Entry<K, Revision<V>> e : log.entrySet()) {
+                Revision<V> r = e.getValue(), t = r.truncate(oldest);
+                
+                if (t == null) {
+                    log.remove(e.getKey(), r);
+                } else if (t != r) {
+                    log.replace(e.getKey(), r, t);
+                }
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of keys less than {@code key}, or less than or equal
+     * to {@code key} if {@code inclusive} is set, by summing the spans of the
+     * index links passed on the way down.
+     */
+    private int countLess(Object key, boolean inclusive) {
+        Comparator<? super K> cmp = comparator;
+        Index<K,V> q;
+        
+        if ((q = head) == null) {
+            return 0;
+        }
+        
+        int rank = 0;
+        
+        for (;;) {
+            Index<K,V> r; 
+            int c;
+            
+            while ((r = q.right) != null 
+                    && ((c = cpr(cmp, key, r.node.key)) > 0 
+                        || (c == 0 && inclusive))) {
+                rank += q.span;
+                q = r;
+            }
+            
+            if (q.down == null) {
+                break;
+            }
+            
+            q = q.down;
+        }
+        
+        Node<K,V> b = q.node, n;
+        int c;
+        
+        while ((n = b.next) != null 
+                && ((c = cpr(cmp, key, n.key)) > 0 || (c == 0 && inclusive))) {
+            ++rank;
+            b = n;
+        }
+        
+        return rank;
+    }
+    
+    /**
+     * Stores in {@code preds[i]} the rightmost index on the level {@code i} 
+     * (counting from the lowest index level) preceding {@code key}, and in 
+     * {@code ranks[i]} the position of its node. A {@code null} key precedes
+     * all the others.
+     */
+    private void findIndexedPredecessors(Object key, 
+                                         Index<K,V>[] preds, 
+                                         int[] ranks) {
+        Comparator<? super K> cmp = comparator;
+        long kp = prefix(key);
+        Index<K,V> q = head;
+        int rank = 0;
+        
+        for (int i = preds.length - 1;; --i) {
+            Index<K,V> r;
+            
+            while ((r = q.right) != null 
+                    && key != null 
+                    && cpr(cmp, key, kp, r.node) > 0) {
+                rank += q.span;
+                q = r;
+            }
+            
+            preds[i] = q;
+            ranks[i] = rank;
+            
+            if (i == 0) {
+                return;
+            }
+            
+            q = q.down;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Index<K,V>[] newPredecessorArray() {
+        int height = 0;
+        
+        for (Index<K,V> q = head; q != null; q = q.down) {
+            ++height;
+        }
+        
+        return (Index<K,V>[]) new Index<?,?>[height];
+    }
+    
+    /**
+     * The indexed counterpart of {@link #doPut}. Indices are never left 
+     * stale in an indexed map: the new tower is linked right after the 
+     * predecessors recorded on the way down, and every predecessor it does 
+     * not reach gets its span incremented. The caller must hold the lock.
+     */
+    private V indexedPut(K key, V value, Object function, int mode) {
+        Comparator<? super K> cmp = comparator;
+        long kp = prefix(key);
+        Index<K,V> h;
+        
+        if ((h = head) == null) {
+            Node<K,V> base = new Node<>(null, null, null);
+            h = new Index<>(base, null, null);
+            HEAD.setRelease(this, h);
+        }
+        
+        Index<K,V>[] preds = newPredecessorArray();
+        int[] ranks = new int[preds.length];
+        findIndexedPredecessors(key, preds, ranks);
+        
+        Node<K,V> b = preds[0].node, n;
+        int rank = ranks[0];
+        int c = -1;
+        
+        while ((n = b.next) != null && (c = cpr(cmp, key, kp, n)) > 0) {
+            b = n;
+            ++rank;
+        }
+        
+        V nv;
+        
+        if (n != null && c == 0) {
+            for (;;) { // the value may be replaced by a reentrant remap()
+                V v = n.val;
+                
+                if (mode == PUT_IF_ABSENT || mode == COMPUTE_IF_ABSENT) {
+                    return v;
+                }
+                
+                nv = (mode == PUT) ? value 
+                                   : remap(mode, key, v, value, function);
+                
+                if (nv == null) {
+                    if (indexedUnlink(preds, b, n, v)) {
+                        return null;
+                    }
+                    
+                    continue;
+                }
+                
+                preserve(key, n.val);
+                
+                if (VAL.compareAndSet(n, v, nv)) {
+                    account(key, v, nv);
+                    
+                    if (aggregator != null) {
+                        refreshAggregates(preds, key);
+                    }
+                    
+                    return (mode == PUT) ? v : nv;
+                }
+            }
+        }
+        
+        if (mode == PUT || mode == PUT_IF_ABSENT || mode == MERGE) {
+            nv = value;
+        } else if ((nv = remap(mode, key, null, value, function)) == null) {
+            return null;
+        }
+        
+        Node<K,V> z = newNode(key, nv, n);
+        z.prev = b;
+        preserve(key, null);
+        NEXT.setRelease(b, z);
+        linkBack(z, n);
+        addToTable(z);
+        account(key, null, nv);
+        int rz = rank + 1;
+        int height = preds.length;
+        int levels = levelPolicy.level(key);
+        
+        Index<K,V> x = null;
+        
+        for (int i = 0; i < height; i++) {
+            Index<K,V> p = preds[i];
+            
+            if (i < levels) {
+                x = new Index<>(z, x, p.right);
+                
+                if (p.right != null) {
+                    x.span = ranks[i] + p.span + 1 - rz;
+                }
+                
+                p.span = rz - ranks[i];
+                RIGHT.setRelease(p, x);
+            } else if (p.right != null) {
+                p.span++;
+            }
+        }
+        
+        if (levels > height) {
+            Index<K,V> nh = h;
+            
+            for (int i = height; i < levels; i++) {
+                x = new Index<>(z, x, null);
+                nh = new Index<>(h.node, nh, x);
+                nh.span = rz;
+            }
+            
+            HEAD.setRelease(this, nh);
+        }
+        
+        if (aggregator != null) { // new levels are not in 'preds'
+            if (levels > height) {
+                refreshAggregates(key);
+            } else {
+                refreshAggregates(preds, key);
+            }
+        }
+        
+        adder.increment();
+        return (mode == PUT || mode == PUT_IF_ABSENT) ? null : nv;
+    }
+    
+    /**
+     * Removes the mappings with keys between {@code lo} and {@code hi}, either
+     * of which may be {@code null} for no bound, passing each removed mapping
+     * to {@code sink} if it is not {@code null}.
+     * 
+     * @return the number of removed mappings.
+     */
+    long doRemoveRange(K lo, 
+                       boolean loInclusive, 
+                       K hi, 
+                       boolean hiInclusive,
+                       BiConsumer<? super K, ? super V> sink) {
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                return indexedRemoveRange(lo, loInclusive, hi, hiInclusive, 
+                                          sink);
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        long removed = 0L;
+        Node<K,V> b;
+        
+        try {
+            outer: 
+            while ((b = (lo == null) ? baseHead() 
+                                     : findPredecessor(lo, cmp)) != null) {
+                for (;;) {
+                    Node<K,V> n; 
+                    K k;
+                    V v; 
+                    
+                    if ((n = b.next) == null) {
+                        break outer;
+                    } else if ((k = n.key) == null) {
+                        break;  // 'b' has been deleted, search again
+                    } else if ((v = n.val) == null) {
+                        unlinkNode(b, n);
+                    } else if (lo != null 
+                            && tooLow(k, lo, loInclusive, cmp)) {
+                        b = n;
+                    } else if (hi != null 
+                            && tooHigh(k, hi, hiInclusive, cmp)) {
+                        break outer;
+                    } else if (VAL.compareAndSet(n, v, null)) {
+                        ++removed;
+                        account(k, v, null);
+                        unlinkNode(b, n);
+                        
+                        if (sink != null) {
+                            sink.accept(k, v);
+                        }
+                    }
+                }
+            }
+        } finally { // also if 'sink' throws
+            if (removed != 0L) {
+                sweepIndices(lo, loInclusive, cmp);
+                tryReduceLevel();
+                adder.add(-removed);
+            }
+        }
+        
+        return removed;
+    }
+    
+    /**
+     * Unlinks the indices of the deleted nodes following the predecessors of
+     * {@code lo} on every index level. Once a range is deleted, its indices 
+     * form such runs unless a key has been inserted into the range meanwhile,
+     * in which case the rest are left for the traversals to unlink.
+     */
+    private void sweepIndices(K lo, 
+                              boolean loInclusive, 
+                              Comparator<? super K> cmp) {
+        Index<K,V> q;
+        VarHandle.acquireFence();
+        
+        if ((q = head) == null) {
+            return;
+        }
+        
+        for (;;) {
+            Index<K,V> r;
+            
+            while ((r = q.right) != null) {
+                Node<K,V> p = r.node;
+                
+                if (p.val == null) {
+                    unlinkIndex(q, r);
+                } else if (lo != null 
+                        && tooLow(p.key, lo, loInclusive, cmp)) {
+                    q = r;
+                } else {
+                    break;
+                }
+            }
+            
+            if ((q = q.down) == null) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * The indexed counterpart of {@link #doRemoveRange}. As the writers hold 
+     * the lock, no node can be linked next to a deleted one, so the deleted 
+     * nodes need no markers: the whole range is unlinked by a single store 
+     * into its predecessor on the base level and on each index level, and 
+     * each predecessor absorbs the spans of the indices it skips. The caller
+     * must hold the lock.
+     */
+    private long indexedRemoveRange(K lo, 
+                                    boolean loInclusive, 
+                                    K hi, 
+                                    boolean hiInclusive,
+                                    BiConsumer<? super K, ? super V> sink) {
+        if (head == null) {
+            return 0L;
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        Index<K,V>[] preds = newPredecessorArray();
+        findIndexedPredecessors(lo, preds, new int[preds.length]);
+        
+        if (lo != null && !loInclusive) { // the tower of 'lo' stays
+            for (int i = 0; i < preds.length; i++) {
+                Index<K,V> r = preds[i].right;
+                
+                if (r != null && cpr(cmp, lo, r.node.key) == 0) {
+                    preds[i] = r;
+                }
+            }
+        }
+        
+        Node<K,V> b = preds[0].node, n;
+        
+        while ((n = b.next) != null 
+                && lo != null 
+                && tooLow(n.key, lo, loInclusive, cmp)) {
+            b = n;
+        }
+        
+        int removed = 0;
+        
+        try {
+            for (; n != null; n = n.next) {
+                K k = n.key;
+                
+                if (k == null) { // a marker added by a reader helping out
+                    continue;
+                }
+                
+                if (hi != null && tooHigh(k, hi, hiInclusive, cmp)) {
+                    break;
+                }
+                
+                preserve(k, n.val);
+                @SuppressWarnings("unchecked")
+                V v = (V) VAL.getAndSet(n, null);
+                removeFromTable(n);
+                account(k, v, null);
+                ++removed;
+                
+                if (sink != null) {
+                    sink.accept(k, v);
+                }
+            }
+        } finally { // if 'sink' throws, unlink the nodes deleted so far
+            if (removed != 0) {
+                while (n != null && (n.key == null || n.val == null)) {
+                    n = n.next;
+                }
+                
+                NEXT.setRelease(b, n);
+                linkBack(b, n);
+                
+                for (Index<K,V> p : preds) {
+                    Index<K,V> r = p.right;
+                    int span = p.span;
+                    
+                    while (r != null && r.node.val == null) {
+                        span += r.span;
+                        r = r.right;
+                    }
+                    
+                    p.span = (r == null) ? 0 : span - removed;
+                    RIGHT.setRelease(p, r);
+                }
+                
+                if (aggregator != null) {
+                    refreshAggregates(lo);
+                }
+                
+                tryReduceLevel();
+                adder.add(-removed);
+            }
+        }
+        
+        return removed;
+    }
+    
+    /**
+     * Merges the base lists of this map and {@code other} into a new map, 
+     * linking the nodes of the result in order and building its index with 
+     * {@link Towers} on the fly. Both lists are traversed weakly consistently.
+     */
+    private SkipListMap<K, V> 
+        combine(SkipListMap<? super K, ?> other, 
+                int op, 
+                BiFunction<? super V, ? super V, ? extends V> remapping) {
+        checkComparator(other);
+        Comparator<? super K> cmp = comparator;
+        SkipListMap<K, V> result = emptyCopy();
+        Node<K,V> bp = new Node<>(null, null, null);
+        Towers<K,V> towers = new Towers<>(bp, levelPolicy);
+        Node<K,V> a = liveSuccessor(baseHead());
+        Node<?,?> b = liveSuccessor(other.baseHead());
+        
+        while (a != null || b != null) {
+            K k;
+            V v;
+            int c = (a == null) ? 1 
+                  : (b == null) ? -1 
+                  : cpr(cmp, a.key, b.key);
+            
+            // Each node is read once: 'a' or 'b' may be deleted meanwhile.
+            if (c < 0) {
+                k = a.key;
+                v = a.val;
+                a = liveSuccessor(a);
+                
+                if (op == INTERSECTION) {
+                    continue;
+                }
+            } else if (c > 0) {
+                @SuppressWarnings("unchecked")
+                Node<K,V> bn = (Node<K,V>) b;
+                k = bn.key;
+                v = bn.val;
+                b = liveSuccessor(b);
+                
+                if (op != UNION) {
+                    continue;
+                }
+            } else {
+                @SuppressWarnings("unchecked")
+                V bv = (V) b.val;
+                k = a.key;
+                v = a.val;
+                a = liveSuccessor(a);
+                b = liveSuccessor(b);
+                
+                if (op == DIFFERENCE) {
+                    continue;
+                }
+                
+                if (v != null && bv != null) {
+                    v = remapping.apply(v, bv);
+                } else if (op == UNION) {
+                    v = (v != null) ? v : bv;
+                } else {
+                    v = null;
+                }
+            }
+            
+            if (v != null) {
+                Node<K,V> z = result.newNode(k, v, null);
+                z.prev = bp;
+                bp = bp.next = z;
+                towers.add(bp);
+            }
+        }
+        
+        result.publish(towers);
+        return result;
+    }
+    
+    /**
+     * Returns the first node following {@code b} that is neither a marker nor
+     * deleted, or {@code null} if there is none.
+     */
+    private static <K,V> Node<K,V> liveSuccessor(Node<K,V> b) {
+        if (b == null) {
+            return null;
+        }
+        
+        Node<K,V> n = b.next;
+        
+        while (n != null && (n.key == null || n.val == null)) {
+            n = n.next;
+        }
+        
+        return n;
+    }
+    
+    private void checkComparator(SkipListMap<?, ?> other) {
+        if (!Objects.equals(userComparator, other.userComparator)) {
+            throw new IllegalArgumentException(
+                    "The maps have different comparators");
+        }
+    }
+    
+    /**
+     * The indexed counterpart of {@link #mergeFrom}. As the writers hold the
+     * lock, the base list of this map contains no deleted nodes, so a single
+     * walk finds the place of each mapping of {@code other}; the index is 
+     * then rebuilt over the merged list and published with a single store. 
+     * The readers still on the old index reach the same base list. The caller
+     * must hold the lock.
+     */
+    private void indexedMergeFrom(Node<? extends K, ? extends V> o, 
+                                  BiFunction<? super V, ? super V, ? extends V>
+                                          remapping) {
+        Comparator<? super K> cmp = comparator;
+        Node<K,V> base = baseHead();
+        
+        if (base == null) {
+            base = new Node<>(null, null, null);
+        }
+        
+        Node<K,V> b = base, n;
+        long delta = 0L;
+        
+        try {
+            while ((o = o.next) != null) {
+                K k = o.key;
+                V ov = o.val;
+                int c = 1;
+                
+                if (k == null || ov == null) {
+                    continue;
+                }
+                
+                while ((n = b.next) != null 
+                        && (c = cpr(cmp, k, n.key)) > 0) {
+                    b = n;
+                }
+                
+                if (c != 0) {
+                    Node<K,V> z = newNode(k, ov, n);
+                    z.prev = b;
+                    preserve(k, null);
+                    NEXT.setRelease(b, z);
+                    linkBack(z, n);
+                    addToTable(z);
+                    account(k, null, ov);
+                    b = z;
+                    ++delta;
+                } else {
+                    V v = n.val;
+                    V w = remapping.apply(v, ov);
+                    preserve(k, n.val);
+                    account(k, v, w);
+                    
+                    if (w != null) {
+                        VAL.setRelease(n, w);
+                    } else {
+                        VAL.setRelease(n, null);
+                        removeFromTable(n);
+                        unlinkNode(b, n);
+                        --delta;
+                    }
+                }
+            }
+        } finally { // keep the map consistent if 'remapping' throws
+            Towers<K,V> towers = new Towers<>(base, levelPolicy);
+            
+            for (n = base.next; n != null; n = n.next) {
+                if (n.key != null && n.val != null) {
+                    towers.add(n);
+                }
+            }
+            
+            Index<K,V> h = (towers.count == 0) ? null : towers.head;
+            
+            if (aggregator != null) {
+                aggregateAll(h);
+            }
+            
+            HEAD.setRelease(this, h);
+            adder.add(delta);
+        }
+    }
+    
+    /**
+     * Passes the live mappings between the bounds, either of which may be 
+     * {@code null} for none, to {@code action}.
+     */
+    private void forEachIn(K lo, 
+                           boolean loInclusive, 
+                           K hi, 
+                           boolean hiInclusive,
+                           BiConsumer<? super K, ? super V> action) {
+        Comparator<? super K> cmp = comparator;
+        Node<K,V> n = (lo == null) ? findFirst() 
+                    : findNear(lo, loInclusive ? GT | EQ : GT, cmp);
+        
+        for (; n != null; n = n.next) {
+            K k;
+            V v;
+            
+            if ((k = n.key) == null) { // pass by markers
+                continue;
+            }
+            
+            if (hi != null && tooHigh(k, hi, hiInclusive, cmp)) {
+                break;
+            }
+            
+            if ((v = n.val) != null) {
+                action.accept(k, v);
+            }
+        }
+    }
+    
+    private static <K> boolean tooLow(K key, 
+                                      K lo, 
+                                      boolean loInclusive, 
+                                      Comparator<? super K> cmp) {
+        int c = cpr(cmp, key, lo);
+        return c < 0 || (c == 0 && !loInclusive);
+    }
+    
+    private static <K> boolean tooHigh(K key, 
+                                       K hi, 
+                                       boolean hiInclusive, 
+                                       Comparator<? super K> cmp) {
+        int c = cpr(cmp, key, hi);
+        return c > 0 || (c == 0 && !hiInclusive);
+    }
+    
+    private V indexedRemove(Object key, Object value) {
+        if (head == null) {
+            return null;
+        }
+        
+        Index<K,V>[] preds = newPredecessorArray();
+        findIndexedPredecessors(key, preds, new int[preds.length]);
+        Node<K,V> b = preds[0].node, n;
+        int c = -1;
+        
+        while ((n = b.next) != null 
+                && (c = cpr(comparator, key, n.key)) > 0) {
+            b = n;
+        }
+        
+        if (n == null || c != 0) {
+            return null;
+        }
+        
+        for (;;) {
+            V v = n.val;
+            
+            if (value != null && !value.equals(v)) {
+                return null;
+            }
+            
+            if (indexedUnlink(preds, b, n, v)) {
+                return v;
+            }
+        }
+    }
+    
+    /**
+     * Deletes {@code n} if its value is still {@code v} and unlinks it 
+     * together with its whole tower. The predecessors absorb the spans of the
+     * removed indices; every other predecessor loses one position.
+     * <p>
+     * Once the value is nulled, a concurrent reader may unlink an index of 
+     * the tower before we do, so the tower is located beforehand: it occupies
+     * the lowest {@code height} levels right after the predecessors.
+     * 
+     * @return {@code false} if the value has been replaced concurrently.
+     */
+    private boolean indexedUnlink(Index<K,V>[] preds, 
+                                  Node<K,V> b, 
+                                  Node<K,V> n,
+                                  V v) {
+        Index<K,V> top = null;
+        int height = 0;
+        
+        for (Index<K,V> p : preds) {
+            Index<K,V> r = p.right;
+            
+            if (r == null || r.node != n) {
+                break;
+            }
+            
+            top = r;
+            ++height;
+        }
+        
+        if (n.val != v) {
+            return false;
+        }
+        
+        preserve(n.key, v);
+        
+        if (!VAL.compareAndSet(n, v, null)) {
+            return false;
+        }
+        
+        removeFromTable(n);
+        account(n.key, v, null);
+        Index<K,V> r = top;
+        
+        for (int i = preds.length - 1; i >= 0; --i) {
+            Index<K,V> p = preds[i];
+            
+            if (i < height) {
+                p.span += r.span - 1;
+                RIGHT.compareAndSet(p, r, r.right);
+                r = r.down;
+            } else if (p.right != null) {
+                p.span--;
+            }
+        }
+        
+        unlinkNode(b, n);
+        
+        if (aggregator != null) {
+            refreshAggregates(preds, n.key);
+        }
+        
+        tryReduceLevel(); // drops empty levels only, spans stay valid
+        adder.decrement();
+        return true;
+    }
+    
+    /**
+     * Replaces the value {@code v} of the node {@code n} with {@code value}.
+     * In an indexed map this happens under the lock, which records the old 
+     * value for the open snapshots and refreshes the aggregates covering the
+     * node.
+     */
+    private boolean casValue(Node<K,V> n, V v, V value) {
+        if (!indexed) {
+            if (!VAL.compareAndSet(n, v, value)) {
+                return false;
+            }
+            
+            account(n.key, v, value);
+            return true;
+        }
+        
+        indexLock.lock();
+        
+        try {
+            if (n.val != v) {
+                return false;
+            }
+            
+            preserve(n.key, v);
+            
+            if (!VAL.compareAndSet(n, v, value)) {
+                return false;
+            }
+            
+            account(n.key, v, value);
+            
+            if (aggregator != null) {
+                refreshAggregates(n.key);
+            }
+            
+            return true;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Folds the values of the mappings with keys in {@code [lo, hi)}: the 
+     * nodes from {@code lo} up to the first tower within the range, then the
+     * links on the way up that tower's column while the next higher tower is 
+     * still within the range, then the links on the way down towards 
+     * {@code hi} and finally the nodes after the last tower before 
+     * {@code hi}. The caller must hold the lock.
+     */
+    private Object aggregateRange(K lo, K hi) {
+        Aggregator<? super V, Object> ag = aggregator;
+        Comparator<? super K> cmp = comparator;
+        Object acc = ag.identity();
+        
+        if (head == null) {
+            return acc;
+        }
+        
+        Index<K,V>[] preds = newPredecessorArray();
+        findIndexedPredecessors(lo, preds, new int[preds.length]);
+        Index<K,V> q = preds[0].right;
+        
+        if (q == null || cpr(cmp, q.node.key, hi) >= 0) {
+            return foldNodes(acc, preds[0].node, lo, hi);
+        }
+        
+        acc = foldNodes(acc, preds[0].node, lo, q.node.key);
+        acc = ag.combine(acc, ag.lift(q.node.val));
+        
+        for (int i = 1; i < preds.length; i++) {
+            Index<K,V> up = preds[i].right;
+            
+            if (up == null || cpr(cmp, up.node.key, hi) >= 0) {
+                break;
+            }
+            
+            for (; q.node != up.node; q = q.right) {
+                acc = ag.combine(acc, q.agg);
+            }
+            
+            q = up;
+        }
+        
+        for (;;) {
+            Index<K,V> r;
+            
+            while ((r = q.right) != null && cpr(cmp, r.node.key, hi) < 0) {
+                acc = ag.combine(acc, q.agg);
+                q = r;
+            }
+            
+            if (q.down == null) {
+                return foldNodes(acc, q.node, null, hi);
+            }
+            
+            q = q.down;
+        }
+    }
+    
+    /**
+     * Folds into {@code acc} the values of the nodes following {@code b} with
+     * keys in {@code [lo, hi)}, where {@code lo} may be {@code null} for no 
+     * lower bound.
+     */
+    private Object foldNodes(Object acc, Node<K,V> b, K lo, K hi) {
+        Aggregator<? super V, Object> ag = aggregator;
+        Comparator<? super K> cmp = comparator;
+        
+        for (Node<K,V> n = b.next; n != null; n = n.next) {
+            K k = n.key;
+            V v = n.val;
+            
+            if (k == null || v == null) { // a marker or a deleted node
+                continue;
+            }
+            
+            if (cpr(cmp, k, hi) >= 0) {
+                break;
+            }
+            
+            if (lo == null || cpr(cmp, k, lo) >= 0) {
+                acc = ag.combine(acc, ag.lift(v));
+            }
+        }
+        
+        return acc;
+    }
+    
+    /**
+     * Recomputes the aggregate of the values skipped by the link from 
+     * {@code p} to its right neighbour: from the base nodes on the lowest 
+     * index level and from the links of the level below on the others. The
+     * caller must hold the lock.
+     */
+    private void aggregateLink(Index<K,V> p) {
+        Aggregator<? super V, Object> ag = aggregator;
+        Index<K,V> r = p.right;
+        Object acc = ag.identity();
+        
+        if (r != null && p.down == null) {
+            for (Node<K,V> n = p.node.next;; n = n.next) {
+                V v = n.val;
+                
+                if (n.key != null && v != null) {
+                    acc = ag.combine(acc, ag.lift(v));
+                }
+                
+                if (n == r.node) {
+                    break;
+                }
+            }
+        } else if (r != null) {
+            for (Index<K,V> q = p.down; q.node != r.node; q = q.right) {
+                acc = ag.combine(acc, q.agg);
+            }
+        }
+        
+        p.agg = acc;
+    }
+    
+    /**
+     * Recomputes, from the lowest level up, the aggregates of the links 
+     * passing over {@code key} and of the links of its tower, if any, after
+     * the mappings at or after {@code key} have changed; a {@code null} key 
+     * stands for the head column. The caller must hold the lock.
+     */
+    private void refreshAggregates(Object key) {
+        if (head != null) {
+            Index<K,V>[] preds = newPredecessorArray();
+            findIndexedPredecessors(key, preds, new int[preds.length]);
+            refreshAggregates(preds, key);
+        }
+    }
+    
+    /**
+     * Like {@link #refreshAggregates(Object)}, with the predecessors of 
+     * {@code key} on all the levels already found.
+     */
+    private void refreshAggregates(Index<K,V>[] preds, Object key) {
+        for (Index<K,V> p : preds) {
+            Index<K,V> r = p.right;
+            aggregateLink(p);
+            
+            if (key != null 
+                    && r != null 
+                    && cpr(comparator, key, r.node.key) == 0) {
+                aggregateLink(r);
+            }
+        }
+    }
+    
+    /**
+     * Computes the aggregates of all the links below the head {@code h}, 
+     * which may be {@code null}, from the lowest level up. Takes linear time.
+     */
+    private void aggregateAll(Index<K,V> h) {
+        if (h != null) {
+            aggregateAll(h.down);
+            
+            for (Index<K,V> q = h; q != null; q = q.right) {
+                aggregateLink(q);
+            }
+        }
+    }
+    
+    private SkipListMap<K, V> emptyCopy() {
+        return new SkipListMap<>(new Builder<K, V>()
+                .comparator(userComparator)
+                .indexed(indexed)
+                .levelPolicy(levelPolicy)
+                .keyPrefix(keyPrefix)
+                .aggregator(aggregator)
+                .hashed(table != null)
+                .sized(keySizer, valueSizer));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private NodeTable<K,V> hashTable() {
+        return (NodeTable<K,V>) TABLE.getAcquire(this);
+    }
+    
+    /**
+     * Adds the new node {@code z} to the hash side-index, if any, first 
+     * replacing a crowded table. The caller must hold the lock.
+     */
+    private void addToTable(Node<K,V> z) {
+        NodeTable<K,V> t;
+        
+        if ((t = table) != null) {
+            if (t.isCrowded()) {
+                TABLE.setRelease(this, t = t.rebuilt());
+            }
+            
+            t.add(z);
+        }
+    }
+    
+    /**
+     * Replaces the deleted node {@code n} with a tombstone in the hash 
+     * side-index, if any. The caller must hold the lock.
+     */
+    private void removeFromTable(Node<K,V> n) {
+        NodeTable<K,V> t;
+        
+        if ((t = table) != null) {
+            t.remove(n);
+        }
+    }
+    
+    private Node<K,V> newNode(K key, V value, Node<K,V> next) {
+        KeyPrefix<? super K> kp = keyPrefix;
+        return (kp == null) ? new Node<>(key, value, next) 
+                            : new PrefixedNode<>(key, value, next, 
+                                                 kp.prefix(key));
+    }
+    
+    /**
+     * Returns the prefix of {@code key}, or zero if the keys are not 
+     * prefixed.
+     */
+    @SuppressWarnings("unchecked")
+    private long prefix(Object key) {
+        KeyPrefix<? super K> kp = keyPrefix;
+        return (kp == null) ? 0L : kp.prefix((K) key);
+    }
+    
+    /**
+     * Compares {@code key}, whose prefix is {@code kp}, with the key of the 
+     * node {@code n}, which must hold a mapping. The key of {@code n} is only
+     * loaded if the prefixes are equal.
+     */
+    private int cpr(Comparator<? super K> cmp, 
+                    Object key, 
+                    long kp, 
+                    Node<K,V> n) {
+        if (keyPrefix != null) {
+            int c = Long.compareUnsigned(kp, ((PrefixedNode<K,V>) n).prefix);
+            
+            if (c != 0) {
+                return c;
+            }
+        }
+        
+        return cpr(cmp, key, n.key);
+    }
+    
+    private Node<K,V> baseHead() {
+        Index<K,V> h;
+        VarHandle.acquireFence();
+        return ((h = head) == null) ? null : h.node;
+    }
+    
+    private V doGet(Object key) {
+        Index<K,V> q;
+        
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        if (COUNTERS) {
+            counters.gets.increment();
+        }
+        
+        NodeTable<K,V> t;
+        
+        if ((t = hashTable()) != null) {
+            return t.get(key);
+        }
+        
+        V result = null;
+        long kp = prefix(key);
+        VarHandle.acquireFence();
+        
+        if ((q = head) != null) {
+            outer: 
+            for (Index<K,V> r, d;;) {
+                while ((r = q.right) != null) {
+                    Node<K,V> p; 
+                    K k; 
+                    V v; 
+                    int c;
+                    
+                    if ((p = r.node) == null 
+                            || (k = p.key) == null 
+                            || (v = p.val) == null) {
+                        
+                        if (!unlinkIndex(q, r)) {
+                            break;
+                        }
+                    } else if ((c = cpr(comparator, key, kp, p)) > 0) {
+                        q = r;
+                    } else if (c == 0) {
+                        result = v;
+                        break outer;
+                    } else {
+                        break;
+                    }
+                }
+                
+                if ((d = q.down) != null) {
+                    q = d;
+                } else {
+                    Node<K,V> b, n;
+                    
+                    if ((b = q.node) != null) {
+                        while ((n = b.next) != null) {
+                            V v; 
+                            int c;
+                            K k = n.key;
+                            
+                            if ((v = n.val) == null 
+                                    || k == null 
+                                    || (c = cpr(comparator, key, kp, n)) > 0) {
+                                b = n;
+                            } else {
+                                if (c == 0) {
+                                    result = v;
+                                }
+                                    
+                                break;
+                            }
+                        }
+                    }
+                    
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+    
+    private Node<K,V> findPredecessor(Object key, Comparator<? super K> cmp) {
+        Index<K,V> q;
+        VarHandle.acquireFence();
+        
+        if ((q = head) == null || key == null) {
+            return null;
+        } else {
+            long kp = prefix(key);
+            
+            for (Index<K,V> r, d;;) {
+                while ((r = q.right) != null) {
+                    Node<K,V> p; 
+                    K k = null;
+                    
+                    if ((p = r.node) == null 
+                            || (k = p.key) == null 
+                            || p.val == null) {
+                        
+                        if (!unlinkIndex(q, r)) {
+                            break;
+                        }
+                    } else if (cpr(cmp, key, kp, p) > 0) {
+                        q = r;
+                    } else {
+                        break;
+                    }
+                }
+                
+                if ((d = q.down) != null) {
+                    q = d;
+                } else {
+                    return q.node;
+                }
+            }
+        }
+    }
+    
+    private Node<K,V> findNode(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        long kp = prefix(key);
+        Node<K,V> b;
+        
+        outer: 
+        while ((b = findPredecessor(key, cmp)) != null) {
+            for (;;) {
+                Node<K,V> n; 
+                K k; 
+                int c;
+                
+                if ((n = b.next) == null) {
+                    break outer;
+                } else if ((k = n.key) == null) {
+                    break;
+                } else if (n.val == null) {
+                    unlinkNode(b, n);
+                } else if ((c = cpr(cmp, key, kp, n)) > 0) {
+                    b = n;
+                } else if (c == 0) {
+                    return n;
+                } else {
+                    break outer;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    private Node<K,V> findNear(K key, int rel, Comparator<? super K> cmp) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        long kp = prefix(key);
+        Node<K,V> result;
+        
+        outer: 
+        for (Node<K,V> b;;) {
+            if ((b = findPredecessor(key, cmp)) == null) {
+                result = null;
+                break;
+            }
+            
+            for (;;) {
+                Node<K,V> n; 
+                K k; 
+                int c;
+                
+                if ((n = b.next) == null) {
+                    result = ((rel & LT) != 0 && b.key != null) ? b : null;
+                    break outer;
+                } else if ((k = n.key) == null) {
+                    break;
+                } else if (n.val == null) {
+                    unlinkNode(b, n);
+                } else if (((c = cpr(cmp, key, kp, n)) == 0 && (rel & EQ) != 0) 
+                        || (c < 0 && (rel & LT) == 0)) {
+                    result = n;
+                    break outer;
+                } else if (c <= 0 && (rel & LT) != 0) {
+                    result = (b.key != null) ? b : null;
+                    break outer;
+                } else {
+                    b = n;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private AbstractMap.SimpleImmutableEntry<K,V> 
+        findNearEntry(K key, int rel, Comparator<? super K> cmp) {
+        for (;;) {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = findNear(key, rel, cmp)) == null) {
+                return null;
+            }
+            
+            if ((v = n.val) != null) {
+                return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+            }
+        }
+    }
+    
+    private Node<K,V> findFirst() {
+        Node<K,V> b, n;
+        
+        if ((b = baseHead()) != null) {
+            while ((n = b.next) != null) {
+                if (n.val == null) {
+                    unlinkNode(b, n);
+                } else {
+                    return n;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    private AbstractMap.SimpleImmutableEntry<K,V> findFirstEntry() {
+        Node<K,V> b, n; 
+        V v;
+        
+        if ((b = baseHead()) != null) {
+            while ((n = b.next) != null) {
+                if ((v = n.val) == null) {
+                    unlinkNode(b, n);
+                } else {
+                    return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the last node, or {@code null} if the map is empty. The node 
+     * kept in {@link #last} is returned right away if it still holds a 
+     * mapping and has no successor; otherwise the last node is searched for
+     * from the head.
+     */
+    @SuppressWarnings("unchecked")
+    private Node<K,V> findLast() {
+        Node<K,V> l = (Node<K,V>) LAST.getAcquire(this);
+        
+        if (l != null && l.key != null && l.val != null && l.next == null) {
+            return l;
+        }
+        
+        outer: 
+        for (;;) {
+            Index<K,V> q; 
+            Node<K,V> b;
+            
+            if ((q = head) == null) {
+                break;
+            }
+            
+            for (Index<K,V> r, d;;) {
+                while ((r = q.right) != null) {
+                    Node<K,V> p;
+                    
+                    if ((p = r.node) == null || p.val == null) {
+                        if (!unlinkIndex(q, r)) {
+                            break;
+                        }
+                    } else {
+                        q = r;
+                    }
+                }
+                
+                if ((d = q.down) != null) {
+                    q = d;
+                } else {
+                    b = q.node;
+                    break;
+                }
+            }
+            
+            if (b != null) {
+                for (;;) {
+                    Node<K,V> n;
+                    
+                    if ((n = b.next) == null) {
+                        if (b.key == null) {
+                            break outer;
+                        } else {
+                            return b;
+                        }
+                    } else if (n.key == null) {
+                        break;
+                    } else if (n.val == null) {
+                        unlinkNode(b, n);
+                    } else {
+                        b = n;
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    private AbstractMap.SimpleImmutableEntry<K,V> findLastEntry() {
+        for (;;) {
+            Node<K,V> n; 
+            V v;
+            
+            if ((n = findLast()) == null) {
+                return null;
+            }
+            
+            if ((v = n.val) != null) {
+                return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+            }
+        }
+    }
+    
+    /**
+     * Deletes the first node, which follows the base header, and then 
+     * unlinks the indices of the deleted nodes from the heads of the levels.
+     * No keys are compared and no descent is needed.
+     */
+    private AbstractMap.SimpleImmutableEntry<K,V> doRemoveFirstEntry() {
+        Node<K,V> b, n; 
+        V v;
+        
+        if ((b = baseHead()) != null) {
+            while ((n = b.next) != null) {
+                if ((v = n.val) == null || VAL.compareAndSet(n, v, null)) {
+                    K k = n.key;
+                    unlinkNode(b, n);
+                    
+                    if (v != null) {
+                        account(k, v, null);
+                        sweepIndices(null, false, comparator);
+                        tryReduceLevel();
+                        adder.decrement();
+                        return new AbstractMap.SimpleImmutableEntry<>(k, v);
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * The indexed counterpart of {@link #doRemoveFirstEntry}. The 
+     * predecessors of the first node are the heads of the levels, so no keys
+     * are compared. The caller must hold the lock.
+     */
+    private AbstractMap.SimpleImmutableEntry<K,V> indexedRemoveFirstEntry() {
+        if (head == null) {
+            return null;
+        }
+        
+        Index<K,V>[] preds = newPredecessorArray();
+        findIndexedPredecessors(null, preds, new int[preds.length]);
+        Node<K,V> b = preds[0].node, n;
+        
+        if ((n = b.next) == null) {
+            return null;
+        }
+        
+        for (;;) {
+            V v = n.val;
+            
+            if (indexedUnlink(preds, b, n, v)) {
+                return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+            }
+        }
+    }
+    
+    /**
+     * Deletes the last node, found by {@link #findLast}, if it is still the
+     * last one, and unlinks it from the predecessor found by 
+     * {@link #predecessorOf}; both usually take constant time thanks to the
+     * back-links. The indices of the deleted node are left to the next 
+     * traversal reaching the end of their levels, as {@link #findLast} is.
+     */
+    private AbstractMap.SimpleImmutableEntry<K,V> doRemoveLastEntry() {
+        Comparator<? super K> cmp = comparator;
+        
+        for (;;) {
+            Node<K,V> n, b; 
+            V v;
+            
+            if ((n = findLast()) == null) {
+                return null;
+            }
+            
+            if ((v = n.val) != null 
+                    && n.next == null 
+                    && VAL.compareAndSet(n, v, null)) {
+                K k = n.key;
+                account(k, v, null);
+                
+                if ((b = predecessorOf(n, cmp)) == null) {
+                    b = baseHead();
+                }
+                
+                unlinkNode(b, n);
+                tryReduceLevel();
+                adder.decrement();
+                return new AbstractMap.SimpleImmutableEntry<>(k, v);
+            }
+        }
+    }
+    
+    /**
+     * The indexed counterpart of {@link #doRemoveLastEntry}. The last node 
+     * and its predecessor are found the same way; the predecessors of its 
+     * tower, needed for the spans, are the rightmost indices of the levels 
+     * short of the tower, so no keys are compared. The caller must hold the
+     * lock.
+     */
+    private AbstractMap.SimpleImmutableEntry<K,V> indexedRemoveLastEntry() {
+        Node<K,V> n, b;
+        
+        if ((n = findLast()) == null) {
+            return null;
+        }
+        
+        if ((b = predecessorOf(n, comparator)) == null) {
+            b = head.node;
+        }
+        
+        Index<K,V>[] preds = newPredecessorArray();
+        Index<K,V> q = head;
+        
+        for (int i = preds.length - 1;; --i) {
+            Index<K,V> r;
+            
+            while ((r = q.right) != null && r.node != n) {
+                q = r;
+            }
+            
+            preds[i] = q;
+            
+            if (i == 0) {
+                break;
+            }
+            
+            q = q.down;
+        }
+        
+        for (;;) {
+            V v = n.val;
+            
+            if (indexedUnlink(preds, b, n, v)) {
+                return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+            }
+        }
+    }
+    
+    private boolean addIndices(Index<K,V> q, int skips, Index<K,V> x,
+                                    Comparator<? super K> cmp) {
+        Node<K,V> z; 
+        K key;
+        
+        if (x != null
+                && (z = x.node) != null 
+                && (key = z.key) != null 
+                &&q != null) {                     
+            
+            boolean retrying = false;
+            
+            for (;;) {
+                Index<K,V> r, d; 
+                int c;
+                
+                if ((r = q.right) != null) {
+                    Node<K,V> p; 
+                    K k;
+                    
+                    if ((p = r.node) == null 
+                            || (k = p.key) == null 
+                            || p.val == null) {
+                        
+                        unlinkIndex(q, r);
+                        
+                        c = 0;
+                    } else if ((c = cpr(cmp, key, k)) > 0) {
+                        q = r;
+                    } else if (c == 0) {
+                        break;          
+                    }
+                } else {
+                    c = -1;
+                }
+
+                if (c < 0) {
+                    if ((d = q.down) != null && skips > 0) {
+                        --skips;
+                        q = d;
+                    } else if (d != null 
+                                && !retrying 
+                                && !addIndices(d, 0, x.down, cmp)) {
+                        break;
+                    } else {
+                        x.right = r;
+                        
+                        if (RIGHT.compareAndSet(q, r, x)) {
+                            return true;
+                        } else {
+                            retrying = true; // re-find splice point
+                        }
+                    }
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Unlinks the index {@code r} of a deleted node from its predecessor 
+     * {@code q} unless another thread has changed {@code q.right} already.
+     * In an indexed map only the writer that deleted the node unlinks its 
+     * index, since it has to move the span onto {@code q}; there this does
+     * nothing and returns {@code false}, and the caller descends from 
+     * {@code q} instead of moving right.
+     * 
+     * @return {@code true} if the caller may read {@code q.right} again.
+     */
+    private boolean unlinkIndex(Index<K,V> q, Index<K,V> r) {
+        if (indexed) {
+            return false;
+        }
+        
+        if (RIGHT.compareAndSet(q, r, r.right) && COUNTERS) {
+            counters.staleIndices.increment();
+        }
+        
+        return true;
+    }
+    
+    private void unlinkNode(Node<K,V> b, Node<K,V> n) {
+        if (b != null && n != null) {
+            Node<K,V> f, p;
+            
+            for (;;) {
+                if ((f = n.next) != null && f.key == null) {
+                    p = f.next;
+                    break;
+                } else if (NEXT.compareAndSet(n, f, 
+                                              new Node<>(null, null, f))) {
+                    p = f;           // add marker
+                    
+                    if (COUNTERS) {
+                        counters.markers.increment();
+                    }
+                    
+                    break;
+                }
+            }
+            
+            if (NEXT.compareAndSet(b, n, p)) {
+                linkBack(b, p);
+            }
+        }
+    }
+    
+    /**
+     * Deletes the node {@code n} of a map that is not indexed and unlinks it
+     * from {@code b}, a node that preceded it. Does nothing if {@code n} has
+     * been deleted already.
+     */
+    private void removeNode(Node<K,V> b, Node<K,V> n) {
+        V v;
+        
+        if (COUNTERS) {
+            counters.removes.increment();
+        }
+        
+        while ((v = n.val) != null) {
+            if (VAL.compareAndSet(n, v, null)) {
+                account(n.key, v, null);
+                unlinkNode(b, n);
+                tryReduceLevel();
+                adder.decrement();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Points the back-link of {@code n}, or the last node hint if {@code n} 
+     * is {@code null}, at {@code b}, which has just become its predecessor.
+     * The back-links and the hint are never relied upon: a racing update may
+     * leave them stale, in which case {@link #predecessorOf} and 
+     * {@link #findLast} search from the head instead.
+     */
+    private void linkBack(Node<K,V> b, Node<K,V> n) {
+        if (n != null) {
+            PREV.setRelease(n, b);
+        } else {
+            LAST.setRelease(this, b);
+        }
+    }
+    
+    /**
+     * Returns the node holding the greatest key less than the key of 
+     * {@code n}, or {@code null} if there is none, as 
+     * {@code findNear(n.key, LT, cmp)} does. If the back-link of {@code n} 
+     * points at a node that still holds a mapping with a lesser key, the 
+     * nodes linked after it since are passed by, which usually takes a step 
+     * or two; otherwise the node is searched for from the head.
+     */
+    @SuppressWarnings("unchecked")
+    private Node<K,V> predecessorOf(Node<K,V> n, Comparator<? super K> cmp) {
+        K k = n.key;
+        Node<K,V> p = (Node<K,V>) PREV.getAcquire(n);
+        
+        if (p != null 
+                && p.key != null 
+                && p.val != null 
+                && cpr(cmp, p.key, k) < 0) {
+            for (Node<K,V> f = p.next; f != null && f != n; f = f.next) {
+                K fk = f.key;
+                
+                if (fk == null) { // pass by markers
+                    continue;
+                }
+                
+                if (cpr(cmp, fk, k) >= 0) {
+                    break;
+                }
+                
+                if (f.val != null) {
+                    p = f;
+                }
+            }
+            
+            if (p.val != null) {
+                return p;
+            }
+        }
+        
+        return findNear(k, LT, cmp);
+    }
+    
+    private final V doRemove(Object key, Object value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        if (COUNTERS) {
+            counters.removes.increment();
+        }
+        
+        if (indexed) {
+            indexLock.lock();
+            
+            try {
+                return indexedRemove(key, value);
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        V result = null;
+        Node<K,V> b;
+        
+        outer: 
+        while ((b = findPredecessor(key, cmp)) != null && result == null) {
+            for (;;) {
+                Node<K,V> n; 
+                K k;
+                V v; 
+                int c;
+                
+                if ((n = b.next) == null) {
+                    break outer;
+                } else if ((k = n.key) == null) {
+                    break;
+                } else if ((v = n.val) == null) {
+                    unlinkNode(b, n);
+                } else if ((c = cpr(cmp, key, k)) > 0) {
+                    b = n;
+                } else if (c < 0) {
+                    break outer;
+                } else if (value != null && !value.equals(v)) {
+                    break outer;
+                } else if (VAL.compareAndSet(n, v, null)) {
+                    result = v;
+                    account(k, v, null);
+                    unlinkNode(b, n);
+                    break; // loop to clean up
+                }
+            }
+        }
+        
+        if (result != null) {
+            tryReduceLevel();
+            adder.decrement();
+        }
+        
+        return result;
+    }
+ 
+    private void tryReduceLevel() {
+        Index<K,V> h, d, e;
+        if ((h = head) != null && h.right == null &&
+            (d = h.down) != null && d.right == null &&
+            (e = d.down) != null && e.right == null &&
+            HEAD.compareAndSet(this, h, d)) {
+            
+            if (h.right != null) {               // recheck
+                HEAD.compareAndSet(this, d, h);  // try to back out
+            } else if (COUNTERS) {
+                counters.levelReductions.increment();
+            }
+        }
+    }
+ 
+    static final class KeySet<K,V> extends AbstractSet<K> 
+                                   implements NavigableSet<K> {
+        
+        final NavigableMap<K,V> m;
+        
+        KeySet(NavigableMap<K,V> map) {
+            m = map;
+        }
+        
+        @Override
+        public int size() {
+            return m.size();
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return m.isEmpty();
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            return m.containsKey(o);
+        }
+        
+        @Override
+        public boolean remove(Object o) {
+            return m.remove(o) != null;
+        }
+        
+        @Override
+        public void clear() {
+            m.clear();
+        }
+        
+        @Override
+        public K lower(K e) {
+            return m.lowerKey(e);
+        }
+        
+        @Override
+        public K floor(K e) {
+            return m.floorKey(e);
+        }
+        
+        @Override
+        public K ceiling(K e) {
+            return m.ceilingKey(e);
+        }
+        
+        @Override
+        public K higher(K e) {
+            return m.higherKey(e);
+        }
+        
+        @Override
+        public Comparator<? super K> comparator() {
+            return m.comparator();
+        }
+        
+        @Override
+        public K first() {
+            return m.firstKey();
+        }
+        
+        @Override
+        public K last() {
+            return m.lastKey();
+        }
+        
+        @Override
+        public K pollFirst() {
+            Map.Entry<K,V> e = m.pollFirstEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        
+        @Override
+        public K pollLast() {
+            Map.Entry<K,V> e = m.pollLastEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<K> iterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).new KeyIterator()
+                    : (m instanceof SubMap)
+                    ? ((SubMap<K,V>) m).new SubMapKeyIterator()
+                    : ((AbstractNavigableMap<K,V>) m).keyIterator();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Spliterator<K> spliterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).keySpliterator()
+                    : NavigableSet.super.spliterator();
+        }
+        
+        @Override
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+        
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return new KeySet<>(m.descendingMap());
+        }
+        
+        @Override
+        public NavigableSet<K> subSet(K fromElement,
+                                      boolean fromInclusive,
+                                      K toElement,
+                                      boolean toInclusive) {
+            return new KeySet<>(m.subMap(fromElement, 
+                                         fromInclusive,
+                                         toElement,
+                                         toInclusive));
+        }
+        
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet<>(m.headMap(toElement, inclusive));
+        }
+        
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet<>(m.tailMap(fromElement, inclusive));
+        }
+        
+        @Override
+        public NavigableSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+        
+        @Override
+        public NavigableSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+        
+        @Override
+        public NavigableSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+    
+    static final class Values<K,V> extends AbstractCollection<V> {
+        
+        final NavigableMap<K,V> m;
+        
+        Values(NavigableMap<K,V> map) {
+            m = map;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<V> iterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).new ValueIterator()
+                    : (m instanceof SubMap)
+                    ? ((SubMap<K,V>) m).new SubMapValueIterator()
+                    : ((AbstractNavigableMap<K,V>) m).valueIterator();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Spliterator<V> spliterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).valueSpliterator()
+                    : super.spliterator();
+        }
+        
+        @Override
+        public int size() {
+            return m.size();
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return m.isEmpty();
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            return m.containsValue(o);
+        }
+        
+        @Override
+        public void clear() {
+            m.clear();
+        }
+    }
+    
+    static final class EntrySet<K,V> extends AbstractSet<Map.Entry<K,V>> {
+        
+        final NavigableMap<K,V> m;
+        
+        EntrySet(NavigableMap<K,V> map) {
+            m = map;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).new EntryIterator()
+                    : (m instanceof SubMap)
+                    ? ((SubMap<K,V>) m).new SubMapEntryIterator()
+                    : ((AbstractNavigableMap<K,V>) m).entryIterator();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Spliterator<Map.Entry<K,V>> spliterator() {
+            return (m instanceof SkipListMap)
+                    ? ((SkipListMap<K,V>) m).entrySpliterator()
+                    : super.spliterator();
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            Object k = e.getKey();
+            
+            if (k == null) {
+                return false;
+            }
+            
+            V v = m.get(k);
+            return v != null && v.equals(e.getValue());
+        }
+        
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            Object k = e.getKey();
+            Object v = e.getValue();
+            return k != null && v != null && m.remove(k, v);
+        }
+        
+        @Override
+        public int size() {
+            return m.size();
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return m.isEmpty();
+        }
+        
+        @Override
+        public void clear() {
+            m.clear();
+        }
+    }
+    
+    /**
+     * A live view of a key range of a {@link SkipListMap}. The view holds no
+     * nodes of its own: every operation seeks the range bounds in the backing
+     * map via {@code findNear} and then walks the base list.
+     */
+    static final class SubMap<K,V> extends AbstractMap<K,V> 
+                                   implements NavigableMap<K,V> {
+        
+        final SkipListMap<K,V> m;
+        private final K lo;
+        private final K hi;
+        private final boolean loInclusive;
+        private final boolean hiInclusive;
+        final boolean isDescending;
+        private KeySet<K,V> keySetView;
+        private Values<K,V> valuesView;
+        private EntrySet<K,V> entrySetView;
+        
+        SubMap(SkipListMap<K,V> map,
+               K fromKey, 
+               boolean fromInclusive,
+               K toKey, 
+               boolean toInclusive,
+               boolean isDescending) {
+            Comparator<? super K> cmp = map.comparator;
+            
+            if (fromKey != null 
+                    && toKey != null 
+                    && cpr(cmp, fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("inconsistent range");
+            }
+            
+            this.m = map;
+            this.lo = fromKey;
+            this.hi = toKey;
+            this.loInclusive = fromInclusive;
+            this.hiInclusive = toInclusive;
+            this.isDescending = isDescending;
+        }
+        
+        boolean tooLow(Object key, Comparator<? super K> cmp) {
+            int c;
+            return lo != null && ((c = cpr(cmp, key, lo)) < 0 
+                                  || (c == 0 && !loInclusive));
+        }
+        
+        boolean tooHigh(Object key, Comparator<? super K> cmp) {
+            int c;
+            return hi != null && ((c = cpr(cmp, key, hi)) > 0 
+                                  || (c == 0 && !hiInclusive));
+        }
+        
+        boolean inBounds(Object key, Comparator<? super K> cmp) {
+            return !tooLow(key, cmp) && !tooHigh(key, cmp);
+        }
+        
+        void checkKeyBounds(K key, Comparator<? super K> cmp) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            if (!inBounds(key, cmp)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+        }
+        
+        boolean isBeforeEnd(Node<K,V> n, Comparator<? super K> cmp) {
+            if (n == null) {
+                return false;
+            }
+            
+            if (hi == null) {
+                return true;
+            }
+            
+            K k = n.key;
+            
+            if (k == null) { // pass by markers and headers
+                return true;
+            }
+            
+            int c = cpr(cmp, k, hi);
+            return c < 0 || (c == 0 && hiInclusive);
+        }
+        
+        Node<K,V> loNode(Comparator<? super K> cmp) {
+            if (lo == null) {
+                return m.findFirst();
+            } else if (loInclusive) {
+                return m.findNear(lo, GT | EQ, cmp);
+            } else {
+                return m.findNear(lo, GT, cmp);
+            }
+        }
+        
+        Node<K,V> hiNode(Comparator<? super K> cmp) {
+            if (hi == null) {
+                return m.findLast();
+            } else if (hiInclusive) {
+                return m.findNear(hi, LT | EQ, cmp);
+            } else {
+                return m.findNear(hi, LT, cmp);
+            }
+        }
+        
+        K lowestKey() {
+            Comparator<? super K> cmp = m.comparator;
+            Node<K,V> n = loNode(cmp);
+            
+            if (isBeforeEnd(n, cmp)) {
+                return n.key;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+        
+        K highestKey() {
+            Comparator<? super K> cmp = m.comparator;
+            Node<K,V> n = hiNode(cmp);
+            
+            if (n != null) {
+                K last = n.key;
+                
+                if (inBounds(last, cmp)) {
+                    return last;
+                }
+            }
+            
+            throw new NoSuchElementException();
+        }
+        
+        Map.Entry<K,V> lowestEntry() {
+            Comparator<? super K> cmp = m.comparator;
+            
+            for (;;) {
+                Node<K,V> n; 
+                V v;
+                
+                if ((n = loNode(cmp)) == null || !isBeforeEnd(n, cmp)) {
+                    return null;
+                } else if ((v = n.val) != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+                }
+            }
+        }
+        
+        Map.Entry<K,V> highestEntry() {
+            Comparator<? super K> cmp = m.comparator;
+            
+            for (;;) {
+                Node<K,V> n; 
+                V v;
+                
+                if ((n = hiNode(cmp)) == null || !inBounds(n.key, cmp)) {
+                    return null;
+                } else if ((v = n.val) != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+                }
+            }
+        }
+        
+        Map.Entry<K,V> removeLowest() {
+            Comparator<? super K> cmp = m.comparator;
+            
+            for (;;) {
+                Node<K,V> n; 
+                K k; 
+                V v;
+                
+                if ((n = loNode(cmp)) == null) {
+                    return null;
+                } else if (!inBounds((k = n.key), cmp)) {
+                    return null;
+                } else if ((v = m.doRemove(k, null)) != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(k, v);
+                }
+            }
+        }
+        
+        Map.Entry<K,V> removeHighest() {
+            Comparator<? super K> cmp = m.comparator;
+            
+            for (;;) {
+                Node<K,V> n; 
+                K k; 
+                V v;
+                
+                if ((n = hiNode(cmp)) == null) {
+                    return null;
+                } else if (!inBounds((k = n.key), cmp)) {
+                    return null;
+                } else if ((v = m.doRemove(k, null)) != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(k, v);
+                }
+            }
+        }
+        
+        Map.Entry<K,V> getNearEntry(K key, int rel) {
+            Comparator<? super K> cmp = m.comparator;
+            
+            if (isDescending) { // adjust relation for direction
+                if ((rel & LT) == 0) {
+                    rel |= LT;
+                } else {
+                    rel &= ~LT;
+                }
+            }
+            
+            if (tooLow(key, cmp)) {
+                return ((rel & LT) != 0) ? null : lowestEntry();
+            }
+            
+            if (tooHigh(key, cmp)) {
+                return ((rel & LT) != 0) ? highestEntry() : null;
+            }
+            
+            AbstractMap.SimpleImmutableEntry<K,V> e = 
+                    m.findNearEntry(key, rel, cmp);
+            
+            if (e == null || !inBounds(e.getKey(), cmp)) {
+                return null;
+            } else {
+                return e;
+            }
+        }
+        
+        K getNearKey(K key, int rel) {
+            Comparator<? super K> cmp = m.comparator;
+            
+            if (isDescending) { // adjust relation for direction
+                if ((rel & LT) == 0) {
+                    rel |= LT;
+                } else {
+                    rel &= ~LT;
+                }
+            }
+            
+            if (tooLow(key, cmp)) {
+                if ((rel & LT) == 0) {
+                    Node<K,V> n = loNode(cmp);
+                    
+                    if (isBeforeEnd(n, cmp)) {
+                        return n.key;
+                    }
+                }
+                
+                return null;
+            }
+            
+            if (tooHigh(key, cmp)) {
+                if ((rel & LT) != 0) {
+                    Node<K,V> n = hiNode(cmp);
+                    
+                    if (n != null) {
+                        K last = n.key;
+                        
+                        if (inBounds(last, cmp)) {
+                            return last;
+                        }
+                    }
+                }
+                
+                return null;
+            }
+            
+            for (;;) {
+                Node<K,V> n = m.findNear(key, rel, cmp);
+                
+                if (n == null || !inBounds(n.key, cmp)) {
+                    return null;
+                }
+                
+                if (n.val != null) {
+                    return n.key;
+                }
+            }
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            return inBounds(key, m.comparator) && m.containsKey(key);
+        }
+        
+        @Override
+        public V get(Object key) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            
+            return !inBounds(key, m.comparator) ? null : m.get(key);
+        }
+        
+        @Override
+        public V put(K key, V value) {
+            checkKeyBounds(key, m.comparator);
+            return m.put(key, value);
+        }
+        
+        @Override
+        public V remove(Object key) {
+            return !inBounds(key, m.comparator) ? null : m.remove(key);
+        }
+        
+        @Override
+        public int size() {
+            if (m.indexed) {
+                m.indexLock.lock();
+                
+                try {
+                    int lower = (lo == null) ? 0 
+                                             : m.countLess(lo, !loInclusive);
+                    int upper = (hi == null) ? m.size() 
+                                         : m.countLess(hi, hiInclusive);
+                    return Math.max(0, upper - lower);
+                } finally {
+                    m.indexLock.unlock();
+                }
+            }
+            
+            Comparator<? super K> cmp = m.comparator;
+            long count = 0;
+            
+            for (Node<K,V> n = loNode(cmp); isBeforeEnd(n, cmp); n = n.next) {
+                if (n.val != null) {
+                    ++count;
+                }
+            }
+            
+            return count >= Integer.MAX_VALUE ? Integer.MAX_VALUE 
+                                              : (int) count;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            Comparator<? super K> cmp = m.comparator;
+            return !isBeforeEnd(loNode(cmp), cmp);
+        }
+        
+        @Override
+        public boolean containsValue(Object value) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            
+            Comparator<? super K> cmp = m.comparator;
+            
+            for (Node<K,V> n = loNode(cmp); isBeforeEnd(n, cmp); n = n.next) {
+                V v = n.val;
+                
+                if (v != null && value.equals(v)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        @Override
+        public void clear() {
+            m.doRemoveRange(lo, loInclusive, hi, hiInclusive, null);
+        }
+        
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            
+            if (isDescending) {
+                super.forEach(action);
+            } else {
+                m.forEachIn(lo, loInclusive, hi, hiInclusive, action);
+            }
+        }
+        
+        @Override
+        public Comparator<? super K> comparator() {
+            Comparator<? super K> cmp = m.comparator();
+            
+            if (isDescending) {
+                return Collections.reverseOrder(cmp);
+            } else {
+                return cmp;
+            }
+        }
+        
+        SubMap<K,V> newSubMap(K fromKey, 
+                              boolean fromInclusive,
+                              K toKey, 
+                              boolean toInclusive) {
+            Comparator<? super K> cmp = m.comparator;
+            
+            if (isDescending) { // flip senses
+                K tk = fromKey;
+                fromKey = toKey;
+                toKey = tk;
+                boolean ti = fromInclusive;
+                fromInclusive = toInclusive;
+                toInclusive = ti;
+            }
+            
+            if (lo != null) {
+                if (fromKey == null) {
+                    fromKey = lo;
+                    fromInclusive = loInclusive;
+                } else {
+                    int c = cpr(cmp, fromKey, lo);
+                    
+                    if (c < 0 || (c == 0 && !loInclusive && fromInclusive)) {
+                        throw new IllegalArgumentException("key out of range");
+                    }
+                }
+            }
+            
+            if (hi != null) {
+                if (toKey == null) {
+                    toKey = hi;
+                    toInclusive = hiInclusive;
+                } else {
+                    int c = cpr(cmp, toKey, hi);
+                    
+                    if (c > 0 || (c == 0 && !hiInclusive && toInclusive)) {
+                        throw new IllegalArgumentException("key out of range");
+                    }
+                }
+            }
+            
+            return new SubMap<>(m, 
+                                fromKey, 
+                                fromInclusive, 
+                                toKey, 
+                                toInclusive, 
+                                isDescending);
+        }
+        
+        @Override
+        public SubMap<K,V> subMap(K fromKey, 
+                                  boolean fromInclusive,
+                                  K toKey, 
+                                  boolean toInclusive) {
+            if (fromKey == null || toKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(fromKey, fromInclusive, toKey, toInclusive);
+        }
+        
+        @Override
+        public SubMap<K,V> headMap(K toKey, boolean inclusive) {
+            if (toKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(null, false, toKey, inclusive);
+        }
+        
+        @Override
+        public SubMap<K,V> tailMap(K fromKey, boolean inclusive) {
+            if (fromKey == null) {
+                throw new NullPointerException();
+            }
+            
+            return newSubMap(fromKey, inclusive, null, false);
+        }
+        
+        @Override
+        public SubMap<K,V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+        
+        @Override
+        public SubMap<K,V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+        
+        @Override
+        public SubMap<K,V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+        
+        @Override
+        public SubMap<K,V> descendingMap() {
+            return new SubMap<>(m, 
+                                lo, 
+                                loInclusive, 
+                                hi, 
+                                hiInclusive, 
+                                !isDescending);
+        }
+        
+        @Override
+        public Map.Entry<K,V> ceilingEntry(K key) {
+            return getNearEntry(key, GT | EQ);
+        }
+        
+        @Override
+        public K ceilingKey(K key) {
+            return getNearKey(key, GT | EQ);
+        }
+        
+        @Override
+        public Map.Entry<K,V> lowerEntry(K key) {
+            return getNearEntry(key, LT);
+        }
+        
+        @Override
+        public K lowerKey(K key) {
+            return getNearKey(key, LT);
+        }
+        
+        @Override
+        public Map.Entry<K,V> floorEntry(K key) {
+            return getNearEntry(key, LT | EQ);
+        }
+        
+        @Override
+        public K floorKey(K key) {
+            return getNearKey(key, LT | EQ);
+        }
+        
+        @Override
+        public Map.Entry<K,V> higherEntry(K key) {
+            return getNearEntry(key, GT);
+        }
+        
+        @Override
+        public K higherKey(K key) {
+            return getNearKey(key, GT);
+        }
+        
+        @Override
+        public K firstKey() {
+            return isDescending ? highestKey() : lowestKey();
+        }
+        
+        @Override
+        public K lastKey() {
+            return isDescending ? lowestKey() : highestKey();
+        }
+        
+        @Override
+        public Map.Entry<K,V> firstEntry() {
+            return isDescending ? highestEntry() : lowestEntry();
+        }
+        
+        @Override
+        public Map.Entry<K,V> lastEntry() {
+            return isDescending ? lowestEntry() : highestEntry();
+        }
+        
+        @Override
+        public Map.Entry<K,V> pollFirstEntry() {
+            return isDescending ? removeHighest() : removeLowest();
+        }
+        
+        @Override
+        public Map.Entry<K,V> pollLastEntry() {
+            return isDescending ? removeLowest() : removeHighest();
+        }
+        
+        @Override
+        public NavigableSet<K> keySet() {
+            KeySet<K,V> ks;
+            
+            if ((ks = keySetView) != null) {
+                return ks;
+            }
+            
+            return keySetView = new KeySet<>(this);
+        }
+        
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return keySet();
+        }
+        
+        @Override
+        public Collection<V> values() {
+            Values<K,V> vs;
+            
+            if ((vs = valuesView) != null) {
+                return vs;
+            }
+            
+            return valuesView = new Values<>(this);
+        }
+        
+        @Override
+        public Set<Map.Entry<K,V>> entrySet() {
+            EntrySet<K,V> es;
+            
+            if ((es = entrySetView) != null) {
+                return es;
+            }
+            
+            return entrySetView = new EntrySet<>(this);
+        }
+        
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+        
+        abstract class SubMapIter<T> implements Iterator<T> {
+            
+            Node<K,V> lastReturned;
+            Node<K,V> next;
+            V nextValue;
+            
+            SubMapIter() {
+                Comparator<? super K> cmp = m.comparator;
+                
+                for (;;) {
+                    next = isDescending ? hiNode(cmp) : loNode(cmp);
+                    
+                    if (next == null) {
+                        break;
+                    }
+                    
+                    V x = next.val;
+                    
+                    if (x != null) {
+                        if (!inBounds(next.key, cmp)) {
+                            next = null;
+                        } else {
+                            nextValue = x;
+                        }
+                        
+                        break;
+                    }
+                }
+            }
+            
+            @Override
+            public final boolean hasNext() {
+                return next != null;
+            }
+            
+            final void advance() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                
+                lastReturned = next;
+                
+                if (isDescending) {
+                    descend();
+                } else {
+                    ascend();
+                }
+            }
+            
+            private void ascend() {
+                Comparator<? super K> cmp = m.comparator;
+                
+                for (;;) {
+                    next = next.next;
+                    
+                    if (next == null) {
+                        break;
+                    }
+                    
+                    V x = next.val;
+                    
+                    if (x != null) {
+                        if (tooHigh(next.key, cmp)) {
+                            next = null;
+                        } else {
+                            nextValue = x;
+                        }
+                        
+                        break;
+                    }
+                }
+            }
+            
+            private void descend() {
+                Comparator<? super K> cmp = m.comparator;
+                
+                for (;;) {
+                    next = m.predecessorOf(lastReturned, cmp);
+                    
+                    if (next == null) {
+                        break;
+                    }
+                    
+                    V x = next.val;
+                    
+                    if (x != null) {
+                        if (tooLow(next.key, cmp)) {
+                            next = null;
+                        } else {
+                            nextValue = x;
+                        }
+                        
+                        break;
+                    }
+                }
+            }
+            
+            @Override
+            public void remove() {
+                Node<K,V> l = lastReturned;
+                
+                if (l == null) {
+                    throw new IllegalStateException();
+                }
+                
+                m.remove(l.key);
+                lastReturned = null;
+            }
+        }
+        
+        final class SubMapValueIterator extends SubMapIter<V> {
+            
+            @Override
+            public V next() {
+                V v = nextValue;
+                advance();
+                return v;
+            }
+        }
+        
+        final class SubMapKeyIterator extends SubMapIter<K> {
+            
+            @Override
+            public K next() {
+                Node<K,V> n = next;
+                advance();
+                return n.key;
+            }
+        }
+        
+        final class SubMapEntryIterator extends SubMapIter<Map.Entry<K,V>> {
+            
+            @Override
+            public Map.Entry<K,V> next() {
+                Node<K,V> n = next;
+                V v = nextValue;
+                advance();
+                return new AbstractMap.SimpleImmutableEntry<>(n.key, v);
+            }
+        }
+    }
+    
+    // VarHandle mechanics
+    private static final VarHandle HEAD;
+    private static final VarHandle NEXT;
+    private static final VarHandle PREV;
+    private static final VarHandle LAST;
+    private static final VarHandle VAL;
+    private static final VarHandle RIGHT;
+    private static final VarHandle TABLE;
+    private static final VarHandle SLOT;
+    
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            HEAD = l.findVarHandle(SkipListMap.class, "head", Index.class);
+            NEXT = l.findVarHandle(Node.class, "next", Node.class);
+            PREV = l.findVarHandle(Node.class, "prev", Node.class);
+            LAST = l.findVarHandle(SkipListMap.class, "last", Node.class);
+            VAL = l.findVarHandle(Node.class, "val", Object.class);
+            RIGHT = l.findVarHandle(Index.class, "right", Index.class);
+            TABLE = l.findVarHandle(SkipListMap.class, 
+                                    "table", 
+                                    NodeTable.class);
+            SLOT = MethodHandles.arrayElementVarHandle(Node[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int cpr(Comparator c, Object x, Object y) {
+        return (c != null) ? c.compare(x, y) : ((Comparable)x).compareTo(y);
     }
 }
\ No newline at end of file
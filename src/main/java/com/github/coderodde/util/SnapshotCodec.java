@@ -0,0 +1,87 @@
+package com.github.coderodde.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the keys or the values of a map to and from bytes for
+ * {@link SkipListMap#writeSnapshot} and {@link SkipListMap#readSnapshot}.
+ * The snapshot stores the length of each encoded object, so a codec needs no
+ * framing of its own.
+ *
+ * @param <T> the type of the encoded objects.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public interface SnapshotCodec<T> {
+    
+    /**
+     * Writes {@code value} at the position of {@code out}. If {@code out}
+     * runs out of space, the codec may simply let the
+     * {@link java.nio.BufferOverflowException} propagate: the snapshot writer
+     * then retries with a larger buffer.
+     *
+     * @param value the object to encode.
+     * @param out   the target buffer.
+     */
+    void encode(T value, ByteBuffer out);
+    
+    /**
+     * Reads an object from {@code in}, whose remaining bytes are exactly the
+     * ones written by {@link #encode}.
+     *
+     * @param in the encoded bytes.
+     * @return the decoded object.
+     */
+    T decode(ByteBuffer in);
+    
+    static SnapshotCodec<Integer> integers() {
+        return new SnapshotCodec<>() {
+            
+            @Override
+            public void encode(Integer value, ByteBuffer out) {
+                out.putInt(value);
+            }
+            
+            @Override
+            public Integer decode(ByteBuffer in) {
+                return in.getInt();
+            }
+        };
+    }
+    
+    static SnapshotCodec<Long> longs() {
+        return new SnapshotCodec<>() {
+            
+            @Override
+            public void encode(Long value, ByteBuffer out) {
+                out.putLong(value);
+            }
+            
+            @Override
+            public Long decode(ByteBuffer in) {
+                return in.getLong();
+            }
+        };
+    }
+    
+    /**
+     * Returns a codec storing strings in UTF-8.
+     *
+     * @return the string codec.
+     */
+    static SnapshotCodec<String> strings() {
+        return new SnapshotCodec<>() {
+            
+            @Override
+            public void encode(String value, ByteBuffer out) {
+                out.put(value.getBytes(StandardCharsets.UTF_8));
+            }
+            
+            @Override
+            public String decode(ByteBuffer in) {
+                return StandardCharsets.UTF_8.decode(in).toString();
+            }
+        };
+    }
+}
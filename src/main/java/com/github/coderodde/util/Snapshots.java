@@ -0,0 +1,322 @@
+package com.github.coderodde.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * The binary snapshot format of {@link SkipListMap}. A snapshot consists of
+ * <ul>
+ *   <li>a header: the magic number {@code "SLMS"}, the format version and
+ *       the number of mappings, as two {@code int}s and a {@code long};</li>
+ *   <li>the mappings in ascending key order, each as the length of the
+ *       encoded key, the key, the length of the encoded value and the
+ *       value;</li>
+ *   <li>a trailer: the CRC-32C of all the bytes of the mappings as a
+ *       {@code long}.</li>
+ * </ul>
+ * All the numbers are big-endian.
+ *
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+final class Snapshots {
+    
+    static final int MAGIC = 0x534C4D53; // "SLMS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int TRAILER_BYTES = 8;
+    private static final int COUNT_OFFSET = 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final long WINDOW_BYTES = 1L << 30;
+    
+    private Snapshots() {
+    }
+    
+    /**
+     * Streams the mappings into a file through a direct buffer.
+     */
+    static final class Writer<K,V> implements AutoCloseable {
+        
+        private final FileChannel channel;
+        private final SnapshotCodec<? super K> keyCodec;
+        private final SnapshotCodec<? super V> valueCodec;
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private int checksumFrom = HEADER_BYTES; // the header is not summed
+        private long count;
+        
+        Writer(Path path,
+               SnapshotCodec<? super K> keyCodec,
+               SnapshotCodec<? super V> valueCodec) throws IOException {
+            if (keyCodec == null || valueCodec == null) {
+                throw new NullPointerException();
+            }
+            
+            this.channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0L);
+        }
+        
+        void write(K key, V value) throws IOException {
+            for (;;) {
+                int start = buffer.position();
+                
+                try {
+                    putField(keyCodec, key);
+                    putField(valueCodec, value);
+                    ++count;
+                    return;
+                } catch (BufferOverflowException e) {
+                    buffer.position(start);
+                    
+                    if (start > 0) {
+                        flush();
+                    } else { // a single mapping does not fit
+                        buffer = ByteBuffer.allocateDirect(
+                                Math.multiplyExact(buffer.capacity(), 2));
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Writes the trailer, fills in the number of mappings and forces the
+         * file to the storage device.
+         *
+         * @return the number of mappings written.
+         */
+        long finish() throws IOException {
+            flush();
+            buffer.putLong(crc.getValue());
+            flush();
+            ByteBuffer c = ByteBuffer.allocate(Long.BYTES).putLong(count);
+            c.flip();
+            
+            while (c.hasRemaining()) {
+                channel.write(c, COUNT_OFFSET + c.position());
+            }
+            
+            channel.force(true);
+            return count;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+        
+        private <T> void putField(SnapshotCodec<? super T> codec, T value) {
+            int at = buffer.position();
+            
+            if (buffer.remaining() < Integer.BYTES) {
+                throw new BufferOverflowException();
+            }
+            
+            buffer.position(at + Integer.BYTES);
+            codec.encode(value, buffer);
+            buffer.putInt(at, buffer.position() - at - Integer.BYTES);
+        }
+        
+        private void flush() throws IOException {
+            buffer.flip();
+            ByteBuffer summed = buffer.duplicate();
+            summed.position(Math.min(checksumFrom, summed.limit()));
+            crc.update(summed);
+            checksumFrom = 0;
+            
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            
+            buffer.clear();
+        }
+    }
+    
+    /**
+     * Decodes the mappings of a memory-mapped snapshot file, verifying the
+     * checksum once the last mapping is read. The file is mapped in windows
+     * of at most a gigabyte, each starting at a mapping boundary.
+     */
+    static final class Reader<K,V>
+            implements Iterator<Map.Entry<K,V>>, AutoCloseable {
+        
+        private final FileChannel channel;
+        private final SnapshotCodec<? extends K> keyCodec;
+        private final SnapshotCodec<? extends V> valueCodec;
+        private final CRC32C crc = new CRC32C();
+        private final long end; // the offset of the trailer
+        private MappedByteBuffer window;
+        private ByteBuffer view; // bounds the field passed to a codec
+        private int summedTo;    // the end of the summed part of the window
+        private long windowStart;
+        private long remaining;
+        
+        Reader(Path path,
+               SnapshotCodec<? extends K> keyCodec,
+               SnapshotCodec<? extends V> valueCodec) throws IOException {
+            if (keyCodec == null || valueCodec == null) {
+                throw new NullPointerException();
+            }
+            
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            
+            try {
+                long size = channel.size();
+                
+                if (size < HEADER_BYTES + TRAILER_BYTES) {
+                    throw new IOException("Truncated snapshot: " + path);
+                }
+                
+                end = size - TRAILER_BYTES;
+                map(0L);
+                
+                if (window.getInt() != MAGIC) {
+                    throw new IOException("Not a snapshot: " + path);
+                }
+                
+                int version = window.getInt();
+                
+                if (version != VERSION) {
+                    throw new IOException(
+                            "Unsupported snapshot version: " + version);
+                }
+                
+                if ((remaining = window.getLong()) < 0L) {
+                    throw new IOException("Corrupt snapshot: " + path);
+                }
+                
+                summedTo = window.position();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return remaining > 0L;
+        }
+        
+        @Override
+        public Map.Entry<K,V> next() {
+            if (remaining == 0L) {
+                throw new NoSuchElementException();
+            }
+            
+            try {
+                int keyLength = fieldLength(0);
+                int valueLength = fieldLength(Integer.BYTES + keyLength);
+                int keyAt = window.position() + Integer.BYTES;
+                int valueAt = keyAt + keyLength + Integer.BYTES;
+                K key = keyCodec.decode(field(keyAt, keyLength));
+                V value = valueCodec.decode(field(valueAt, valueLength));
+                window.position(valueAt + valueLength);
+                --remaining;
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        /**
+         * Verifies that all the mappings have been read and the checksum
+         * matches.
+         */
+        void verify() throws IOException {
+            sum();
+            
+            if (windowStart + window.position() != end
+                    || window.getLong(window.position()) != crc.getValue()) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+        
+        /**
+         * Reads the length of the field {@code offset} bytes past the current
+         * mapping, first moving the window if the field or the trailer that
+         * follows it would not lie entirely within it.
+         */
+        private int fieldLength(int offset) throws IOException {
+            long at = windowStart + window.position() + offset;
+            
+            if (at + Integer.BYTES > end) {
+                throw new IOException("Corrupt snapshot");
+            }
+            
+            if (at + Integer.BYTES + TRAILER_BYTES
+                    > windowStart + window.limit()) {
+                map(windowStart + window.position());
+                at = windowStart + window.position() + offset;
+            }
+            
+            int length = window.getInt((int) (at - windowStart));
+            long fieldEnd = at + Integer.BYTES + length;
+            
+            if (length < 0 || fieldEnd > end) {
+                throw new IOException("Corrupt snapshot");
+            }
+            
+            if (fieldEnd + TRAILER_BYTES > windowStart + window.limit()) {
+                if (window.position() == 0
+                        && window.limit() == WINDOW_BYTES) {
+                    throw new IOException("Mapping too large to read");
+                }
+                
+                map(windowStart + window.position());
+            }
+            
+            return length;
+        }
+        
+        private ByteBuffer field(int at, int length) {
+            return view.clear().position(at).limit(at + length);
+        }
+        
+        /**
+         * Adds the mappings read from the current window since the last call
+         * to the checksum.
+         */
+        private void sum() {
+            int to = window.position();
+            crc.update(field(summedTo, to - summedTo));
+            summedTo = to;
+        }
+        
+        private void map(long position) throws IOException {
+            if (window != null) {
+                sum();
+            }
+            
+            long length = Math.min(channel.size() - position, WINDOW_BYTES);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 position,
+                                 length);
+            view = window.duplicate();
+            summedTo = 0;
+            windowStart = position;
+        }
+    }
+}
@@ -0,0 +1,705 @@
+package com.github.coderodde.util;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+
+/**
+ * This class implements a map sorted by keys using an <em>unrolled</em> skip
+ * list: the base list consists of blocks each holding up to
+ * {@code blockCapacity} mappings in two sorted arrays, and the index towers
+ * point to blocks rather than to single mappings. A full block is split in two
+ * and a block falling under a quarter of its capacity is merged with a
+ * neighbour, so that a map costs about two array slots per mapping plus one
+ * small object per block instead of a node per mapping, and a scan reads
+ * consecutive array slots instead of chasing a pointer per mapping.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @version 1.0.0 (May 27, 2024)
+ * @since 1.0.0 (May 27, 2024)
+ */
+public final class UnrolledSkipListMap<K, V>
+        extends AbstractNavigableMap<K, V> {
+    
+    public static final int DEFAULT_BLOCK_CAPACITY = 32;
+    public static final int MIN_BLOCK_CAPACITY = 4;
+    
+    private static final class Block {
+        final Object[] keys;
+        final Object[] vals;
+        int size;
+        Block prev;
+        Block next;
+        Block(int capacity) {
+            this.keys = new Object[capacity];
+            this.vals = new Object[capacity];
+        }
+    }
+    
+    private static final class Index {
+        final Block block;
+        final Index down;
+        Index right;
+        Index(Block block, Index down, Index right) {
+            this.block = block;
+            this.down = down;
+            this.right = right;
+        }
+    }
+    
+    private final Comparator<? super K> comparator;
+    private final LevelPolicy levelPolicy;
+    private final int blockCapacity;
+    
+    /**
+     * The sentinel of the circular list of blocks: {@code header.next} is the
+     * first block and {@code header.prev} the last one. It never holds any
+     * mapping.
+     */
+    private final Block header = new Block(0);
+    private Index head;
+    private int levels;
+    private int size;
+    private int modCount;
+    
+    public UnrolledSkipListMap() {
+        this((Comparator<? super K>) null);
+    }
+    
+    public UnrolledSkipListMap(Comparator<? super K> comparator) {
+        this(comparator, DEFAULT_BLOCK_CAPACITY);
+    }
+    
+    public UnrolledSkipListMap(Comparator<? super K> comparator,
+                               int blockCapacity) {
+        this(comparator, blockCapacity, LevelPolicy.defaultPolicy());
+    }
+    
+    /**
+     * Constructs an empty map.
+     *
+     * @param comparator    the key comparator, or {@code null} for natural
+     *                      ordering.
+     * @param blockCapacity the maximum number of mappings in a block.
+     * @param levelPolicy   the policy choosing the tower heights of the
+     *                      blocks.
+     * @throws IllegalArgumentException if {@code blockCapacity} is less than
+     *                                  {@link #MIN_BLOCK_CAPACITY} or 
+     *                                  {@code levelPolicy} is out of range.
+     */
+    public UnrolledSkipListMap(Comparator<? super K> comparator,
+                               int blockCapacity,
+                               LevelPolicy levelPolicy) {
+        AbstractLevelPolicy.check(levelPolicy);
+        
+        if (blockCapacity < MIN_BLOCK_CAPACITY) {
+            throw new IllegalArgumentException(
+                    "blockCapacity(" + blockCapacity + ") < "
+                            + MIN_BLOCK_CAPACITY);
+        }
+        
+        this.comparator = comparator;
+        this.blockCapacity = blockCapacity;
+        this.levelPolicy = levelPolicy;
+        header.prev = header.next = header;
+        head = new Index(header, null, null);
+        levels = 1;
+    }
+    
+    public UnrolledSkipListMap(Map<? extends K, ? extends V> m) {
+        this();
+        putAll(m);
+    }
+    
+    /**
+     * Constructs a new map containing the same mappings and using the same
+     * ordering as the sorted map {@code m}. The mappings are appended in
+     * ascending order, which leaves all the blocks but the last one full.
+     *
+     * @param m the sorted map whose mappings to copy.
+     */
+    public UnrolledSkipListMap(SortedMap<K, ? extends V> m) {
+        this(m.comparator());
+        putAll(m);
+    }
+    
+    public int blockCapacity() {
+        return blockCapacity;
+    }
+    
+    public LevelPolicy levelPolicy() {
+        return levelPolicy;
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        Block b = findBlock(key);
+        int i = indexOf(b, key);
+        return (i < 0) ? null : (V) b.vals[i];
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        
+        for (Block b = header.next; b != header; b = b.next) {
+            for (int i = 0; i < b.size; ++i) {
+                if (value.equals(b.vals[i])) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        
+        Block b = findBlock(key);
+        int i;
+        
+        if (b == header) { // 'key' precedes all the blocks
+            if ((b = header.next) == header) {
+                b = newBlockAfter(header);
+            }
+            
+            i = -1;
+        } else if ((i = indexOf(b, key)) >= 0) {
+            V v = (V) b.vals[i];
+            b.vals[i] = value;
+            return v;
+        }
+        
+        int ins = -(i + 1);
+        
+        if (b.size == blockCapacity) {
+            Block nb;
+            
+            if (ins == blockCapacity && b.next == header) {
+                // Appending to the last block: keep it full and start a new
+                // one, so that ascending insertions fill the blocks.
+                nb = newBlockAfter(b);
+                b = nb;
+                ins = 0;
+            } else {
+                int half = blockCapacity >>> 1;
+                nb = newBlockAfter(b);
+                moveTail(b, half, nb);
+                
+                if (ins > half) {
+                    b = nb;
+                    ins -= half;
+                }
+            }
+            
+            insertAt(b, ins, key, value);
+            addTower(nb);
+        } else {
+            insertAt(b, ins, key, value);
+        }
+        
+        ++size;
+        ++modCount;
+        return null;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        
+        Block b = findBlock(key);
+        int i = indexOf(b, key);
+        
+        if (i < 0) {
+            return null;
+        }
+        
+        V v = (V) b.vals[i];
+        removeAt(b, i);
+        return v;
+    }
+    
+    @Override
+    public void clear() {
+        header.prev = header.next = header;
+        head = new Index(header, null, null);
+        levels = 1;
+        size = 0;
+        ++modCount;
+    }
+    
+    @Override
+    public Map.Entry<K,V> firstEntry() {
+        Block b = header.next;
+        return (b == header) ? null : entryAt(b, 0);
+    }
+    
+    @Override
+    public Map.Entry<K,V> lastEntry() {
+        Block b = header.prev;
+        return (b == header) ? null : entryAt(b, b.size - 1);
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollFirstEntry() {
+        Block b = header.next;
+        
+        if (b == header) {
+            return null;
+        }
+        
+        Map.Entry<K,V> e = entryAt(b, 0);
+        removeAt(b, 0);
+        return e;
+    }
+    
+    @Override
+    public Map.Entry<K,V> pollLastEntry() {
+        Block b = header.prev;
+        
+        if (b == header) {
+            return null;
+        }
+        
+        Map.Entry<K,V> e = entryAt(b, b.size - 1);
+        removeAt(b, b.size - 1);
+        return e;
+    }
+    
+    /**
+     * Passes all the mappings to {@code action} in ascending key order,
+     * reading the blocks directly.
+     *
+     * @param action the action to perform.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        
+        int mc = modCount;
+        
+        for (Block b = header.next; b != header; b = b.next) {
+            Object[] keys = b.keys;
+            Object[] vals = b.vals;
+            
+            for (int i = 0, n = b.size; i < n; ++i) {
+                action.accept((K) keys[i], (V) vals[i]);
+            }
+            
+            if (mc != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+    
+    @Override
+    Map.Entry<K,V> findNearEntry(K key, int rel) {
+        Block b = findBlock(key);
+        int i = indexOf(b, key);
+        int lo, hi;
+        
+        if (i >= 0) {
+            if ((rel & EQ) != 0) {
+                return entryAt(b, i);
+            }
+            
+            lo = i - 1;
+            hi = i + 1;
+        } else {
+            hi = -(i + 1);
+            lo = hi - 1;
+        }
+        
+        if ((rel & LT) != 0) {
+            if (lo >= 0) {
+                return entryAt(b, lo);
+            }
+            
+            Block p = (b == header) ? header : b.prev;
+            return (p == header) ? null : entryAt(p, p.size - 1);
+        }
+        
+        if (hi < b.size) {
+            return entryAt(b, hi);
+        }
+        
+        Block n = b.next;
+        return (n == header) ? null : entryAt(n, 0);
+    }
+    
+    @Override
+    Iterator<Map.Entry<K,V>> entryIterator(K from,
+                                           boolean inclusive,
+                                           boolean descending) {
+        return new BlockIterator(from, inclusive, descending);
+    }
+    
+    /**
+     * Returns the last block whose first key is not greater than {@code key},
+     * or the header if there is none.
+     */
+    private Block findBlock(Object key) {
+        Comparator<? super K> cmp = comparator;
+        Index q = head;
+        
+        for (Index r, d;;) {
+            while ((r = q.right) != null
+                    && SkipListMap.cpr(cmp, key, r.block.keys[0]) >= 0) {
+                q = r;
+            }
+            
+            if ((d = q.down) == null) {
+                break;
+            }
+            
+            q = d;
+        }
+        
+        Block b = q.block, n;
+        
+        while ((n = b.next) != header
+                && SkipListMap.cpr(cmp, key, n.keys[0]) >= 0) {
+            b = n;
+        }
+        
+        return b;
+    }
+    
+    /**
+     * Returns the position of {@code key} in {@code b}, or
+     * {@code -(insertion point) - 1} if {@code b} does not contain it.
+     */
+    private int indexOf(Block b, Object key) {
+        Comparator<? super K> cmp = comparator;
+        Object[] keys = b.keys;
+        int lo = 0;
+        int hi = b.size - 1;
+        
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = SkipListMap.cpr(cmp, keys[mid], key);
+            
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        
+        return -(lo + 1);
+    }
+    
+    private Block newBlockAfter(Block b) {
+        Block nb = new Block(blockCapacity);
+        Block n = b.next;
+        nb.prev = b;
+        nb.next = n;
+        n.prev = nb;
+        b.next = nb;
+        return nb;
+    }
+    
+    private void unlinkBlock(Block b) {
+        b.prev.next = b.next;
+        b.next.prev = b.prev;
+    }
+    
+    /**
+     * Moves the mappings of {@code b} from position {@code from} on to the
+     * end of {@code target}.
+     */
+    private static void moveTail(Block b, int from, Block target) {
+        int n = b.size - from;
+        System.arraycopy(b.keys, from, target.keys, target.size, n);
+        System.arraycopy(b.vals, from, target.vals, target.size, n);
+        Arrays.fill(b.keys, from, b.size, null);
+        Arrays.fill(b.vals, from, b.size, null);
+        target.size += n;
+        b.size = from;
+    }
+    
+    private static void insertAt(Block b, int i, Object key, Object value) {
+        int n = b.size - i;
+        System.arraycopy(b.keys, i, b.keys, i + 1, n);
+        System.arraycopy(b.vals, i, b.vals, i + 1, n);
+        b.keys[i] = key;
+        b.vals[i] = value;
+        b.size++;
+    }
+    
+    private void removeAt(Block b, int i) {
+        Object key = b.keys[0];
+        int n = b.size - i - 1;
+        System.arraycopy(b.keys, i + 1, b.keys, i, n);
+        System.arraycopy(b.vals, i + 1, b.vals, i, n);
+        b.keys[--b.size] = null;
+        b.vals[b.size] = null;
+        --size;
+        ++modCount;
+        
+        if (b.size == 0) {
+            removeTower(b, key);
+            unlinkBlock(b);
+        } else if (b.size < blockCapacity >>> 2) {
+            tryMerge(b);
+        }
+    }
+    
+    /**
+     * Merges the underfull block {@code b} with a neighbour if the result
+     * fills at most three quarters of a block, so that the next few
+     * insertions do not split it again.
+     */
+    private void tryMerge(Block b) {
+        int limit = blockCapacity - (blockCapacity >>> 2);
+        Block n = b.next;
+        Block p = b.prev;
+        
+        if (n != header && b.size + n.size <= limit) {
+            removeTower(n, n.keys[0]);
+            moveTail(n, 0, b);
+            unlinkBlock(n);
+        } else if (p != header && p.size + b.size <= limit) {
+            removeTower(b, b.keys[0]);
+            moveTail(b, 0, p);
+            unlinkBlock(b);
+        }
+    }
+    
+    /**
+     * Links a tower for the new block {@code nb}, adding as many head levels
+     * as it needs.
+     */
+    private void addTower(Block nb) {
+        int height = levelPolicy.level(nb.keys[0]);
+        
+        if (height == 0) {
+            return;
+        }
+        
+        Index x = null;
+        
+        for (int i = 0; i < height; ++i) {
+            x = new Index(nb, x, null);
+        }
+        
+        for (; levels < height; ++levels) {
+            head = new Index(header, head, null);
+        }
+        
+        Comparator<? super K> cmp = comparator;
+        Object key = nb.keys[0];
+        Index q = head;
+        
+        for (int level = levels;; --level) {
+            Index r;
+            
+            while ((r = q.right) != null
+                    && SkipListMap.cpr(cmp, key, r.block.keys[0]) > 0) {
+                q = r;
+            }
+            
+            if (level <= height) {
+                x.right = r;
+                q.right = x;
+                x = x.down;
+            }
+            
+            if (level == 1) {
+                return;
+            }
+            
+            q = q.down;
+        }
+    }
+    
+    /**
+     * Unlinks the tower of {@code b}, if any. The indices preceding it are
+     * found by comparing with {@code key}, which is or was the first key of
+     * {@code b}, while {@code b} itself is recognized by identity.
+     */
+    private void removeTower(Block b, Object key) {
+        Comparator<? super K> cmp = comparator;
+        Index q = head;
+        
+        for (;;) {
+            Index r;
+            
+            while ((r = q.right) != null
+                    && r.block != b
+                    && SkipListMap.cpr(cmp, key, r.block.keys[0]) > 0) {
+                q = r;
+            }
+            
+            if (r != null && r.block == b) {
+                q.right = r.right;
+            }
+            
+            if (q.down == null) {
+                break;
+            }
+            
+            q = q.down;
+        }
+        
+        while (levels > 1 && head.right == null) { // drop the empty levels
+            head = head.down;
+            --levels;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map.Entry<K,V> entryAt(Block b, int i) {
+        return new AbstractMap.SimpleImmutableEntry<>((K) b.keys[i],
+                                                      (V) b.vals[i]);
+    }
+    
+    /**
+     * Iterates over the blocks starting from a key. A modification of the map
+     * invalidates the block positions, so the iterator then locates the key
+     * following the last one it returned before going on.
+     */
+    private final class BlockIterator implements Iterator<Map.Entry<K,V>> {
+        
+        private final boolean descending;
+        private Block block;
+        private int index;
+        private int expectedModCount;
+        private K cursorKey;
+        private boolean cursorInclusive;
+        private boolean canRemove;
+        
+        BlockIterator(K from, boolean inclusive, boolean descending) {
+            this.descending = descending;
+            this.cursorKey = from;
+            this.cursorInclusive = inclusive;
+            seek();
+        }
+        
+        private void seek() {
+            expectedModCount = modCount;
+            K key = cursorKey;
+            
+            if (key == null) {
+                block = descending ? header.prev : header.next;
+                index = descending ? block.size - 1 : 0;
+                return;
+            }
+            
+            Block b = findBlock(key);
+            int i = indexOf(b, key);
+            
+            if (descending) {
+                i = (i >= 0) ? (cursorInclusive ? i : i - 1) : -(i + 1) - 1;
+                
+                if (i < 0 && b != header) {
+                    b = b.prev;
+                    i = b.size - 1;
+                }
+            } else {
+                i = (i >= 0) ? (cursorInclusive ? i : i + 1) : -(i + 1);
+                
+                if (i == b.size) {
+                    b = b.next;
+                    i = 0;
+                }
+            }
+            
+            block = b;
+            index = i;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (expectedModCount != modCount) {
+                seek();
+            }
+            
+            return block != header;
+        }
+        
+        @Override
+        public Map.Entry<K,V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            Block b = block;
+            Map.Entry<K,V> e = entryAt(b, index);
+            
+            if (descending) {
+                if (--index < 0) {
+                    block = b.prev;
+                    index = block.size - 1;
+                }
+            } else if (++index == b.size) {
+                block = b.next;
+                index = 0;
+            }
+            
+            cursorKey = e.getKey();
+            cursorInclusive = false;
+            canRemove = true;
+            return e;
+        }
+        
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            
+            UnrolledSkipListMap.this.remove(cursorKey);
+            canRemove = false;
+        }
+    }
+}
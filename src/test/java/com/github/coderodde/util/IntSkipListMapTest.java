@@ -0,0 +1,68 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IntSkipListMapTest {
+    
+    @Test
+    public void getPutRemove() {
+        IntSkipListMap<String> map = new IntSkipListMap<>();
+        
+        for (int i = 0; i < 10; i++) {
+            assertFalse(map.containsKey(i));
+            assertNull(map.put(i, Integer.toString(i)));
+        }
+        
+        assertEquals(10, map.size());
+        assertEquals("3", map.put(3, "three"));
+        assertEquals("three", map.get(3));
+        assertEquals("three", map.remove(3));
+        assertNull(map.remove(3));
+        assertNull(map.get(3));
+        assertEquals(9, map.size());
+        assertEquals(0, map.firstKey());
+        assertEquals(9, map.lastKey());
+    }
+    
+    @Test(expected = NoSuchElementException.class)
+    public void lastKeyOfEmptyMap() {
+        IntSkipListMap<String> map = new IntSkipListMap<>();
+        map.put(1, "1");
+        map.remove(1);
+        map.lastKey();
+    }
+    
+    @Test
+    public void extremeKeys() {
+        IntSkipListMap<String> map1 = new IntSkipListMap<>(
+                LevelPolicy.xorShift(2, 16, 7L));
+        
+        TreeMap<Integer, String> map2 = new TreeMap<>();
+        
+        for (int key : new int[]{ Integer.MAX_VALUE, -1, 0, Integer.MIN_VALUE,
+                                  1, Integer.MIN_VALUE + 1 }) {
+            assertEquals(map2.put(key, Integer.toString(key)),
+                         map1.put(key, Integer.toString(key)));
+        }
+        
+        assertEquals(Integer.MIN_VALUE, map1.firstKey());
+        assertEquals(Integer.MAX_VALUE, map1.lastKey());
+        
+        List<Integer> keys = new ArrayList<>();
+        map1.forEach((k, v) -> keys.add(k));
+        assertEquals(new ArrayList<>(map2.keySet()), keys);
+        
+        List<Integer> rangeKeys = new ArrayList<>();
+        map1.forEachInRange(Integer.MIN_VALUE + 1, 1,
+                            (k, v) -> rangeKeys.add(k));
+        
+        assertEquals(new ArrayList<>(map2.subMap(Integer.MIN_VALUE + 1, 1)
+                                         .keySet()),
+                     rangeKeys);
+    }
+}
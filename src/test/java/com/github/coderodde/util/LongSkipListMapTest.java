@@ -0,0 +1,120 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LongSkipListMapTest {
+    
+    @Test
+    public void getPutRemove() {
+        LongSkipListMap<String> map = new LongSkipListMap<>();
+        
+        for (long i = 0; i < 10; i++) {
+            assertFalse(map.containsKey(i));
+            assertNull(map.put(i, Long.toString(i)));
+        }
+        
+        assertEquals(10, map.size());
+        assertEquals("3", map.put(3L, "three"));
+        assertEquals("three", map.get(3L));
+        assertEquals("three", map.remove(3L));
+        assertNull(map.remove(3L));
+        assertNull(map.get(3L));
+        assertEquals(9, map.size());
+        assertEquals(0L, map.firstKey());
+        assertEquals(9L, map.lastKey());
+    }
+    
+    @Test(expected = NoSuchElementException.class)
+    public void lastKeyOfEmptyMap() {
+        LongSkipListMap<String> map = new LongSkipListMap<>();
+        map.put(1L, "1");
+        map.remove(1L);
+        map.lastKey();
+    }
+    
+    @Test
+    public void versatile() {
+        for (LevelPolicy policy : new LevelPolicy[]{
+                LevelPolicy.defaultPolicy(),
+                LevelPolicy.xorShift(2, 20, 10L),
+                LevelPolicy.keyHash(8, 6) }) {
+            versatile(new LongSkipListMap<>(policy));
+        }
+    }
+    
+    @Test
+    public void primitiveLevels() {
+        Random rnd = new Random(12);
+        AbstractLevelPolicy hash = 
+                (AbstractLevelPolicy) LevelPolicy.keyHash(2, 40);
+        AbstractLevelPolicy xor1 = 
+                (AbstractLevelPolicy) LevelPolicy.xorShift(4, 20, 3L);
+        AbstractLevelPolicy xor2 = 
+                (AbstractLevelPolicy) LevelPolicy.xorShift(4, 20, 3L);
+        
+        for (int i = 0; i < 10_000; i++) {
+            long key = rnd.nextLong();
+            assertEquals(hash.level((Object) key), hash.level(key));
+            assertEquals(xor1.level((Object) key), xor2.level(key));
+        }
+        
+        List<Object> keys = new ArrayList<>();
+        LongSkipListMap<String> map = new LongSkipListMap<>(key -> {
+            keys.add(key);
+            return 1;
+        });
+        
+        map.put(1L << 40, "Hello");
+        assertEquals(List.of(1L << 40), keys);
+    }
+    
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullLevelPolicy() {
+        new LongSkipListMap<String>(null);
+    }
+    
+    private static void versatile(LongSkipListMap<String> map1) {
+        Random rnd = new Random(10);
+        TreeMap<Long, String> map2 = new TreeMap<>();
+        
+        for (int i = 0; i < 3000; i++) {
+            int coin = rnd.nextInt(100);
+            long key = rnd.nextInt(500) - 250;
+            
+            if (coin < 50) {
+                assertEquals(map2.put(key, Long.toString(key)),
+                             map1.put(key, Long.toString(key)));
+            } else if (coin < 70) {
+                assertEquals(map2.remove(key), map1.remove(key));
+            } else {
+                assertEquals(map2.containsKey(key), map1.containsKey(key));
+                assertEquals(map2.get(key), map1.get(key));
+            }
+            
+            assertEquals(map2.size(), map1.size());
+        }
+        
+        assertEquals((long) map2.firstKey(), map1.firstKey());
+        assertEquals((long) map2.lastKey(), map1.lastKey());
+        
+        List<Long> keys = new ArrayList<>();
+        map1.forEach((k, v) -> keys.add(k));
+        assertEquals(new ArrayList<>(map2.keySet()), keys);
+        
+        List<Long> rangeKeys = new ArrayList<>();
+        map1.forEachInRange(-100L, 100L, (k, v) -> rangeKeys.add(k));
+        assertEquals(new ArrayList<>(map2.subMap(-100L, 100L).keySet()),
+                     rangeKeys);
+        
+        for (Map.Entry<Long, String> e : map2.entrySet()) {
+            assertEquals(e.getValue(), map1.get(e.getKey()));
+        }
+    }
+}
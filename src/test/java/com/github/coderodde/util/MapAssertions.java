@@ -0,0 +1,43 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.NavigableMap;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The assertions shared by the tests of the maps of this package.
+ */
+final class MapAssertions {
+    
+    private MapAssertions() {
+    }
+    
+    /**
+     * Asserts that {@code actual} holds the same mappings as 
+     * {@code expected} and that its iteration orders, ends and navigation 
+     * methods agree with those of {@code expected}.
+     */
+    static <K, V> void assertViewsEqual(NavigableMap<K, V> expected,
+                                        NavigableMap<K, V> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertEquals(new ArrayList<>(expected.entrySet()),
+                     new ArrayList<>(actual.entrySet()));
+        assertEquals(new ArrayList<>(expected.descendingKeySet()),
+                     new ArrayList<>(actual.descendingKeySet()));
+        assertEquals(new ArrayList<>(expected.values()),
+                     new ArrayList<>(actual.values()));
+        
+        if (!expected.isEmpty()) {
+            assertEquals(expected.firstKey(), actual.firstKey());
+            assertEquals(expected.lastKey(), actual.lastKey());
+            assertEquals(expected.firstEntry(), actual.firstEntry());
+            assertEquals(expected.lastEntry(), actual.lastEntry());
+            
+            for (K key : expected.keySet()) {
+                assertEquals(expected.lowerKey(key), actual.lowerKey(key));
+                assertEquals(expected.higherKey(key), actual.higherKey(key));
+            }
+        }
+    }
+}
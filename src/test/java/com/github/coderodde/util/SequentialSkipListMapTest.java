@@ -0,0 +1,114 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static com.github.coderodde.util.MapAssertions.assertViewsEqual;
+import static org.junit.Assert.*;
+
+public class SequentialSkipListMapTest {
+    
+    @Test
+    public void versatile() {
+        for (int branching : new int[]{ 2, 4, 8 }) {
+            Random rnd = new Random(branching);
+            SequentialSkipListMap<Integer, String> map1 =
+                    SkipListMap.sequential(
+                            null,
+                            LevelPolicy.xorShift(branching, 12, branching));
+            
+            SkipListMap<Integer, String> map2 = new SkipListMap<>();
+            
+            for (int i = 0; i < 20_000; i++) {
+                int coin = rnd.nextInt(100);
+                Integer key = rnd.nextInt(1000) - 500;
+                
+                if (coin < 45) {
+                    assertEquals(map2.put(key, key.toString()),
+                                 map1.put(key, key.toString()));
+                } else if (coin < 80) {
+                    assertEquals(map2.remove(key), map1.remove(key));
+                } else if (coin < 85) {
+                    assertEquals(map2.pollFirstEntry(),
+                                 map1.pollFirstEntry());
+                } else if (coin < 90) {
+                    assertEquals(map2.pollLastEntry(), map1.pollLastEntry());
+                } else {
+                    assertEquals(map2.get(key), map1.get(key));
+                    assertEquals(map2.lowerEntry(key), map1.lowerEntry(key));
+                    assertEquals(map2.floorEntry(key), map1.floorEntry(key));
+                    assertEquals(map2.ceilingEntry(key),
+                                 map1.ceilingEntry(key));
+                    assertEquals(map2.higherEntry(key),
+                                 map1.higherEntry(key));
+                }
+                
+                assertEquals(map2.size(), map1.size());
+            }
+            
+            assertViewsEqual(map2, map1);
+            assertViewsEqual(map2.subMap(-100, true, 100, false),
+                             map1.subMap(-100, true, 100, false));
+            assertViewsEqual(map2.headMap(0, true), map1.headMap(0, true));
+            assertViewsEqual(map2.tailMap(0, false), map1.tailMap(0, false));
+            assertViewsEqual(map2.descendingMap(), map1.descendingMap());
+            assertViewsEqual(map2.descendingMap().subMap(50, true, -50, false),
+                             map1.descendingMap().subMap(50, true, -50, false));
+            assertEquals(map2, map1);
+            assertEquals(map2.hashCode(), map1.hashCode());
+            
+            List<Integer> keys = new ArrayList<>();
+            map1.forEach((k, v) -> keys.add(k));
+            assertEquals(new ArrayList<>(map2.keySet()), keys);
+            
+            map1.clear();
+            map2.clear();
+            assertViewsEqual(map2, map1);
+            assertNull(map1.pollFirstEntry());
+            assertNull(map1.pollLastEntry());
+        }
+    }
+    
+    @Test
+    public void iteratorRemove() {
+        SequentialSkipListMap<Integer, String> map1 = 
+                SkipListMap.sequential(null);
+        
+        SkipListMap<Integer, String> map2 = new SkipListMap<>();
+        
+        for (int i = 0; i < 200; i++) {
+            map1.put(i, Integer.toString(i));
+            map2.put(i, Integer.toString(i));
+        }
+        
+        for (Iterator<Integer> it = map1.keySet().iterator(); it.hasNext();) {
+            if (it.next() % 3 != 0) {
+                it.remove();
+            }
+        }
+        
+        map2.keySet().removeIf(k -> k % 3 != 0);
+        assertViewsEqual(map2, map1);
+        
+        Iterator<Integer> it = map1.descendingMap()
+                                   .headMap(100)
+                                   .keySet()
+                                   .iterator();
+        
+        while (it.hasNext()) {
+            Integer key = it.next();
+            it.remove();
+            map1.put(key + 1, "x"); // resumes after the removed key
+            map1.remove(key + 1);
+        }
+        
+        map2.descendingMap().headMap(100).clear();
+        assertViewsEqual(map2, map1);
+        
+        map1.subMap(0, 30).clear();
+        map2.subMap(0, 30).clear();
+        assertViewsEqual(map2, map1);
+    }
+}
@@ -0,0 +1,399 @@
+package com.github.coderodde.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static com.github.coderodde.util.MapAssertions.assertViewsEqual;
+import static org.junit.Assert.*;
+
+public class ShardedSkipListMapTest {
+    
+    @Test
+    public void versatile() {
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(-200, 0, 300));
+        
+        NavigableMap<Integer, String> map2 = new TreeMap<>();
+        Random rnd = new Random(13L);
+        
+        for (int i = 0; i < 20_000; i++) {
+            int coin = rnd.nextInt(100);
+            Integer key = rnd.nextInt(1000) - 500;
+            
+            if (coin < 45) {
+                assertEquals(map2.put(key, key.toString()),
+                             map1.put(key, key.toString()));
+            } else if (coin < 75) {
+                assertEquals(map2.remove(key), map1.remove(key));
+            } else if (coin < 78) {
+                assertEquals(map2.pollFirstEntry(), map1.pollFirstEntry());
+            } else if (coin < 81) {
+                assertEquals(map2.pollLastEntry(), map1.pollLastEntry());
+            } else if (coin < 82) {
+                map1.rebalance();
+            } else {
+                assertEquals(map2.get(key), map1.get(key));
+                assertEquals(map2.lowerEntry(key), map1.lowerEntry(key));
+                assertEquals(map2.floorEntry(key), map1.floorEntry(key));
+                assertEquals(map2.ceilingEntry(key), map1.ceilingEntry(key));
+                assertEquals(map2.higherEntry(key), map1.higherEntry(key));
+            }
+            
+            assertEquals(map2.size(), map1.size());
+        }
+        
+        assertViewsEqual(map2, map1);
+        map1.rebalance();
+        assertViewsEqual(map2, map1);
+        assertViewsEqual(map2.subMap(-100, true, 100, false),
+                         map1.subMap(-100, true, 100, false));
+        assertViewsEqual(map2.headMap(0, true), map1.headMap(0, true));
+        assertViewsEqual(map2.tailMap(0, false), map1.tailMap(0, false));
+        assertViewsEqual(map2.descendingMap(), map1.descendingMap());
+        assertViewsEqual(map2.descendingMap().subMap(50, true, -50, false),
+                         map1.descendingMap().subMap(50, true, -50, false));
+        assertEquals(map2, map1);
+        
+        for (Iterator<Integer> it = map1.keySet().iterator(); it.hasNext();) {
+            if (it.next() % 3 != 0) {
+                it.remove();
+            }
+        }
+        
+        map2.keySet().removeIf(k -> k % 3 != 0);
+        assertViewsEqual(map2, map1);
+        
+        map1.clear();
+        map2.clear();
+        assertViewsEqual(map2, map1);
+        assertNull(map1.firstEntry());
+        assertNull(map1.lastEntry());
+    }
+    
+    @Test
+    public void rebalanceMovesSplitters() {
+        ShardedSkipListMap<Integer, String> map =
+                new ShardedSkipListMap<>(null, List.of(10, 20, 30));
+        
+        for (int i = 0; i < 400; i++) {
+            map.put(100 + i, Integer.toString(i)); // all in the last shard
+        }
+        
+        map.rebalance();
+        assertEquals(List.of(200, 300, 400), map.splitters());
+        
+        for (int i = 0; i < 400; i++) {
+            map.put(-i, Integer.toString(i)); // all in the first shard
+        }
+        
+        map.rebalance();
+        assertEquals(List.of(-199, 100, 300), map.splitters());
+        assertEquals(800, map.size());
+        
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(keys.get(i - 1) < keys.get(i));
+        }
+    }
+    
+    @Test
+    public void concurrentUpdatesWhileRebalancing()
+            throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(1000, 2000, 3000), pool);
+        
+        int threads = 4;
+        List<NavigableMap<Integer, String>> maps = new ArrayList<>();
+        Thread[] workers = new Thread[threads];
+        Throwable[] errors = new Throwable[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            NavigableMap<Integer, String> map2 = new TreeMap<>();
+            Random rnd = new Random(t);
+            int residue = t;
+            int id = t;
+            maps.add(map2);
+            
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20_000; i++) {
+                        // skewed towards the first shard
+                        int key = rnd.nextInt(rnd.nextInt(1000) + 1)
+                                * threads + residue;
+                        
+                        String value = Integer.toString(i);
+                        int coin = rnd.nextInt(100);
+                        
+                        if (coin < 30) {
+                            assertEquals(map2.remove(key), map1.remove(key));
+                        } else if (coin < 31) {
+                            map1.rebalance();
+                        } else {
+                            assertEquals(map2.put(key, value),
+                                         map1.put(key, value));
+                        }
+                        
+                        assertEquals(map2.get(key), map1.get(key));
+                    }
+                } catch (Throwable ex) {
+                    errors[id] = ex;
+                }
+            });
+        }
+        
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        
+        pool.shutdown();
+        
+        for (Throwable error : errors) {
+            if (error != null) {
+                throw new AssertionError(error);
+            }
+        }
+        
+        NavigableMap<Integer, String> expected = new TreeMap<>();
+        maps.forEach(expected::putAll);
+        assertViewsEqual(expected, map1);
+    }
+    
+    /**
+     * Iterates over the even keys, which stay put, while another thread 
+     * skews the shards with odd keys and rebalances them, and checks that 
+     * every even key is returned once and in order.
+     */
+    @Test
+    public void iterationWhileRebalancing() throws InterruptedException {
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(2000, 4000, 6000));
+        
+        for (int i = 0; i < 8000; i += 2) {
+            map1.put(i, Integer.toString(i));
+        }
+        
+        AtomicBoolean done = new AtomicBoolean();
+        Throwable[] errors = new Throwable[1];
+        Thread mover = new Thread(() -> {
+            try {
+                for (int round = 0; !done.get(); round++) {
+                    int from = (round % 2 == 0) ? 1 : 6001;
+                    
+                    for (int i = from; i < from + 2000; i += 2) {
+                        map1.put(i, Integer.toString(i));
+                    }
+                    
+                    map1.rebalance();
+                    
+                    for (int i = from; i < from + 2000; i += 2) {
+                        map1.remove(i);
+                    }
+                    
+                    map1.rebalance();
+                }
+            } catch (Throwable ex) {
+                errors[0] = ex;
+            }
+        });
+        
+        mover.start();
+        
+        try {
+            for (int pass = 0; pass < 200; pass++) {
+                int expected = 0;
+                
+                for (Integer key : map1.keySet()) {
+                    if (key % 2 == 0) {
+                        assertEquals(expected, (int) key);
+                        expected += 2;
+                    }
+                }
+                
+                assertEquals(8000, expected);
+                
+                for (Integer key : map1.descendingKeySet()) {
+                    if (key % 2 == 0) {
+                        expected -= 2;
+                        assertEquals(expected, (int) key);
+                    }
+                }
+                
+                assertEquals(0, expected);
+                
+                int size = map1.size();
+                assertTrue(size >= 4000 && size <= 5000);
+            }
+        } finally {
+            done.set(true);
+            mover.join();
+        }
+        
+        if (errors[0] != null) {
+            throw new AssertionError(errors[0]);
+        }
+    }
+    
+    @Test
+    public void parallelBulkOperations() {
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(250, 500, 750));
+        
+        NavigableMap<Integer, String> map2 = new TreeMap<>();
+        
+        for (int i = 0; i < 1000; i++) {
+            map2.put(i, Integer.toString(i));
+        }
+        
+        map1.putAll(map2);
+        assertViewsEqual(map2, map1);
+        
+        ConcurrentHashMap<Integer, String> seen = new ConcurrentHashMap<>();
+        AtomicLong sum = new AtomicLong();
+        map1.forEachParallel((k, v) -> {
+            assertNull(seen.put(k, v));
+            sum.addAndGet(k);
+        });
+        
+        assertEquals(map2, seen);
+        assertEquals(999L * 1000L / 2L, sum.get());
+        
+        map1.clear();
+        assertTrue(map1.isEmpty());
+        assertEquals(0, map1.size());
+    }
+    
+    /**
+     * Runs a bulk operation on a single-worker pool that has a rebalancing
+     * of the skewed map queued ahead of the tasks of the operation.
+     */
+    @Test(timeout = 30_000)
+    public void bulkOperationBehindRebalancing() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(10, 20, 30), pool);
+        
+        // too few to schedule a rebalancing of their own
+        for (int i = 0; i < 1000; i++) {
+            map1.put(100 + i, Integer.toString(i));
+        }
+        
+        CountDownLatch latch = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        
+        pool.execute(map1::rebalance);
+        Thread opener = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            
+            latch.countDown();
+        });
+        
+        opener.start();
+        AtomicLong count = new AtomicLong();
+        map1.forEachParallel((k, v) -> count.incrementAndGet());
+        opener.join();
+        pool.shutdown();
+        assertEquals(1000L, count.get());
+    }
+    
+    /**
+     * Writes back every mapping from the action of a bulk operation while
+     * another thread skews the shards and rebalances them.
+     */
+    @Test(timeout = 60_000)
+    public void bulkOperationWritingWhileRebalancing()
+            throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(8);
+        ShardedSkipListMap<Integer, String> map1 =
+                new ShardedSkipListMap<>(null, List.of(1000, 2000, 3000), pool);
+        
+        for (int i = 0; i < 4000; i += 2) {
+            map1.put(i, Integer.toString(i));
+        }
+        
+        AtomicBoolean done = new AtomicBoolean();
+        Throwable[] errors = new Throwable[1];
+        Thread mover = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    for (int i = 1; i < 1000; i += 2) {
+                        map1.put(i, Integer.toString(i));
+                    }
+                    
+                    map1.rebalance();
+                    
+                    for (int i = 1; i < 1000; i += 2) {
+                        map1.remove(i);
+                    }
+                    
+                    map1.rebalance();
+                }
+            } catch (Throwable ex) {
+                errors[0] = ex;
+            }
+        });
+        
+        mover.start();
+        
+        try {
+            for (int pass = 0; pass < 200; pass++) {
+                map1.forEachParallel((k, v) -> {
+                    if (k % 2 == 0) {
+                        assertEquals(v, map1.put(k, v));
+                    }
+                });
+            }
+        } finally {
+            done.set(true);
+            mover.join();
+            pool.shutdown();
+        }
+        
+        if (errors[0] != null) {
+            throw new AssertionError(errors[0]);
+        }
+        
+        for (int i = 0; i < 4000; i++) {
+            assertEquals((i % 2 == 0) ? Integer.toString(i) : null,
+                         map1.get(i));
+        }
+    }
+    
+    @Test
+    public void rejectsBadSplitters() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ShardedSkipListMap<Integer, String>(
+                             null, List.of(1, 3, 2)));
+        
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ShardedSkipListMap<Integer, String>(
+                             null, List.of(1, 1)));
+        
+        assertEquals(1, new ShardedSkipListMap<Integer, String>(null, List.of())
+                                .shardCount());
+    }
+}
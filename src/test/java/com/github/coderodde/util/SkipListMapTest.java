@@ -1,10 +1,27 @@
 package com.github.coderodde.util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static com.github.coderodde.util.MapAssertions.assertViewsEqual;
 import static org.junit.Assert.*;
 
 public class SkipListMapTest {
@@ -16,6 +33,9 @@ public class SkipListMapTest {
         }
     };
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Test
     public void containsKey() {
         SkipListMap<Integer, String> list = new SkipListMap<>(CMP);
@@ -147,4 +167,1863 @@ public class SkipListMapTest {
         
         assertTrue(list1.equals(list2));
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void navigation() {
+        Random rnd = new Random(11);
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP);
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 200; i++) {
+            int key = 2 * rnd.nextInt(200);
+            list1.put(key, Integer.toString(key));
+            list2.put(key, Integer.toString(key));
+        }
+        
+        assertEquals(list2.firstKey(), list1.firstKey());
+        assertEquals(list2.lastKey(), list1.lastKey());
+        assertEquals(list2.firstEntry(), list1.firstEntry());
+        assertEquals(list2.lastEntry(), list1.lastEntry());
+        
+        for (int key = -5; key < 405; key++) {
+            assertEquals(list2.lowerKey(key), list1.lowerKey(key));
+            assertEquals(list2.floorKey(key), list1.floorKey(key));
+            assertEquals(list2.ceilingKey(key), list1.ceilingKey(key));
+            assertEquals(list2.higherKey(key), list1.higherKey(key));
+            assertEquals(list2.lowerEntry(key), list1.lowerEntry(key));
+            assertEquals(list2.floorEntry(key), list1.floorEntry(key));
+            assertEquals(list2.ceilingEntry(key), list1.ceilingEntry(key));
+            assertEquals(list2.higherEntry(key), list1.higherEntry(key));
+        }
+        
+        assertEquals(list2.pollFirstEntry(), list1.pollFirstEntry());
+        assertEquals(list2.pollLastEntry(), list1.pollLastEntry());
+        assertEquals(list2.size(), list1.size());
+        assertEquals(list2.entrySet(), list1.entrySet());
+    }
+    
+    @Test
+    public void collectionViews() {
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP);
+        Map<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 9; i >= 0; i--) {
+            list1.put(i, Integer.toString(i));
+            list2.put(i, Integer.toString(i));
+        }
+        
+        assertEquals(list2.toString(), list1.toString());
+        assertEquals(list2.hashCode(), list1.hashCode());
+        assertEquals(list2, list1);
+        assertEquals(new ArrayList<>(list2.keySet()), 
+                     new ArrayList<>(list1.keySet()));
+        assertEquals(new ArrayList<>(list2.values()), 
+                     new ArrayList<>(list1.values()));
+        
+        list2.put(3, "x"); // same keys, a different value
+        assertNotEquals(list2, list1);
+        assertNotEquals(list1, list2);
+        list2.put(3, "3");
+        
+        Iterator<Integer> iter = list1.keySet().iterator();
+        
+        while (iter.hasNext()) {
+            if (iter.next() % 2 == 0) {
+                iter.remove();
+            }
+        }
+        
+        assertEquals(5, list1.size());
+        assertFalse(list1.containsKey(4));
+        assertTrue(list1.containsValue("5"));
+        
+        list1.clear();
+        assertTrue(list1.isEmpty());
+        assertNull(list1.firstEntry());
+    }
+    
+    @Test
+    public void rangeViews() {
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP);
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 100; i++) {
+            list1.put(i, Integer.toString(i));
+            list2.put(i, Integer.toString(i));
+        }
+        
+        assertViewsEqual(list2.subMap(10, true, 20, false), 
+                         list1.subMap(10, true, 20, false));
+        assertViewsEqual(list2.headMap(30, true), list1.headMap(30, true));
+        assertViewsEqual(list2.tailMap(90, false), list1.tailMap(90, false));
+        assertViewsEqual(list2.descendingMap(), list1.descendingMap());
+        assertViewsEqual(list2.descendingMap().subMap(50, true, 40, false), 
+                         list1.descendingMap().subMap(50, true, 40, false));
+        assertViewsEqual(list2.subMap(20, true, 60, false).headMap(30, false), 
+                         list1.subMap(20, true, 60, false).headMap(30, false));
+        
+        NavigableMap<Integer, String> view = list1.subMap(40, true, 50, false);
+        assertEquals(Integer.valueOf(45), view.ceilingKey(45));
+        assertEquals(Integer.valueOf(40), view.ceilingKey(0));
+        assertNull(view.higherKey(49));
+        assertNull(view.get(50));
+        
+        view.clear();
+        assertEquals(90, list1.size());
+        assertTrue(view.isEmpty());
+        
+        list1.put(45, "45");
+        assertEquals(1, view.size());
+        
+        try {
+            view.put(60, "60");
+            fail("Out-of-range key accepted.");
+        } catch (IllegalArgumentException ex) {
+            
+        }
+    }
+    
+    @Test
+    public void fromSorted() {
+        TreeMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 1000; i += 3) {
+            list2.put(i, Integer.toString(i));
+        }
+        
+        SkipListMap<Integer, String> list1 = 
+                SkipListMap.fromSorted(list2.entrySet().iterator(), CMP);
+        
+        assertEquals(list2.size(), list1.size());
+        assertTrue(list1.equals(list2));
+        assertEquals(list2.floorKey(500), list1.floorKey(500));
+        assertEquals(list2.lastKey(), list1.lastKey());
+        
+        Random rnd = new Random(13);
+        
+        for (int i = 0; i < 2000; i++) {
+            int key = rnd.nextInt(1200);
+            
+            if (rnd.nextBoolean()) {
+                assertEquals(list2.put(key, "x"), list1.put(key, "x"));
+            } else {
+                assertEquals(list2.remove(key), list1.remove(key));
+            }
+        }
+        
+        assertTrue(list1.equals(list2));
+        assertEquals(list2, new SkipListMap<>(list2));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void fromSortedRejectsUnsortedInput() {
+        TreeMap<Integer, String> map = new TreeMap<>(CMP.reversed());
+        map.put(1, "1");
+        map.put(2, "2");
+        SkipListMap.fromSorted(map.entrySet().iterator(), CMP);
+    }
+    
+    @Test
+    public void computeAndMerge() {
+        Random rnd = new Random(17);
+        SkipListMap<Integer, Integer> list1 = new SkipListMap<>(CMP);
+        Map<Integer, Integer> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 3000; i++) {
+            int key = rnd.nextInt(100);
+            int value = rnd.nextInt(10);
+            
+            switch (rnd.nextInt(7)) {
+                case 0:
+                    assertEquals(list2.merge(key, value, Integer::sum),
+                                 list1.merge(key, value, Integer::sum));
+                    break;
+                
+                case 1:
+                    assertEquals(list2.putIfAbsent(key, value),
+                                 list1.putIfAbsent(key, value));
+                    break;
+                
+                case 2:
+                    assertEquals(list2.computeIfAbsent(key, k -> k + value),
+                                 list1.computeIfAbsent(key, k -> k + value));
+                    break;
+                
+                case 3:
+                    assertEquals(
+                            list2.computeIfPresent(key, 
+                                    (k, v) -> v > 5 ? null : v + 1),
+                            list1.computeIfPresent(key, 
+                                    (k, v) -> v > 5 ? null : v + 1));
+                    break;
+                
+                case 4:
+                    assertEquals(
+                            list2.compute(key, 
+                                    (k, v) -> v == null ? value : null),
+                            list1.compute(key, 
+                                    (k, v) -> v == null ? value : null));
+                    break;
+                
+                case 5:
+                    assertEquals(list2.replace(key, value), 
+                                 list1.replace(key, value));
+                    break;
+                
+                default:
+                    assertEquals(list2.replace(key, value, value + 1), 
+                                 list1.replace(key, value, value + 1));
+                    assertEquals(list2.remove(key, value + 2), 
+                                 list1.remove(key, value + 2));
+            }
+            
+            assertEquals(list2.size(), list1.size());
+        }
+        
+        assertTrue(list1.equals(list2));
+        assertEquals(list2.entrySet(), list1.entrySet());
+    }
+    
+    @Test
+    public void cursor() {
+        Random rnd = new Random(23);
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP);
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        SkipListMap<Integer, String>.Cursor cursor = list1.cursor();
+        
+        assertFalse(cursor.isValid());
+        assertNull(cursor.put(10, "10"));
+        list2.put(10, "10");
+        assertEquals(Integer.valueOf(10), cursor.key());
+        
+        for (int i = 0; i < 5000; i++) {
+            int key = rnd.nextInt(1000);
+            
+            switch (rnd.nextInt(6)) {
+                case 0:
+                    assertEquals(list2.put(key, "c" + key), 
+                                 cursor.put(key, "c" + key));
+                    assertEquals(Integer.valueOf(key), cursor.key());
+                    break;
+                
+                case 1:
+                    assertEquals(list2.put(key, "m" + key), 
+                                 list1.put(key, "m" + key));
+                    break;
+                
+                case 2:
+                    assertEquals(list2.ceilingKey(key) != null, 
+                                 cursor.seek(key));
+                    
+                    if (cursor.isValid()) {
+                        assertEquals(list2.ceilingKey(key), cursor.key());
+                    }
+                    
+                    break;
+                
+                case 3:
+                    if (cursor.isValid()) {
+                        Integer k = cursor.key();
+                        assertEquals(list2.higherKey(k) != null, 
+                                     cursor.next());
+                        
+                        if (cursor.isValid()) {
+                            assertEquals(list2.higherKey(k), cursor.key());
+                        }
+                    }
+                    
+                    break;
+                
+                case 4:
+                    if (cursor.isValid()) {
+                        Integer k = cursor.key();
+                        assertEquals(list2.lowerKey(k) != null, 
+                                     cursor.prev());
+                        
+                        if (cursor.isValid()) {
+                            assertEquals(list2.lowerKey(k), cursor.key());
+                        }
+                    }
+                    
+                    break;
+                
+                default:
+                    if (cursor.isValid() && rnd.nextBoolean()) {
+                        Integer k = cursor.key();
+                        assertEquals(list2.remove(k), cursor.remove());
+                        
+                        if (cursor.isValid()) {
+                            assertEquals(list2.higherKey(k), cursor.key());
+                        }
+                    } else {
+                        assertEquals(list2.remove(key), list1.remove(key));
+                    }
+            }
+            
+            assertEquals(list2.size(), list1.size());
+        }
+        
+        assertTrue(list1.equals(list2));
+        assertEquals(list2.entrySet(), list1.entrySet());
+        
+        List<Integer> keys = new ArrayList<>();
+        
+        for (boolean b = cursor.first(); b; b = cursor.next()) {
+            keys.add(cursor.key());
+        }
+        
+        assertEquals(new ArrayList<>(list2.keySet()), keys);
+    }
+    
+    @Test
+    public void rankQueries() {
+        Random rnd = new Random(29);
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP, true);
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 3000; i++) {
+            int key = rnd.nextInt(500);
+            
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(list2.remove(key), list1.remove(key));
+            } else {
+                assertEquals(list2.put(key, Integer.toString(key)), 
+                             list1.put(key, Integer.toString(key)));
+            }
+            
+            int from = rnd.nextInt(500);
+            int to = from + rnd.nextInt(100);
+            
+            assertEquals(list2.headMap(from, false).size(), 
+                         list1.rankOf(from));
+            assertEquals(list2.subMap(from, true, to, false).size(), 
+                         list1.countInRange(from, to));
+            assertEquals(list2.subMap(from, false, to, true).size(), 
+                         list1.subMap(from, false, to, true).size());
+        }
+        
+        List<Integer> keys = new ArrayList<>(list2.keySet());
+        
+        for (int rank = 0; rank < keys.size(); rank++) {
+            assertEquals(keys.get(rank), list1.getByRank(rank).getKey());
+        }
+        
+        try {
+            list1.getByRank(keys.size());
+            fail("Out-of-range rank accepted.");
+        } catch (IndexOutOfBoundsException ex) {
+            
+        }
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void rankQueriesRequireIndexedMap() {
+        new SkipListMap<Integer, String>(CMP).rankOf(1);
+    }
+    
+    @Test
+    public void levelPolicies() {
+        LevelPolicy[] policies = {
+            LevelPolicy.threadLocalRandom(2, 62),
+            LevelPolicy.xorShift(8, 3, 1L),
+            LevelPolicy.xorShift(4, 1, 0L),
+            LevelPolicy.keyHash(2, 16),
+        };
+        
+        for (LevelPolicy policy : policies) {
+            for (boolean indexed : new boolean[]{ false, true }) {
+                Random rnd = new Random(31);
+                SkipListMap<Integer, String> list1 = 
+                        new SkipListMap<>(CMP, indexed, policy);
+                
+                NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+                SkipListMap<Integer, String>.Cursor cursor = list1.cursor();
+                
+                for (int i = 0; i < 5000; i++) {
+                    int key = rnd.nextInt(1000);
+                    
+                    switch (rnd.nextInt(3)) {
+                        case 0:
+                            assertEquals(list2.remove(key), list1.remove(key));
+                            break;
+                        
+                        case 1:
+                            assertEquals(list2.put(key, "c" + i), 
+                                         cursor.put(key, "c" + i));
+                            break;
+                        
+                        default:
+                            assertEquals(list2.put(key, "p" + i), 
+                                         list1.put(key, "p" + i));
+                    }
+                }
+                
+                assertViewsEqual(list2, list1);
+                assertSame(policy, list1.levelPolicy());
+            }
+        }
+    }
+    
+    @Test
+    public void levelPolicyRejectsBadArguments() {
+        try {
+            LevelPolicy.threadLocalRandom(3, 10);
+            fail("Branching factor 3 accepted.");
+        } catch (IllegalArgumentException ex) {
+            
+        }
+        
+        try {
+            LevelPolicy.xorShift(4, 0, 1L);
+            fail("Maximum level 0 accepted.");
+        } catch (IllegalArgumentException ex) {
+            
+        }
+        
+        try {
+            LevelPolicy.keyHash(8, 22); // 64 random bits reach level 21
+            fail("Unreachable maximum level accepted.");
+        } catch (IllegalArgumentException ex) {
+            
+        }
+        
+        assertEquals(21, LevelPolicy.keyHash(8, 21).maxLevel());
+        
+        for (int[] bad : new int[][]{ { 1, 10 }, { 6, 10 }, { 4, 63 } }) {
+            LevelPolicy policy = new LevelPolicy() {
+                
+                @Override
+                public int level(Object key) {
+                    return 0;
+                }
+                
+                @Override
+                public int branching() {
+                    return bad[0];
+                }
+                
+                @Override
+                public int maxLevel() {
+                    return bad[1];
+                }
+            };
+            
+            try {
+                new SkipListMap<Integer, String>(CMP, false, policy);
+                fail("Custom policy " + Arrays.toString(bad) + " accepted.");
+            } catch (IllegalArgumentException ex) {
+                
+            }
+            
+            try {
+                SkipListMap.sequential(CMP, policy);
+                fail("Custom policy " + Arrays.toString(bad) + " accepted.");
+            } catch (IllegalArgumentException ex) {
+                
+            }
+        }
+    }
+    
+    @Test
+    public void stats() {
+        SkipListMap<Integer, String> list = 
+                new SkipListMap<>(CMP, false, key -> 0);
+        
+        for (int i = 0; i < 10; i++) {
+            list.put(i, "Hello");
+        }
+        
+        // Only the head has an index, the lookups descend once and walk:
+        SkipListMap.Stats stats = list.stats();
+        assertEquals(1, stats.height());
+        assertArrayEquals(new long[]{ 10, 0 }, stats.nodesPerLevel());
+        assertEquals(6.5, stats.averageSearchPath(), 1e-9);
+        assertEquals(11, stats.maxSearchPath());
+        
+        TreeMap<Integer, String> sorted = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 1024; i++) {
+            sorted.put(i, "Hello");
+        }
+        
+        assertArrayEquals(new long[]{ 1024, 256, 64, 16, 4, 1 }, 
+                          new SkipListMap<>(sorted).stats().nodesPerLevel());
+        assertEquals(0, stats.staleIndices());
+        
+        // The same operations under the same seed build the same towers:
+        SkipListMap.Stats stats1 = 
+                randomMap(LevelPolicy.xorShift(2, 20, 7L), 20_000).stats();
+        
+        SkipListMap.Stats stats2 = 
+                randomMap(LevelPolicy.xorShift(2, 20, 7L), 20_000).stats();
+        
+        assertArrayEquals(stats1.nodesPerLevel(), stats2.nodesPerLevel());
+        assertEquals(stats1.averageSearchPath(), 
+                     stats2.averageSearchPath(), 
+                     0.0);
+        
+        long[] levels = stats1.nodesPerLevel();
+        assertEquals(stats1.height() + 1, levels.length);
+        assertTrue(stats1.height() <= 20);
+        
+        for (int i = 1; i < levels.length; i++) {
+            assertTrue(levels[i] <= levels[i - 1]);
+        }
+        
+        assertTrue(stats1.averageSearchPath() <= stats1.maxSearchPath());
+        
+        // Keyed towers do not depend on the insertion order:
+        SkipListMap<Integer, String> list1 = 
+                new SkipListMap<>(CMP, false, LevelPolicy.keyHash(4, 20));
+        
+        SkipListMap<Integer, String> list2 = 
+                new SkipListMap<>(CMP, false, LevelPolicy.keyHash(4, 20));
+        
+        for (int i = 0; i < 5000; i++) {
+            list1.put(i, "Hello");
+            list2.put(4999 - i, "Hello");
+        }
+        
+        assertArrayEquals(list1.stats().nodesPerLevel(), 
+                          list2.stats().nodesPerLevel());
+        
+        assertEquals(SkipListMap.COUNTERS, stats1.countersEnabled());
+    }
+    
+    private static SkipListMap<Integer, String> randomMap(LevelPolicy policy,
+                                                          int operations) {
+        Random rnd = new Random(37);
+        SkipListMap<Integer, String> list = 
+                new SkipListMap<>(CMP, false, policy);
+        
+        for (int i = 0; i < operations; i++) {
+            int key = rnd.nextInt(operations / 2);
+            
+            if (rnd.nextInt(4) == 0) {
+                list.remove(key);
+            } else {
+                list.put(key, "Hello");
+            }
+        }
+        
+        return list;
+    }
+    
+    @Test
+    public void concurrentUpdates() throws InterruptedException {
+        runConcurrentUpdates(new SkipListMap<>(CMP));
+    }
+    
+    @Test
+    public void indexedConcurrentUpdates() throws InterruptedException {
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP, true);
+        NavigableMap<Integer, String> list2 = runConcurrentUpdates(list1);
+        List<Integer> keys = new ArrayList<>(list2.keySet());
+        
+        for (int rank = 0; rank < keys.size(); rank++) {
+            assertEquals(keys.get(rank), list1.getByRank(rank).getKey());
+        }
+    }
+    
+    /**
+     * Lets each of a few threads update its own residue class of keys through
+     * the map operations and a cursor, while the keys of the other threads 
+     * are being linked and unlinked around them, and checks every result 
+     * against a private {@code TreeMap}.
+     */
+    private static NavigableMap<Integer, String> 
+        runConcurrentUpdates(SkipListMap<Integer, String> list1) 
+                throws InterruptedException {
+        int threads = 4;
+        List<NavigableMap<Integer, String>> lists = new ArrayList<>();
+        Thread[] workers = new Thread[threads];
+        Throwable[] errors = new Throwable[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+            Random rnd = new Random(t);
+            int residue = t;
+            int id = t;
+            lists.add(list2);
+            
+            workers[t] = new Thread(() -> {
+                try {
+                    SkipListMap<Integer, String>.Cursor cursor = 
+                            list1.cursor();
+                    
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = rnd.nextInt(1000) * threads + residue;
+                        String value = Integer.toString(i);
+                        
+                        switch (rnd.nextInt(6)) {
+                            case 0:
+                                assertEquals(list2.remove(key), 
+                                             list1.remove(key));
+                                break;
+                            
+                            case 1:
+                                assertEquals(list2.merge(key, value, 
+                                                         String::concat),
+                                             list1.merge(key, value, 
+                                                         String::concat));
+                                break;
+                            
+                            case 2:
+                                assertEquals(list2.put(key, value), 
+                                             cursor.put(key, value));
+                                break;
+                            
+                            case 3:
+                                if (cursor.seek(key) 
+                                        && cursor.key().equals(key)) {
+                                    assertEquals(list2.remove(key), 
+                                                 cursor.remove());
+                                } else {
+                                    assertFalse(list2.containsKey(key));
+                                }
+                                
+                                break;
+                            
+                            default:
+                                assertEquals(list2.put(key, value), 
+                                             list1.put(key, value));
+                        }
+                        
+                        assertEquals(list2.get(key), list1.get(key));
+                    }
+                } catch (Throwable ex) {
+                    errors[id] = ex;
+                }
+            });
+        }
+        
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        
+        for (Throwable error : errors) {
+            if (error != null) {
+                throw new AssertionError(error);
+            }
+        }
+        
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (NavigableMap<Integer, String> list : lists) {
+            list2.putAll(list);
+        }
+        
+        assertViewsEqual(list2, list1);
+        return list2;
+    }
+    
+    @Test
+    public void snapshot() throws IOException {
+        SkipListMap<Integer, String> list1 = randomMap(
+                LevelPolicy.defaultPolicy(), 10_000);
+        
+        list1.put(-1, "x".repeat(3_000_000)); // larger than the buffer
+        Path path = folder.newFile().toPath();
+        
+        assertEquals(list1.size(), 
+                     list1.writeSnapshot(path, 
+                                         SnapshotCodec.integers(), 
+                                         SnapshotCodec.strings()));
+        
+        SkipListMap<Integer, String> list2 = 
+                SkipListMap.readSnapshot(path, 
+                                         SnapshotCodec.integers(), 
+                                         SnapshotCodec.strings(), 
+                                         CMP);
+        
+        assertViewsEqual(list1, list2);
+        assertEquals(list1.subMap(100, 200), list2.subMap(100, 200));
+        
+        SkipListMap<Long, Long> longs = new SkipListMap<>();
+        
+        for (long i = 0; i < 100_000; i++) { // fills the buffer exactly
+            longs.put(i, -i);
+        }
+        
+        Path longsPath = folder.newFile().toPath();
+        longs.writeSnapshot(longsPath, 
+                            SnapshotCodec.longs(), 
+                            SnapshotCodec.longs());
+        
+        assertEquals(longs, SkipListMap.readSnapshot(longsPath, 
+                                                     SnapshotCodec.longs(), 
+                                                     SnapshotCodec.longs()));
+        
+        Path empty = folder.newFile().toPath();
+        new SkipListMap<Integer, String>().writeSnapshot(
+                empty, SnapshotCodec.integers(), SnapshotCodec.strings());
+        
+        assertTrue(SkipListMap.readSnapshot(empty, 
+                                            SnapshotCodec.integers(), 
+                                            SnapshotCodec.strings())
+                              .isEmpty());
+        
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+        assertSnapshotRejected(path);
+        
+        bytes[bytes.length / 2] ^= 1;
+        bytes[7] = 2; // the format version
+        Files.write(path, bytes);
+        assertSnapshotRejected(path);
+    }
+    
+    private static void assertSnapshotRejected(Path path) {
+        try {
+            SkipListMap.readSnapshot(path, 
+                                     SnapshotCodec.integers(), 
+                                     SnapshotCodec.strings());
+            fail("Corrupt snapshot accepted");
+        } catch (IOException ex) {
+        }
+    }
+    
+    @Test
+    public void spliterators() {
+        SkipListMap<Integer, String> list1 = 
+                new SkipListMap<>(CMP, false, LevelPolicy.xorShift(4, 32, 7));
+        
+        for (int i = 0; i < 100_000; i++) {
+            list1.put(i, Integer.toString(i));
+        }
+        
+        Spliterator<Integer> suffix = list1.keySet().spliterator();
+        assertTrue(suffix.hasCharacteristics(Spliterator.SORTED 
+                                             | Spliterator.ORDERED
+                                             | Spliterator.DISTINCT 
+                                             | Spliterator.NONNULL));
+        assertSame(CMP, suffix.getComparator());
+        
+        Spliterator<Integer> prefix = suffix.trySplit();
+        long size1 = prefix.estimateSize();
+        long size2 = suffix.estimateSize();
+        assertEquals(100_000, size1 + size2);
+        
+        List<Integer> keys = new ArrayList<>();
+        prefix.forEachRemaining(keys::add);
+        assertTrue(keys.size() > 25_000 && keys.size() < 75_000);
+        assertTrue(Math.abs(keys.size() - size1) < 25_000);
+        assertTrue(suffix.tryAdvance(keys::add));
+        suffix.forEachRemaining(keys::add);
+        assertEquals(new ArrayList<>(list1.keySet()), keys);
+        
+        assertEquals(list1.keySet().stream().collect(Collectors.toList()),
+                     list1.keySet()
+                          .parallelStream()
+                          .collect(Collectors.toList()));
+        
+        assertEquals(list1.values().stream().collect(Collectors.toList()),
+                     list1.values()
+                          .parallelStream()
+                          .collect(Collectors.toList()));
+        
+        assertEquals(list1.entrySet().stream().collect(Collectors.toList()),
+                     list1.entrySet()
+                          .parallelStream()
+                          .collect(Collectors.toList()));
+        
+        assertEquals(list1.subMap(100, 200), 
+                     list1.subMap(100, 200)
+                          .entrySet()
+                          .parallelStream()
+                          .collect(Collectors.toMap(Map.Entry::getKey, 
+                                                    Map.Entry::getValue)));
+        
+        assertNull(new SkipListMap<Integer, String>().keySet()
+                                                     .spliterator()
+                                                     .trySplit());
+    }
+    
+    @Test
+    public void removeRange() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            Random rnd = new Random(11);
+            SkipListMap<Integer, String> list1 = 
+                    new SkipListMap<>(CMP, indexed);
+            
+            NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+            
+            for (int i = 0; i < 2000; i++) {
+                int from = rnd.nextInt(5000);
+                int to = from + rnd.nextInt(100);
+                
+                for (int j = 0; j < 20; j++) {
+                    int key = rnd.nextInt(5000);
+                    list1.put(key, "Hello");
+                    list2.put(key, "Hello");
+                }
+                
+                int count = list2.subMap(from, to).size();
+                list2.subMap(from, to).clear();
+                assertEquals(count, list1.removeRange(from, to));
+                
+                if (i % 3 == 0) {
+                    list2.headMap(from / 20).clear();
+                    list1.headMap(from / 20).clear();
+                }
+                
+                if (i % 5 == 0) {
+                    list2.subMap(to, false, to + 50, true).clear();
+                    list1.subMap(to, false, to + 50, true).clear();
+                }
+                
+                assertEquals(list2.size(), list1.size());
+            }
+            
+            assertViewsEqual(list2, list1);
+            
+            if (indexed) {
+                List<Integer> keys = new ArrayList<>(list2.keySet());
+                
+                for (int rank = 0; rank < keys.size(); rank++) {
+                    assertEquals(keys.get(rank), 
+                                 list1.getByRank(rank).getKey());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Removes ranges of an indexed map while readers descend through the 
+     * dying towers, and checks that no span is lost on the way.
+     */
+    @Test
+    public void indexedRemoveRangeWithReaders() throws InterruptedException {
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP, true);
+        NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 20_000; i++) {
+            list1.put(i, Integer.toString(i));
+            list2.put(i, Integer.toString(i));
+        }
+        
+        int threads = 3;
+        Thread[] readers = new Thread[threads];
+        Throwable[] errors = new Throwable[threads];
+        AtomicBoolean done = new AtomicBoolean();
+        
+        for (int t = 0; t < threads; t++) {
+            Random rnd = new Random(t);
+            int id = t;
+            
+            readers[t] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        int key = rnd.nextInt(20_000);
+                        String value = list1.get(key);
+                        
+                        if (value != null) {
+                            assertEquals(Integer.toString(key), value);
+                        }
+                        
+                        list1.floorKey(key);
+                        list1.lastKey();
+                        list1.cursor().seek(key);
+                    }
+                } catch (Throwable ex) {
+                    errors[id] = ex;
+                }
+            });
+        }
+        
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        
+        Random rnd = new Random(17);
+        
+        try {
+            for (int i = 0; i < 400; i++) {
+                int from = rnd.nextInt(20_000);
+                int to = from + rnd.nextInt(200);
+                int count = list2.subMap(from, to).size();
+                list2.subMap(from, to).clear();
+                assertEquals(count, list1.removeRange(from, to));
+            }
+        } finally {
+            done.set(true);
+            
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        
+        for (Throwable error : errors) {
+            if (error != null) {
+                throw new AssertionError(error);
+            }
+        }
+        
+        assertViewsEqual(list2, list1);
+        List<Integer> keys = new ArrayList<>(list2.keySet());
+        
+        for (int rank = 0; rank < keys.size(); rank++) {
+            assertEquals(keys.get(rank), list1.getByRank(rank).getKey());
+            assertEquals(rank, list1.rankOf(keys.get(rank)));
+        }
+    }
+    
+    @Test
+    public void splitAndAppend() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            SkipListMap<Integer, String> list1 = 
+                    new SkipListMap<>(CMP, indexed);
+            
+            NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+            
+            for (int i = 0; i < 1000; i++) {
+                list1.put(i, Integer.toString(i));
+                list2.put(i, Integer.toString(i));
+            }
+            
+            SkipListMap<Integer, String> tail = list1.splitAt(600);
+            assertEquals(indexed, tail.isIndexed());
+            assertViewsEqual(list2.headMap(600, false), list1);
+            assertViewsEqual(list2.tailMap(600, true), tail);
+            
+            assertEquals(400, list1.append(tail));
+            assertTrue(tail.isEmpty());
+            assertViewsEqual(list2, list1);
+            
+            if (indexed) {
+                assertEquals(Integer.valueOf(700), 
+                             list1.getByRank(700).getKey());
+            }
+        }
+    }
+    
+    @Test
+    public void indexedSplitAt() {
+        Random rnd = new Random(19);
+        
+        for (int round = 0; round < 100; round++) {
+            SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP, true);
+            NavigableMap<Integer, String> list2 = new TreeMap<>(CMP);
+            
+            for (int i = rnd.nextInt(1000); i > 0; i--) {
+                int key = rnd.nextInt(2000);
+                list1.put(key, Integer.toString(key));
+                list2.put(key, Integer.toString(key));
+            }
+            
+            int key = rnd.nextInt(2200) - 100;
+            SkipListMap<Integer, String> tail = list1.splitAt(key);
+            NavigableMap<Integer, String> tail2 = 
+                    new TreeMap<>(list2.tailMap(key, true));
+            
+            list2.tailMap(key, true).clear();
+            
+            for (int i = 0; i < 200; i++) {
+                int k = rnd.nextInt(2200) - 100;
+                
+                if (rnd.nextBoolean()) {
+                    NavigableMap<Integer, String> m = 
+                            (k < key) ? list2 : tail2;
+                    
+                    SkipListMap<Integer, String> m1 = 
+                            (k < key) ? list1 : tail;
+                    
+                    assertEquals(m.put(k, "Hello"), m1.put(k, "Hello"));
+                } else {
+                    assertEquals(list2.remove(k), list1.remove(k));
+                    assertEquals(tail2.remove(k), tail.remove(k));
+                }
+            }
+            
+            assertViewsEqual(list2, list1);
+            assertViewsEqual(tail2, tail);
+            
+            for (NavigableMap<Integer, String> m : List.of(list2, tail2)) {
+                SkipListMap<Integer, String> m1 = (m == list2) ? list1 : tail;
+                int rank = 0;
+                
+                for (Integer k : m.keySet()) {
+                    assertEquals(k, m1.getByRank(rank).getKey());
+                    assertEquals(rank++, m1.rankOf(k));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void appendRejectsDifferentComparators() {
+        SkipListMap<Integer, String> list1 = new SkipListMap<>(CMP);
+        SkipListMap<Integer, String> list2 = 
+                new SkipListMap<>(Comparator.reverseOrder());
+        
+        list2.put(1, "Hello");
+        
+        try {
+            list1.append(list2);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            
+        }
+        
+        assertTrue(list1.isEmpty());
+        assertEquals("Hello", list2.get(1));
+    }
+    
+    @Test
+    public void setOperations() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            Random rnd = new Random(13);
+            SkipListMap<Integer, String> map1 = new SkipListMap<>(CMP, indexed);
+            SkipListMap<Integer, String> map2 = new SkipListMap<>(CMP, indexed);
+            TreeMap<Integer, String> tree1 = new TreeMap<>(CMP);
+            TreeMap<Integer, String> tree2 = new TreeMap<>(CMP);
+            
+            for (int i = 0; i < 3000; i++) {
+                int key = rnd.nextInt(5000);
+                map1.put(key, "a" + key);
+                tree1.put(key, "a" + key);
+                key = rnd.nextInt(5000);
+                map2.put(key, "b" + key);
+                tree2.put(key, "b" + key);
+            }
+            
+            BiFunction<String, String, String> concat = 
+                    (v1, v2) -> v1.length() % 2 == 0 ? null : v1 + v2;
+            
+            TreeMap<Integer, String> union = new TreeMap<>(tree1);
+            tree2.forEach((k, v) -> union.merge(k, v, concat));
+            TreeMap<Integer, String> intersection = new TreeMap<>(CMP);
+            TreeMap<Integer, String> difference = new TreeMap<>(tree1);
+            
+            for (Map.Entry<Integer, String> e : tree1.entrySet()) {
+                String v = tree2.get(e.getKey());
+                
+                if (v != null) {
+                    difference.remove(e.getKey());
+                    
+                    if (concat.apply(e.getValue(), v) != null) {
+                        intersection.put(e.getKey(), 
+                                         concat.apply(e.getValue(), v));
+                    }
+                }
+            }
+            
+            SkipListMap<Integer, String> result = map1.union(map2, concat);
+            assertEquals(indexed, result.isIndexed());
+            assertViewsEqual(union, result);
+            assertViewsEqual(intersection, map1.intersection(map2, concat));
+            assertViewsEqual(difference, map1.difference(map2));
+            assertTrue(map1.difference(map1).isEmpty());
+            
+            map1.mergeFrom(map2, concat);
+            assertViewsEqual(union, map1);
+            assertViewsEqual(tree2, map2);
+            
+            if (indexed) {
+                List<Integer> keys = new ArrayList<>(union.keySet());
+                
+                for (int rank = 0; rank < keys.size(); rank++) {
+                    assertEquals(keys.get(rank), 
+                                 map1.getByRank(rank).getKey());
+                }
+            }
+            
+            map1.put(-1, "x");
+            assertEquals("x", map1.get(-1));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void setOperationsRejectDifferentComparators() {
+        new SkipListMap<Integer, String>(CMP).union(
+                new SkipListMap<>(Comparator.reverseOrder()), 
+                (v1, v2) -> v1);
+    }
+    
+    @Test
+    public void keyPrefixes() {
+        Random rnd = new Random(17);
+        KeyPrefix<String> strings = KeyPrefix.strings();
+        KeyPrefix<byte[]> bytes = KeyPrefix.bytes();
+        
+        for (int i = 0; i < 100_000; i++) {
+            String s1 = randomString(rnd);
+            String s2 = randomString(rnd);
+            int c = s1.compareTo(s2);
+            int pc = Long.compareUnsigned(strings.prefix(s1), 
+                                          strings.prefix(s2));
+            
+            assertTrue(c == 0 ? pc == 0 : c * pc >= 0);
+            
+            byte[] b1 = s1.getBytes(StandardCharsets.UTF_8);
+            byte[] b2 = s2.getBytes(StandardCharsets.UTF_8);
+            c = Arrays.compareUnsigned(b1, b2);
+            pc = Long.compareUnsigned(bytes.prefix(b1), bytes.prefix(b2));
+            
+            assertTrue(c == 0 ? pc == 0 : c * pc >= 0);
+        }
+        
+        for (boolean indexed : new boolean[]{ false, true }) {
+            SkipListMap<String, Integer> map1 = 
+                    SkipListMap.<String, Integer>builder()
+                               .indexed(indexed)
+                               .keyPrefix(strings)
+                               .build();
+            
+            TreeMap<String, Integer> map2 = new TreeMap<>();
+            
+            for (int i = 0; i < 20_000; i++) {
+                String key = randomString(rnd);
+                int coin = rnd.nextInt(10);
+                
+                if (coin < 5) {
+                    assertEquals(map2.put(key, i), map1.put(key, i));
+                } else if (coin < 8) {
+                    assertEquals(map2.remove(key), map1.remove(key));
+                } else {
+                    assertEquals(map2.get(key), map1.get(key));
+                    assertEquals(map2.floorKey(key), map1.floorKey(key));
+                    assertEquals(map2.higherKey(key), map1.higherKey(key));
+                }
+            }
+            
+            assertEquals(map2, map1);
+            assertEquals(new ArrayList<>(map2.keySet()), 
+                         new ArrayList<>(map1.keySet()));
+            assertSame(strings, map1.splitAt("/ab/b").keyPrefix());
+        }
+    }
+    
+    private static String randomString(Random rnd) {
+        char[] chars = { 'a', 'b', '/', '\0', '\u00FE', '\u00FF', '\u0100', 
+                         '\uFFFF' };
+        
+        StringBuilder sb = new StringBuilder("/ab/");
+        
+        for (int i = rnd.nextInt(10); i > 0; i--) {
+            sb.append(chars[rnd.nextInt(chars.length)]);
+        }
+        
+        return sb.toString();
+    }
+    
+    @Test
+    public void aggregate() {
+        Random rnd = new Random(23);
+        Aggregator<Integer, Long> sum = Aggregator.summingLong(v -> v);
+        Aggregator<Integer, Integer> min = Aggregator.minimum(CMP);
+        SkipListMap<Integer, Integer> map1 = 
+                SkipListMap.<Integer, Integer>builder()
+                           .comparator(CMP)
+                           .indexed(true)
+                           .aggregator(sum)
+                           .build();
+        
+        SkipListMap<Integer, Integer> map3 = 
+                SkipListMap.<Integer, Integer>builder()
+                           .comparator(CMP)
+                           .indexed(true)
+                           .aggregator(min)
+                           .build();
+        
+        TreeMap<Integer, Integer> map2 = new TreeMap<>(CMP);
+        
+        for (int i = 0; i < 3000; i++) {
+            int key = rnd.nextInt(2000);
+            int value = rnd.nextInt(1000);
+            
+            switch (rnd.nextInt(8)) {
+                case 0 -> {
+                    map1.remove(key);
+                    map3.remove(key);
+                    map2.remove(key);
+                }
+                case 1 -> {
+                    map1.replace(key, value);
+                    map3.replace(key, value);
+                    map2.replace(key, value);
+                }
+                case 2 -> {
+                    map1.removeRange(key, key + 20);
+                    map3.removeRange(key, key + 20);
+                    map2.subMap(key, key + 20).clear();
+                }
+                case 3 -> {
+                    map1.subMap(key, false, key + 10, true).clear();
+                    map3.subMap(key, false, key + 10, true).clear();
+                    map2.subMap(key, false, key + 10, true).clear();
+                }
+                case 4 -> {
+                    map1.pollFirstEntry();
+                    map3.pollFirstEntry();
+                    map2.pollFirstEntry();
+                }
+                default -> {
+                    map1.merge(key, value, Integer::sum);
+                    map3.merge(key, value, Integer::sum);
+                    map2.merge(key, value, Integer::sum);
+                }
+            }
+            
+            int from = rnd.nextInt(2000);
+            int to = from + rnd.nextInt(1000);
+            
+            assertEquals(map2.subMap(from, to).values().stream()
+                                               .mapToLong(v -> v).sum(),
+                         (long) map1.aggregate(sum, from, to));
+            
+            assertEquals(map2.subMap(from, to).values().stream()
+                                               .min(CMP).orElse(null),
+                         map3.aggregate(min, from, to));
+        }
+        
+        assertEquals(map2, map1);
+        assertEquals(map2, map3);
+        
+        SkipListMap<Integer, Integer> tail = map1.splitAt(1000);
+        map1.mergeFrom(map1.union(tail, Integer::sum), Integer::sum);
+        
+        assertEquals(map2.headMap(1000).values().stream()
+                                                .mapToLong(v -> 2 * v).sum()
+                     + map2.tailMap(1000).values().stream()
+                                                  .mapToLong(v -> v).sum(),
+                     (long) map1.aggregate(sum, 0, 2000));
+        
+        assertEquals(map2.tailMap(1000).values().stream()
+                                                .mapToLong(v -> v).sum(),
+                     (long) tail.aggregate(sum, 0, 2000));
+        
+        try {
+            map1.aggregate(Aggregator.summingLong(v -> v), 0, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void hashed() {
+        Random rnd = new Random(29);
+        SkipListMap<String, Integer> map1 = 
+                SkipListMap.<String, Integer>builder()
+                           .indexed(true)
+                           .hashed(true)
+                           .build();
+        
+        TreeMap<String, Integer> map2 = new TreeMap<>();
+        assertTrue(map1.isHashed());
+        
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + rnd.nextInt(3000);
+            
+            switch (rnd.nextInt(6)) {
+                case 0 -> assertEquals(map2.remove(key), map1.remove(key));
+                case 1 -> {
+                    String to = key + "5";
+                    map2.subMap(key, to).clear();
+                    map1.removeRange(key, to);
+                }
+                case 2 -> assertEquals(map2.pollFirstEntry(), 
+                                       map1.pollFirstEntry());
+                default -> assertEquals(map2.put(key, i), map1.put(key, i));
+            }
+            
+            String probe = "k" + rnd.nextInt(3000);
+            assertEquals(map2.get(probe), map1.get(probe));
+            assertEquals(map2.containsKey(probe), map1.containsKey(probe));
+        }
+        
+        assertEquals(map2, map1);
+        
+        SkipListMap<String, Integer> tail = map1.splitAt("k5");
+        assertTrue(tail.isHashed());
+        map1.mergeFrom(tail.union(map1, Integer::sum), Integer::sum);
+        
+        for (int k = 0; k < 3000; k++) {
+            String key = "k" + k;
+            Integer value = map2.get(key);
+            boolean moved = key.compareTo("k5") >= 0;
+            
+            Integer merged = (value == null || moved) 
+                    ? value 
+                    : Integer.valueOf(2 * value);
+            
+            assertEquals(moved ? value : null, tail.get(key));
+            assertEquals(merged, map1.get(key));
+        }
+        
+        map1.clear();
+        assertNull(map1.get("k1"));
+        map1.put("k1", 1);
+        assertEquals(Integer.valueOf(1), map1.get("k1"));
+        
+        try {
+            SkipListMap.<String, Integer>builder().hashed(true).build();
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void sized() {
+        Sizer<String> sizer = Sizer.strings();
+        
+        for (boolean indexed : new boolean[]{ false, true }) {
+            Random rnd = new Random(31);
+            SkipListMap<String, String> map1 = 
+                    SkipListMap.<String, String>builder()
+                               .indexed(indexed)
+                               .sized(sizer, sizer)
+                               .build();
+            
+            TreeMap<String, String> map2 = new TreeMap<>();
+            map1.put("a", "b");
+            long overhead = map1.byteSize() - sizer.sizeOf("a") 
+                                            - sizer.sizeOf("b");
+            map1.clear();
+            assertEquals(0L, map1.byteSize());
+            
+            for (int i = 0; i < 5000; i++) {
+                String key = randomString(rnd);
+                String value = "v" + rnd.nextInt(1 << rnd.nextInt(20));
+                
+                switch (rnd.nextInt(5)) {
+                    case 0 -> assertEquals(map2.remove(key), map1.remove(key));
+                    case 1 -> assertEquals(map2.pollFirstEntry(), 
+                                           map1.pollFirstEntry());
+                    case 2 -> assertEquals(map2.replace(key, value), 
+                                           map1.replace(key, value));
+                    default -> assertEquals(map2.put(key, value), 
+                                            map1.put(key, value));
+                }
+            }
+            
+            long expected = 0L;
+            
+            for (Map.Entry<String, String> e : map2.entrySet()) {
+                expected += overhead 
+                          + sizer.sizeOf(e.getKey()) 
+                          + sizer.sizeOf(e.getValue());
+            }
+            
+            assertEquals(expected, map1.byteSize());
+            map1.removeRange("/ab/a", "/ab/b");
+            map2.subMap("/ab/a", "/ab/b").clear();
+            expected = 0L;
+            
+            for (Map.Entry<String, String> e : map2.entrySet()) {
+                expected += overhead 
+                          + sizer.sizeOf(e.getKey()) 
+                          + sizer.sizeOf(e.getValue());
+            }
+            
+            assertEquals(expected, map1.byteSize());
+            
+            while (map1.pollFirstEntry() != null) {
+            }
+            
+            assertEquals(0L, map1.byteSize());
+        }
+    }
+    
+    @Test
+    public void freezeAndSwap() {
+        Sizer<String> sizer = Sizer.strings();
+        SkipListMap<String, String> map = 
+                SkipListMap.<String, String>builder()
+                           .indexed(true)
+                           .sized(sizer, sizer)
+                           .build();
+        
+        List<NavigableMap<String, String>> flushed = new ArrayList<>();
+        map.setHighWaterMark(10_000L, m -> flushed.add(m.freezeAndSwap()));
+        int count = 0;
+        
+        for (int i = 0; i < 1000; i++) {
+            long before = map.byteSize();
+            
+            map.put("key" + i, "value" + i);
+            
+            if (map.isEmpty()) { // flushed by the put
+                assertTrue(before <= 10_000L);
+                assertEquals(0L, map.byteSize());
+            }
+        }
+        
+        assertFalse(flushed.isEmpty());
+        
+        for (NavigableMap<String, String> frozen : flushed) {
+            count += frozen.size();
+            
+            try {
+                frozen.put("key", "value");
+                fail();
+            } catch (UnsupportedOperationException e) {
+            }
+        }
+        
+        assertEquals(1000, count + map.size());
+        assertEquals("value999", map.get("key999"));
+        
+        try {
+            SkipListMap.<String, String>builder()
+                       .sized(sizer, sizer)
+                       .build()
+                       .freezeAndSwap();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+    
+    @Test
+    public void builderComposesFeatures() {
+        Random rnd = new Random(37);
+        Aggregator<Integer, Long> sum = Aggregator.summingLong(v -> v);
+        Sizer<String> sizer = Sizer.strings();
+        SkipListMap<String, Integer> map1 = 
+                SkipListMap.<String, Integer>builder()
+                           .indexed(true)
+                           .levelPolicy(LevelPolicy.keyHash(4, 20))
+                           .keyPrefix(KeyPrefix.strings())
+                           .aggregator(sum)
+                           .hashed(true)
+                           .sized(sizer, Sizer.constant(16L))
+                           .build();
+        
+        TreeMap<String, Integer> map2 = new TreeMap<>();
+        
+        for (int i = 0; i < 5000; i++) {
+            String key = randomString(rnd);
+            
+            if (rnd.nextInt(4) == 0) {
+                assertEquals(map2.remove(key), map1.remove(key));
+            } else {
+                assertEquals(map2.put(key, i), map1.put(key, i));
+            }
+        }
+        
+        assertTrue(map1.isHashed());
+        assertNotNull(map1.keyPrefix());
+        assertEquals(map2, map1);
+        assertEquals(map2.values().stream().mapToLong(v -> v).sum(), 
+                     (long) map1.aggregate(sum, "", "\uffff"));
+        
+        SkipListMap<String, Integer> tail = map1.splitAt("/ab/b");
+        assertTrue(tail.isHashed());
+        assertEquals(map1.levelPolicy(), tail.levelPolicy());
+        assertTrue(tail.byteSize() > 0L);
+        assertEquals(map2.tailMap("/ab/b"), tail);
+        assertEquals(map2.tailMap("/ab/b").values().stream()
+                                                  .mapToLong(v -> v).sum(),
+                     (long) tail.aggregate(sum, "", "\uffff"));
+        
+        try {
+            SkipListMap.<String, Integer>builder().aggregator(sum).build();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            
+        }
+        
+        try {
+            SkipListMap.<String, Integer>builder().sized(sizer, null);
+            fail();
+        } catch (NullPointerException ex) {
+            
+        }
+    }
+    
+    @Test
+    public void pointInTimeSnapshot() {
+        Random rnd = new Random(23);
+        SkipListMap<Integer, String> map = new SkipListMap<>(CMP, true);
+        List<SkipListMap.Snapshot<Integer, String>> snapshots = 
+                new ArrayList<>();
+        
+        List<TreeMap<Integer, String>> copies = new ArrayList<>();
+        
+        for (int i = 0; i < 4000; i++) {
+            Integer key = rnd.nextInt(300);
+            String c = "c" + i;
+            
+            switch (rnd.nextInt(8)) {
+                case 0:
+                    map.remove(key);
+                    break;
+                    
+                case 1:
+                    map.replace(key, "r" + i);
+                    break;
+                    
+                case 2:
+                    map.removeRange(key, key + rnd.nextInt(20));
+                    break;
+                    
+                case 3:
+                    map.compute(key, (k, v) -> (v == null) ? c : null);
+                    break;
+                    
+                default:
+                    map.put(key, "v" + i);
+            }
+            
+            if (i % 500 == 0) {
+                snapshots.add(map.snapshot());
+                copies.add(new TreeMap<>(map));
+            }
+            
+            if (i % 700 == 699) {
+                snapshots.remove(0).close();
+                copies.remove(0);
+            }
+        }
+        
+        SkipListMap.Snapshot<Integer, String> last = map.snapshot();
+        TreeMap<Integer, String> lastCopy = new TreeMap<>(map);
+        map.clear();
+        
+        for (int i = 0; i < snapshots.size(); i++) {
+            NavigableMap<Integer, String> s = snapshots.get(i);
+            TreeMap<Integer, String> copy = copies.get(i);
+            
+            assertViewsEqual(s, copy);
+            assertViewsEqual(s.subMap(50, true, 150, false), 
+                             copy.subMap(50, true, 150, false));
+            
+            assertViewsEqual(s.descendingMap().headMap(100, true), 
+                             copy.descendingMap().headMap(100, true));
+            
+            for (int key = 0; key < 300; key++) {
+                assertEquals(copy.get(key), s.get(key));
+                assertEquals(copy.lowerEntry(key), s.lowerEntry(key));
+                assertEquals(copy.ceilingEntry(key), s.ceilingEntry(key));
+            }
+        }
+        
+        assertViewsEqual(last, lastCopy);
+        assertTrue(map.isEmpty());
+        
+        try {
+            map.freezeAndSwap();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        
+        try {
+            last.put(1, "one");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        
+        last.close();
+        
+        try {
+            last.get(1);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        
+        snapshots.forEach(SkipListMap.Snapshot::close);
+        map.put(1, "one");
+        assertEquals(1, map.freezeAndSwap().size());
+        
+        try {
+            new SkipListMap<Integer, String>(CMP, false).snapshot();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+    
+    @Test
+    public void concurrentPollLastEntry() throws InterruptedException {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            SkipListMap<Integer, String> map = new SkipListMap<>(CMP, indexed);
+            
+            for (int i = 0; i < 20_000; i++) {
+                map.put(i, Integer.toString(i));
+            }
+            
+            int threads = 4;
+            Thread[] workers = new Thread[threads];
+            Throwable[] errors = new Throwable[threads];
+            List<List<Integer>> polled = new ArrayList<>();
+            
+            for (int t = 0; t < threads; t++) {
+                List<Integer> keys = new ArrayList<>();
+                int id = t;
+                polled.add(keys);
+                
+                workers[t] = new Thread(() -> {
+                    try {
+                        Map.Entry<Integer, String> e;
+                        
+                        while ((e = map.pollLastEntry()) != null) {
+                            assertEquals(e.getKey().toString(), e.getValue());
+                            
+                            if (!keys.isEmpty()) {
+                                assertTrue(e.getKey() 
+                                        < keys.get(keys.size() - 1));
+                            }
+                            
+                            keys.add(e.getKey());
+                        }
+                    } catch (Throwable ex) {
+                        errors[id] = ex;
+                    }
+                });
+            }
+            
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            
+            for (Throwable error : errors) {
+                if (error != null) {
+                    throw new AssertionError(error);
+                }
+            }
+            
+            boolean[] seen = new boolean[20_000];
+            
+            for (List<Integer> keys : polled) {
+                for (Integer key : keys) {
+                    assertFalse(seen[key]);
+                    seen[key] = true;
+                }
+            }
+            
+            assertEquals(20_000, polled.stream().mapToInt(List::size).sum());
+            assertTrue(map.isEmpty());
+            assertEquals(0, map.size());
+            assertNull(map.lastEntry());
+            map.put(1, "Hello");
+            assertEquals(Integer.valueOf(1), map.lastKey());
+        }
+    }
+    
+    @Test
+    public void descendingScans() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            Random rnd = new Random(indexed ? 24 : 42);
+            SkipListMap<Integer, String> map1 = 
+                    new SkipListMap<>(CMP, indexed);
+            
+            TreeMap<Integer, String> map2 = new TreeMap<>();
+            
+            for (int i = 0; i < 10_000; i++) {
+                int coin = rnd.nextInt(100);
+                Integer key = rnd.nextInt(500);
+                
+                if (coin < 50) {
+                    map1.put(key, key.toString());
+                    map2.put(key, key.toString());
+                } else if (coin < 80) {
+                    map1.remove(key);
+                    map2.remove(key);
+                } else if (coin < 85) {
+                    assertEquals(map2.pollLastEntry(), map1.pollLastEntry());
+                } else if (coin < 88) {
+                    map1.removeRange(key, key + 50);
+                    map2.subMap(key, key + 50).clear();
+                }
+                
+                assertEquals(map2.lastEntry(), map1.lastEntry());
+            }
+            
+            assertEquals(new ArrayList<>(map2.descendingMap().entrySet()),
+                         new ArrayList<>(map1.descendingMap().entrySet()));
+            
+            if (indexed) {
+                int rank = 0;
+                
+                for (Integer key : map2.keySet()) {
+                    assertEquals(key, map1.getByRank(rank).getKey());
+                    assertEquals(rank++, map1.rankOf(key));
+                }
+            }
+            
+            // Remove every other key while scanning downwards:
+            Iterator<Integer> it = map1.descendingKeySet().iterator();
+            
+            for (boolean odd = false; it.hasNext(); odd = !odd) {
+                Integer key = it.next();
+                
+                if (odd) {
+                    it.remove();
+                    map2.remove(key);
+                    map1.remove(key - 1);
+                    map2.remove(key - 1);
+                }
+            }
+            
+            assertEquals(new ArrayList<>(map2.descendingKeySet()),
+                         new ArrayList<>(map1.descendingKeySet()));
+            
+            SkipListMap<Integer, String>.Cursor cursor = map1.cursor();
+            List<Integer> keys = new ArrayList<>();
+            
+            if (!map1.isEmpty()) {
+                cursor.seek(map1.lastKey());
+                
+                do {
+                    keys.add(cursor.key());
+                } while (cursor.prev());
+            }
+            
+            assertEquals(new ArrayList<>(map2.descendingKeySet()), keys);
+            
+            map1.clear();
+            assertNull(map1.lastEntry());
+            map1.put(1, "1");
+            assertEquals(Integer.valueOf(1), map1.lastKey());
+        }
+    }
+    
+    @Test
+    public void forEachAndIteratorRemove() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            SkipListMap<Integer, String> map1 = 
+                    SkipListMap.<Integer, String>builder()
+                               .comparator(CMP)
+                               .indexed(indexed)
+                               .sized(Sizer.constant(16L), Sizer.strings())
+                               .build();
+            
+            TreeMap<Integer, String> map2 = new TreeMap<>();
+            
+            for (int i = 0; i < 1000; i++) {
+                map1.put(i, Integer.toString(i));
+                map2.put(i, Integer.toString(i));
+            }
+            
+            for (Iterator<Integer> it = map1.keySet().iterator(); 
+                    it.hasNext();) {
+                if (it.next() % 4 != 0) {
+                    it.remove();
+                    
+                    try {
+                        it.remove();
+                        fail();
+                    } catch (IllegalStateException e) {
+                    }
+                }
+            }
+            
+            map2.keySet().removeIf(k -> k % 4 != 0);
+            assertEquals(map2, map1);
+            assertEquals(250, map1.size());
+            
+            List<Integer> keys = new ArrayList<>();
+            map1.forEach((k, v) -> {
+                assertEquals(Integer.toString(k), v);
+                keys.add(k);
+            });
+            
+            assertEquals(new ArrayList<>(map2.keySet()), keys);
+            
+            keys.clear();
+            map1.forEachInRange(100, false, 200, true, (k, v) -> keys.add(k));
+            assertEquals(new ArrayList<>(map2.subMap(100, false, 200, true)
+                                             .keySet()), 
+                         keys);
+            
+            keys.clear();
+            map1.subMap(7, 99).forEach((k, v) -> keys.add(k));
+            assertEquals(new ArrayList<>(map2.subMap(7, 99).keySet()), keys);
+            
+            keys.clear();
+            map1.headMap(40, false).descendingMap().forEach((k, v) -> keys.add(k));
+            assertEquals(new ArrayList<>(map2.headMap(40, false)
+                                             .descendingMap()
+                                             .keySet()), 
+                         keys);
+            
+            map1.values().removeIf(v -> true);
+            assertTrue(map1.isEmpty());
+            assertEquals(0L, map1.byteSize());
+            
+            try {
+                map1.forEachInRange(2, true, 1, true, (k, v) -> {});
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+    
+    @Test
+    public void priorityQueue() {
+        for (boolean indexed : new boolean[]{ false, true }) {
+            Random rnd = new Random(19);
+            SkipListMap<Integer, String> map1 = new SkipListMap<>(CMP, indexed);
+            TreeMap<Integer, String> map2 = new TreeMap<>(CMP);
+            int now = 0;
+            
+            for (int i = 0; i < 5000; i++) {
+                for (int j = rnd.nextInt(5); j > 0; j--) {
+                    int deadline = now + rnd.nextInt(200);
+                    map1.put(deadline, "t" + i);
+                    map2.put(deadline, "t" + i);
+                }
+                
+                if (rnd.nextBoolean()) {
+                    assertEquals(map2.pollFirstEntry(), map1.pollFirstEntry());
+                } else {
+                    now += rnd.nextInt(10);
+                    List<Map.Entry<Integer, String>> drained = 
+                            new ArrayList<>();
+                    
+                    assertEquals(map2.headMap(now, true).size(), 
+                                 map1.drainUpTo(now, (k, v) -> {
+                                     drained.add(Map.entry(k, v));
+                                 }));
+                    
+                    assertEquals(new ArrayList<>(
+                                         map2.headMap(now, true).entrySet()), 
+                                 drained);
+                    
+                    map2.headMap(now, true).clear();
+                }
+                
+                assertEquals(map2.size(), map1.size());
+            }
+            
+            assertViewsEqual(map2, map1);
+            
+            try {
+                map1.drainUpTo(Integer.MAX_VALUE, (k, v) -> {
+                    if (k >= map2.firstKey() + 100) {
+                        throw new IllegalStateException();
+                    }
+                });
+                
+                fail();
+            } catch (IllegalStateException e) {
+                // The mapping passed to the throwing action is removed too:
+                map2.headMap(map2.ceilingKey(map2.firstKey() + 100), true)
+                    .clear();
+            }
+            
+            assertViewsEqual(map2, map1);
+            
+            if (indexed) {
+                assertEquals(map2.firstKey(), map1.getByRank(0).getKey());
+                assertEquals(map2.lastKey(), 
+                             map1.getByRank(map2.size() - 1).getKey());
+            }
+            
+            while (!map2.isEmpty()) {
+                assertEquals(map2.pollFirstEntry(), map1.pollFirstEntry());
+            }
+            
+            assertNull(map1.pollFirstEntry());
+            assertTrue(map1.isEmpty());
+        }
+    }
+}